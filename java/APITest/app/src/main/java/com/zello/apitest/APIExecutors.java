@@ -0,0 +1,218 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ Factory methods for executors that run ZelloAPI requests.
+
+ API calls spend nearly all of their time waiting on the network, so the default
+ pool is sized at a small multiple of the available cores and backed by a bounded
+ queue. Once both are full, the rejection handler decides what happens to new calls.
+ The default handler rejects them, and the completion handler of the rejected call
+ receives the RejectedExecutionException.
+
+ See ZelloAPI.setExecutor()
+ */
+public final class APIExecutors {
+
+	/// Default maximum number of requests waiting for a free worker thread.
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/// Idle worker threads are stopped after this many seconds.
+	private static final long KEEP_ALIVE_SECONDS = 30;
+	/// Number of spare threads, and of tasks that may wait for them.
+	static final int SPARE_THREADS = 2;
+	static final int SPARE_QUEUE_CAPACITY = 256;
+
+	private static final AtomicInteger poolNumber = new AtomicInteger(1);
+	private static ScheduledExecutorService scheduler;
+	/// Runs the tasks the request executor rejects or would run on the timer thread.
+	private static ExecutorService spareExecutor;
+
+	private APIExecutors() {
+	}
+
+	/**
+	 Returns the single daemon thread used by ZelloAPI for timers.
+	 Tasks scheduled on it directly must only do constant work, such as disconnecting a connection.
+	 Anything that sends requests or calls completion handlers goes through schedule() instead.
+	 */
+	static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new WorkerThreadFactory("ZelloAPI-timer-"));
+			executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+			scheduler = executor;
+		}
+
+		return scheduler;
+	}
+
+	/**
+	 Runs the task on the executor after the delay. The timer thread only hands the task over, so a slow
+	 completion handler or a request does not hold up the other timers.
+
+	 - parameter executor: executor to run the task on, e.g. the request executor. Null to use a spare thread.
+	 - returns:            handle cancelling the task until it has been handed over.
+	 */
+	static ScheduledFuture<?> schedule(final Runnable task, long delay, TimeUnit unit, final Executor executor) {
+		return getScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				handOff(task, executor);
+			}
+		}, delay, unit);
+	}
+
+	/**
+	 Runs the task on the executor, but not on the calling thread: if the executor rejects the task,
+	 or runs it on the caller as CallerRunsPolicy does, the task runs on a spare thread instead.
+	 The spare threads are few and their queue is bounded; once it is full as well, the task runs on the
+	 calling thread after all, as it may be the only completion of a call and must not be dropped.
+	 */
+	static void handOff(final Runnable task, Executor executor) {
+		if (executor != null) {
+			final Thread caller = Thread.currentThread();
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (Thread.currentThread() == caller) {
+							getSpareExecutor().execute(task);
+						} else {
+							task.run();
+						}
+					}
+				});
+				return;
+			} catch (RejectedExecutionException e) {
+				// Not dropped: the task may be the only completion of a call
+			}
+		}
+
+		getSpareExecutor().execute(task);
+	}
+
+	private static synchronized ExecutorService getSpareExecutor() {
+		if (spareExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(SPARE_THREADS, SPARE_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(SPARE_QUEUE_CAPACITY), new WorkerThreadFactory("ZelloAPI-spare-"),
+					new ThreadPoolExecutor.CallerRunsPolicy());
+			allowCoreThreadTimeOut(executor);
+			spareExecutor = executor;
+		}
+
+		return spareExecutor;
+	}
+
+	// Lets idle threads stop. Not available before Android 2.3 (API level 9), where they are kept instead.
+	private static void allowCoreThreadTimeOut(ThreadPoolExecutor executor) {
+		try {
+			executor.allowCoreThreadTimeOut(true);
+		} catch (NoSuchMethodError e) {
+			// Empty
+		}
+	}
+
+	/**
+	 Default number of worker threads: twice the number of available cores, but no less than 4.
+	 */
+	public static int defaultThreadCount() {
+		return Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 Creates the default executor used by ZelloAPI when none is provided.
+	 */
+	public static ThreadPoolExecutor newBoundedExecutor() {
+		return newBoundedExecutor(defaultThreadCount(), DEFAULT_QUEUE_CAPACITY, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 Creates a fixed-size pool of daemon threads with a bounded request queue.
+
+	 - parameter threads:          maximum number of requests executed concurrently.
+	 - parameter queueCapacity:    maximum number of requests waiting for a free thread.
+	 - parameter rejectionHandler: policy applied when both the pool and the queue are full,
+	                               e.g. ThreadPoolExecutor.CallerRunsPolicy to throttle the caller instead of failing.
+	 */
+	public static ThreadPoolExecutor newBoundedExecutor(int threads, int queueCapacity, RejectedExecutionHandler rejectionHandler) {
+		if (threads < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("threads and queueCapacity must be positive");
+		}
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueCapacity), new WorkerThreadFactory("ZelloAPI-" + poolNumber.getAndIncrement() + "-"), rejectionHandler);
+		allowCoreThreadTimeOut(executor);
+
+		return executor;
+	}
+
+	/**
+	 Returns true if the running JVM supports virtual threads (JDK 21 or newer).
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return findVirtualThreadFactoryMethod() != null;
+	}
+
+	/**
+	 Creates an executor that starts a new virtual thread for each request.
+	 Virtual threads are cheap to create, so this executor has no queue and never rejects requests.
+	 Use it on JDK 21 or newer; on older JVMs and on Android the bounded default pool is returned instead.
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		Method method = findVirtualThreadFactoryMethod();
+		if (method != null) {
+			try {
+				return (ExecutorService) method.invoke(null);
+			} catch (Exception e) {
+				// Fall back to the platform thread pool
+			}
+		}
+
+		return newBoundedExecutor();
+	}
+
+	private static Method findVirtualThreadFactoryMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		private final String namePrefix;
+
+		WorkerThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+
+}
@@ -19,12 +19,30 @@ public class APITest {
 	static String TAG = "APITest";
 
 	ZelloAPI api;
+	MetricsRecorder metrics = new MetricsRecorder();
 
 	public APITest(String host, String apiKey, String username, String password) {
 		api = new ZelloAPI(host, apiKey);
+		configure();
 		authenticate(username, password);
 	}
 
+	// Optional: none of these is needed to run the test.
+	void configure() {
+		// Log in again and resend the call if the session expires
+		api.getSessionManager().setReauthenticate(true);
+		// Retry failed reads, and stop calling a server that is down
+		api.setRetryPolicy(new RetryPolicy().setMaxAttempts(3));
+		api.setCircuitBreaker(new CircuitBreaker());
+		// Share concurrent identical reads, and cache listings for ResponseCache.DEFAULT_TTL_MILLIS
+		api.setRequestDeduplication(true);
+		api.setResponseCache(new ResponseCache());
+		// Send long user lists in calls of at most 500 users, at most 2 at a time
+		api.setListChunking(500, 2);
+		// Measure every call; see the summary logged at the end of the test
+		api.setMetrics(metrics);
+	}
+
 	void authenticate(String username, String password) {
 		api.authenticate(username, password, new ResultCompletionHandler() {
 			@Override
@@ -182,15 +200,18 @@ public class APITest {
 					public void onResult(boolean success, JSONObject response, Exception exception) {
 						Log.w(TAG, "deleteUsers: " + Boolean.toString(success));
 
-						// List users one last time -- the new user is gone
-						api.getUsers(null, false, null, null, null, new ResultCompletionHandler() {
+						// List users one last time -- the new user is gone. Only the names are decoded.
+						api.getUsersResult(null, false, null, null, null, new ApiResultHandler() {
 							@Override
-							public void onResult(boolean success, JSONObject response, Exception exception) {
-								Log.w(TAG, "getUsers: " + Boolean.toString(success));
+							public void onResult(boolean success, ApiResult result, Exception exception) {
+								Log.w(TAG, "getUsersResult: " + Boolean.toString(success));
 
 								if (success) {
-									Log.w(TAG, response.toString());
+									for (User user : result.getUsers()) {
+										Log.w(TAG, user.getName());
+									}
 								}
+								Log.w(TAG, metrics.snapshot().toString());
 							}
 						});
 					}
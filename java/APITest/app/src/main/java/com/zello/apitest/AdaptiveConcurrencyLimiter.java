@@ -0,0 +1,254 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import org.json.JSONObject;
+
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+/**
+ Limits the number of requests in flight, adapting the limit to how the server copes.
+
+ The limiter keeps the lowest latency seen recently as the baseline of an unloaded server, and a moving
+ average of the latency of successful requests. While the average exceeds the baseline times the latency
+ tolerance, each response multiplies the limit by the latency gradient, baseline × tolerance / average,
+ but by no less than the backoff ratio.
+ A request that times out, fails with or returns one of the overload codes (429 and 503 by default),
+ or takes longer than the latency threshold, if set, multiplies the limit by the backoff ratio.
+ Any other successful request raises the limit by 1/limit while the limit is in full use,
+ so a saturated limiter grows by about one per round trip, and an idle one does not grow at all.
+ Requests above the limit wait in a queue without blocking any thread.
+
+ See ZelloAPI.setConcurrencyLimiter()
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	private final int minLimit;
+	private final int maxLimit;
+	private double backoffRatio = 0.9;
+	private double latencyTolerance = 2;
+	private long latencyThresholdNanos;
+	private Set<String> overloadCodes = new HashSet<String>(Arrays.asList("429", "503"));
+
+	private double limit;
+	private int inFlight;
+	private final LinkedList<Runnable> waiting = new LinkedList<Runnable>();
+	/// True while a thread is starting waiting requests, so a release() on that thread or another one leaves it to that loop.
+	private boolean draining;
+
+	/// Lowest latency of the previous window of samples and of the current one, 0 before the first sample.
+	private long baselineNanos;
+	private long windowMinNanos = Long.MAX_VALUE;
+	private int windowSamples;
+	/// Exponential moving average of the latency, 0 before the first sample.
+	private double averageNanos;
+	/// Number of samples after which the baseline is replaced by the lowest latency of the window, to follow a server that got slower.
+	private static final int BASELINE_WINDOW = 100;
+
+	public AdaptiveConcurrencyLimiter() {
+		this(8, 1, 200);
+	}
+
+	/**
+	 - parameter initialLimit: number of requests allowed in flight before any request completed.
+	 - parameter minLimit:     lower bound of the limit.
+	 - parameter maxLimit:     upper bound of the limit.
+	 */
+	public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("Expected 1 <= minLimit <= maxLimit");
+		}
+
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	/**
+	 - parameter backoffRatio: factor the limit is multiplied by on overload, between 0 and 1.
+	 */
+	public synchronized AdaptiveConcurrencyLimiter setBackoffRatio(double backoffRatio) {
+		if (backoffRatio <= 0 || backoffRatio >= 1) {
+			throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+		}
+
+		this.backoffRatio = backoffRatio;
+
+		return this;
+	}
+
+	/**
+	 - parameter latencyTolerance: how many times slower than the baseline a response may be before the limit is lowered.
+	                               Must be at least 1. 0 disables the latency gradient. 2 by default.
+	 */
+	public synchronized AdaptiveConcurrencyLimiter setLatencyTolerance(double latencyTolerance) {
+		if (latencyTolerance != 0 && latencyTolerance < 1) {
+			throw new IllegalArgumentException("latencyTolerance must be 0 or at least 1");
+		}
+
+		this.latencyTolerance = latencyTolerance;
+
+		return this;
+	}
+
+	/**
+	 - parameter latencyThresholdMillis: requests slower than this are treated as a sign of overload. 0 disables the check, the default.
+	 */
+	public synchronized AdaptiveConcurrencyLimiter setLatencyThreshold(long latencyThresholdMillis) {
+		this.latencyThresholdNanos = Math.max(0, latencyThresholdMillis) * 1000000;
+
+		return this;
+	}
+
+	/**
+	 - parameter codes: response "code" values and HTTP status codes that mean the server is overloaded. 429 and 503 by default.
+	 */
+	public synchronized AdaptiveConcurrencyLimiter setOverloadCodes(String... codes) {
+		overloadCodes = new HashSet<String>(Arrays.asList(codes));
+
+		return this;
+	}
+
+	/**
+	 Returns the current limit.
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 Returns the number of requests in flight.
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 Returns the number of requests waiting for a free slot.
+	 */
+	public synchronized int getWaiting() {
+		return waiting.size();
+	}
+
+	/**
+	 Runs the request now if the limit allows, otherwise once a request in flight completes.
+	 Each started request must be followed by exactly one call to release().
+	 */
+	void acquire(Runnable request) {
+		synchronized (this) {
+			if (inFlight >= (int) limit) {
+				waiting.add(request);
+				return;
+			}
+			inFlight++;
+		}
+
+		request.run();
+	}
+
+	/**
+	 Removes a request waiting for a free slot, e.g. because it was cancelled.
+
+	 - returns: true if the request was waiting; it will not be run.
+	 */
+	synchronized boolean remove(Runnable request) {
+		return waiting.remove(request);
+	}
+
+	/**
+	 Records a completed request, adjusts the limit and starts waiting requests.
+
+	 - parameter latencyNanos: time the request took.
+	 - parameter response:     response of the request, or null.
+	 - parameter exception:    client error of the request, or null.
+	 */
+	void release(long latencyNanos, JSONObject response, Exception exception) {
+		synchronized (this) {
+			boolean saturated = inFlight >= (int) limit;
+			inFlight--;
+
+			double factor = 1;
+			if (exception instanceof SocketTimeoutException || isOverloadCode(response, exception)
+					|| (latencyThresholdNanos > 0 && latencyNanos > latencyThresholdNanos)) {
+				factor = backoffRatio;
+			} else if (exception == null && response != null) {
+				factor = latencyGradient(latencyNanos);
+			}
+
+			if (factor < 1) {
+				limit = Math.max(minLimit, limit * factor);
+			} else if (exception == null && saturated) {
+				limit = Math.min(maxLimit, limit + 1 / limit);
+			}
+
+			if (draining) {
+				return;
+			}
+			draining = true;
+		}
+
+		drain();
+	}
+
+	// Starts waiting requests while there are free slots. Requests completing on this thread meanwhile only free their slot.
+	private void drain() {
+		while (true) {
+			Runnable request;
+			synchronized (this) {
+				if (waiting.isEmpty() || inFlight >= (int) limit) {
+					draining = false;
+					return;
+				}
+				request = waiting.removeFirst();
+				inFlight++;
+			}
+
+			try {
+				request.run();
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					draining = false;
+				}
+				throw e;
+			}
+		}
+	}
+
+	private boolean isOverloadCode(JSONObject response, Exception exception) {
+		if (exception instanceof HttpStatusException) {
+			return overloadCodes.contains(String.valueOf(((HttpStatusException) exception).getStatusCode()));
+		}
+
+		return response != null && overloadCodes.contains(response.optString("code", ""));
+	}
+
+	// Records the latency of a successful request, and returns the factor to multiply the limit by: below 1 if the request was too slow.
+	private double latencyGradient(long latencyNanos) {
+		if (latencyNanos <= 0) {
+			return 1;
+		}
+
+		averageNanos = averageNanos == 0 ? latencyNanos : averageNanos * 0.8 + latencyNanos * 0.2;
+		windowMinNanos = Math.min(windowMinNanos, latencyNanos);
+		baselineNanos = baselineNanos == 0 ? latencyNanos : Math.min(baselineNanos, latencyNanos);
+		if (++windowSamples >= BASELINE_WINDOW) {
+			baselineNanos = windowMinNanos;
+			windowMinNanos = Long.MAX_VALUE;
+			windowSamples = 0;
+		}
+
+		if (latencyTolerance == 0) {
+			return 1;
+		}
+		double gradient = baselineNanos * latencyTolerance / averageNanos;
+
+		return gradient < 1 ? Math.max(backoffRatio, gradient) : 1;
+	}
+
+}
@@ -0,0 +1,161 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ A request to send: everything one attempt of an API call needs, resolved when the call is made.
+ Passed to the Transport sending it.
+ */
+public final class ApiCall {
+
+	/// Command including its path parameters, e.g. "user/get/login/admin".
+	final String command;
+	/// Command without its path parameters, e.g. "user/get".
+	final String endpoint;
+	final String url;
+	final ZelloAPI.HTTPMethod method;
+	/// POST body, or null.
+	final FormBody parameters;
+	/// Deadline of the operation the call belongs to, or null.
+	final Deadline deadline;
+	/// Handle cancelling the call, or null if the request may be shared with other calls.
+	final ApiRequest request;
+	/// True if the response is parsed while it is read.
+	final boolean streaming;
+	/// Receives the response decoded on demand, or null if the response is decoded into a JSONObject.
+	final AtomicReference<ApiResult> result;
+	final int connectTimeoutMillis;
+	final int readTimeoutMillis;
+	/// Receives the phases of the call, or null.
+	final RequestListener listener;
+	/// Bytes of request bodies passed to the transport, over all attempts. Counted as sent, compressed if the body is.
+	final AtomicLong bytesSent = new AtomicLong();
+	/// Bytes of response bodies read, over all attempts. Counted after decompression.
+	final AtomicLong bytesReceived = new AtomicLong();
+
+	ApiCall(String command, String url, ZelloAPI.HTTPMethod method, FormBody parameters, Deadline deadline, ApiRequest request,
+			boolean streaming, AtomicReference<ApiResult> result, int connectTimeoutMillis, int readTimeoutMillis, RequestListener listener) {
+		this.command = command;
+		this.endpoint = ZelloAPI.endpointOf(command);
+		this.url = url;
+		this.method = method;
+		this.parameters = parameters;
+		this.deadline = deadline;
+		this.request = request;
+		this.streaming = streaming;
+		this.result = result;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.listener = listener;
+	}
+
+	/**
+	 Returns the command including its path parameters, e.g. "user/get/login/admin".
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 Returns the command without its path parameters, e.g. "user/get".
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 Returns the full request URL, including the Session ID.
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 Returns "GET" or "POST".
+	 */
+	public String getMethod() {
+		return method == ZelloAPI.HTTPMethod.POST ? "POST" : "GET";
+	}
+
+	/**
+	 Returns the form body (application/x-www-form-urlencoded), or null if the request has none.
+	 */
+	public FormBody getBody() {
+		return parameters;
+	}
+
+	/**
+	 Returns the deadline of the operation, or null. Transports should abort the request once it passes.
+	 */
+	public Deadline getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 Returns the connect timeout in milliseconds, clipped to the deadline. 0 means no timeout.
+	 */
+	public int getConnectTimeoutMillis() {
+		return deadline != null ? deadline.clip(connectTimeoutMillis) : connectTimeoutMillis;
+	}
+
+	/**
+	 Returns the read timeout in milliseconds, clipped to the deadline. 0 means no timeout.
+	 */
+	public int getReadTimeoutMillis() {
+		return deadline != null ? deadline.clip(readTimeoutMillis) : readTimeoutMillis;
+	}
+
+	/**
+	 Returns true if the response is parsed while it is read, i.e. the call has an ItemStreamHandler.
+	 Transports should then pass the body on as it arrives instead of receiving it in full first.
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 Returns true if the phases of the call are reported to a RequestListener.
+	 Transports can skip work only needed for reporting otherwise.
+	 */
+	public boolean isTraced() {
+		return listener != null;
+	}
+
+	/**
+	 Reports that the call reached a phase, if it is traced.
+	 */
+	public void trace(RequestListener.Event event) {
+		if (listener != null) {
+			listener.onEvent(this, event, System.nanoTime());
+		}
+	}
+
+	public boolean isCancelled() {
+		return request != null && request.isCancelled();
+	}
+
+	/**
+	 Sets the action aborting the request in flight when the call is cancelled, e.g. closing its connection.
+	 The transport must then still report the outcome to its ResponseHandler, typically as a failure.
+
+	 - returns: false if the call has already been cancelled; the request must not be sent then.
+	 */
+	public boolean setCancelAction(Runnable action) {
+		return request == null || request.setCancelAction(action);
+	}
+
+	/**
+	 Removes the action once the request has completed.
+	 */
+	public void clearCancelAction(Runnable action) {
+		if (request != null) {
+			request.clearCancelAction(action);
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+/**
+ Receives measurements of the requests sent by a ZelloAPI instance.
+
+ Methods are called on the threads making and completing the calls, so implementations must be
+ thread safe and return quickly. MetricsRecorder keeps the measurements in memory, to be read with
+ MetricsRecorder.snapshot() and exported periodically.
+
+ Calls completed from the response cache or joining an identical request in flight send no request
+ and are not measured.
+
+ See ZelloAPI.setMetrics()
+ */
+public interface ApiMetrics {
+
+	/// Records nothing. The default.
+	ApiMetrics NOOP = new ApiMetrics() {
+		@Override
+		public void onCallStarted(String endpoint) {
+			// Empty
+		}
+
+		@Override
+		public void onRetry(String endpoint, int attempt) {
+			// Empty
+		}
+
+		@Override
+		public void onCallCompleted(String endpoint, boolean success, String code, Exception exception,
+				long latencyNanos, long bytesSent, long bytesReceived) {
+			// Empty
+		}
+	};
+
+	/**
+	 Called when a call starts, before it waits for the executor and the limits.
+
+	 - parameter endpoint: command without its path parameters, e.g. "user/get".
+	 */
+	void onCallStarted(String endpoint);
+
+	/**
+	 Called when a failed attempt of a call is sent again.
+
+	 - parameter endpoint: command without its path parameters.
+	 - parameter attempt:  number of the attempt about to be sent, 2 for the first retry.
+	 */
+	void onRetry(String endpoint, int attempt);
+
+	/**
+	 Called once for every started call, when its completion handler is called.
+
+	 - parameter endpoint:      command without its path parameters.
+	 - parameter success:       the success passed to the completion handler.
+	 - parameter code:          "code" field of the response, e.g. "200", or null if there is no response.
+	 - parameter exception:     client error passed to the completion handler, or null.
+	 - parameter latencyNanos:  time from the start of the call to its completion, including waits and retries.
+	 - parameter bytesSent:     bytes of request bodies passed to the transport, over all attempts, compressed if sent compressed.
+	 - parameter bytesReceived: bytes of response bodies read, over all attempts, after decompression.
+	 */
+	void onCallCompleted(String endpoint, boolean success, String code, Exception exception,
+			long latencyNanos, long bytesSent, long bytesReceived);
+
+}
@@ -0,0 +1,147 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ Handle of an API call, returned by every ZelloAPI operation that takes a completion handler.
+
+ cancel() stops the call wherever it is: a request waiting for the executor, the rate limiter,
+ the concurrency limiter or a retry is dropped, and a request in flight is disconnected, freeing
+ its thread and socket right away. The completion handler is then called once with success set
+ to false and a CancellationException, and never again for this call.
+
+ Work shared with other calls is not stopped, only left: a login joined by other authenticate()
+ calls, a read shared through request deduplication and a coalesced membership change complete
+ for the other callers as usual.
+ */
+public class ApiRequest {
+
+	private boolean done;
+	private boolean cancelled;
+	/// Stops the current stage of the call, or null.
+	private Runnable cancelAction;
+	private ResultCompletionHandler completionHandler;
+
+	ApiRequest() {
+	}
+
+	/**
+	 Cancels the call if it has not completed yet.
+
+	 - returns: true if the call was cancelled by this method, false if it had already completed or been cancelled.
+	 */
+	public boolean cancel() {
+		Runnable action;
+		ResultCompletionHandler handler;
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			done = true;
+			cancelled = true;
+			action = cancelAction;
+			handler = completionHandler;
+			cancelAction = null;
+			completionHandler = null;
+		}
+
+		if (action != null) {
+			action.run();
+		}
+		if (handler != null) {
+			handler.onResult(false, null, new CancellationException("API call cancelled"));
+		}
+
+		return true;
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 Returns true once the completion handler has been called, or the call was cancelled.
+	 */
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 Returns a handler that passes the result on to the completion handler unless the call was cancelled.
+	 Streamed items are passed on as well, and the stream is stopped once the call is cancelled.
+	 */
+	ResultCompletionHandler wrap(ResultCompletionHandler handler) {
+		synchronized (this) {
+			completionHandler = handler;
+		}
+
+		final ResultCompletionHandler resultHandler = new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				ResultCompletionHandler handler = complete();
+				if (handler != null) {
+					handler.onResult(success, response, exception);
+				}
+			}
+		};
+		if (!(handler instanceof ItemStreamHandler)) {
+			return resultHandler;
+		}
+
+		final ItemStreamHandler itemHandler = (ItemStreamHandler) handler;
+		return new ItemStreamHandler() {
+			@Override
+			public boolean onItem(String listName, JSONObject item) {
+				return !isCancelled() && itemHandler.onItem(listName, item);
+			}
+
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				resultHandler.onResult(success, response, exception);
+			}
+		};
+	}
+
+	/**
+	 Sets the action stopping the current stage of the call, e.g. disconnecting the connection in use.
+
+	 - returns: false if the call has already been cancelled; the caller must then stop the stage itself.
+	 */
+	synchronized boolean setCancelAction(Runnable action) {
+		if (cancelled) {
+			return false;
+		}
+
+		cancelAction = action;
+
+		return true;
+	}
+
+	/**
+	 Removes the action unless another stage has replaced it since.
+	 */
+	synchronized void clearCancelAction(Runnable action) {
+		if (cancelAction == action) {
+			cancelAction = null;
+		}
+	}
+
+	private synchronized ResultCompletionHandler complete() {
+		if (done) {
+			return null;
+		}
+		done = true;
+		cancelAction = null;
+		ResultCompletionHandler handler = completionHandler;
+		completionHandler = null;
+
+		return handler;
+	}
+
+}
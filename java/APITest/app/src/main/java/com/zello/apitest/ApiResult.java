@@ -0,0 +1,266 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ Response of an API call, kept as the text received and decoded on demand.
+
+ The top-level fields are indexed when the response arrives; the users, channels and roles of a
+ listing are found only when the list is first read, and each entry is decoded only as far as its
+ attributes are accessed. Iterating a large listing to read one attribute of every entry therefore
+ allocates the entry views and the values read, instead of a JSONObject tree of the whole response.
+
+ Returned to an ApiResultHandler, e.g. by ZelloAPI.getUsersResult().
+ */
+public class ApiResult extends ApiObject {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/// Names of the top-level fields, and the positions of their values.
+	private final String[] names;
+	private final int[] values;
+	private List<User> users;
+	private List<Channel> channels;
+	private List<ChannelRole> roles;
+
+	/**
+	 Indexes the top-level fields of the response, decoded from UTF-8.
+
+	 - throws: JSONException if the response is not a JSON object.
+	 */
+	ApiResult(byte[] json) throws JSONException {
+		this(UTF_8.decode(ByteBuffer.wrap(json)));
+	}
+
+	private ApiResult(CharBuffer text) throws JSONException {
+		this(text.array(), text.arrayOffset() + text.position(), text.arrayOffset() + text.limit());
+	}
+
+	/**
+	 Indexes the top-level fields of the response held by the characters of the array between start and end.
+
+	 - throws: JSONException if the response is not a JSON object.
+	 */
+	ApiResult(char[] json, int start, int end) throws JSONException {
+		super(json, start, end);
+
+		List<String> names = new ArrayList<String>();
+		int[] values = new int[8];
+		try {
+			JsonPullParser parser = parser(start);
+			if (parser.peek() != JsonPullParser.Token.BEGIN_OBJECT) {
+				throw new JSONException("Expected a JSON object but was " + parser.peek());
+			}
+			parser.beginObject();
+			while (parser.hasNext()) {
+				names.add(parser.nextName());
+				if (names.size() > values.length) {
+					int[] grown = new int[values.length * 2];
+					System.arraycopy(values, 0, grown, 0, values.length);
+					values = grown;
+				}
+				values[names.size() - 1] = parser.getTokenStart();
+				parser.skipValue();
+			}
+			parser.endObject();
+			if (parser.peek() != JsonPullParser.Token.END_DOCUMENT) {
+				throw new JSONException("Unexpected data after the end of document");
+			}
+		} catch (IOException e) {
+			throw new JSONException(e.toString());
+		}
+
+		this.names = names.toArray(new String[names.size()]);
+		this.values = values;
+	}
+
+	/**
+	 Returns the response re-encoded as an ApiResult, or null if there is no response.
+	 */
+	static ApiResult of(JSONObject response) {
+		if (response == null) {
+			return null;
+		}
+
+		char[] json = response.toString().toCharArray();
+		try {
+			return new ApiResult(json, 0, json.length);
+		} catch (JSONException e) {
+			throw malformed(null, e);
+		}
+	}
+
+	/**
+	 Returns the code of the response, "200" if the call succeeded.
+	 */
+	public String getCode() {
+		return getString("code");
+	}
+
+	/**
+	 Returns the status of the response, e.g. "OK", or a description of the error.
+	 */
+	public String getStatus() {
+		return getString("status");
+	}
+
+	public boolean isSuccess() {
+		return "200".equals(getCode());
+	}
+
+	/**
+	 Returns the length of the response in characters.
+	 */
+	public int getContentLength() {
+		return end - start;
+	}
+
+	/**
+	 Returns the users of a user/get response, or an empty list if it has none.
+	 The list is indexed when first read; its users are decoded when their attributes are accessed.
+	 */
+	public synchronized List<User> getUsers() {
+		if (users == null) {
+			final int[] elements = elements("users");
+			users = new AbstractList<User>() {
+				@Override
+				public User get(int index) {
+					return new User(json, elements[index * 2], elements[index * 2 + 1]);
+				}
+
+				@Override
+				public int size() {
+					return elements.length / 2;
+				}
+			};
+		}
+
+		return users;
+	}
+
+	/**
+	 Returns the channels of a channel/get response, or an empty list if it has none.
+	 The list is indexed when first read; its channels are decoded when their attributes are accessed.
+	 */
+	public synchronized List<Channel> getChannels() {
+		if (channels == null) {
+			final int[] elements = elements("channels");
+			channels = new AbstractList<Channel>() {
+				@Override
+				public Channel get(int index) {
+					return new Channel(json, elements[index * 2], elements[index * 2 + 1]);
+				}
+
+				@Override
+				public int size() {
+					return elements.length / 2;
+				}
+			};
+		}
+
+		return channels;
+	}
+
+	/**
+	 Returns the roles of a channel/roleslist response, or an empty list if it has none.
+	 */
+	public synchronized List<ChannelRole> getRoles() {
+		if (roles == null) {
+			final int[] elements = elements("roles");
+			roles = new AbstractList<ChannelRole>() {
+				@Override
+				public ChannelRole get(int index) {
+					return new ChannelRole(json, elements[index * 2], elements[index * 2 + 1]);
+				}
+
+				@Override
+				public int size() {
+					return elements.length / 2;
+				}
+			};
+		}
+
+		return roles;
+	}
+
+	/**
+	 Returns the top-level fields as a JSONObject passed through the pipeline of the call (retries, session
+	 renewal, metrics) in place of the decoded response. Only fields with a string, number or boolean value
+	 are decoded; lists and objects are left to the ApiResult.
+	 */
+	JSONObject getScalarFields() throws JSONException {
+		JSONObject fields = new JSONObject();
+		try {
+			for (int i = 0; i < names.length; i++) {
+				char first = json[values[i]];
+				if (first != '[' && first != '{') {
+					fields.put(names[i], parser(values[i]).nextValue());
+				}
+			}
+		} catch (IOException e) {
+			throw new JSONException(e.toString());
+		}
+
+		return fields;
+	}
+
+	// Looks fields up in the index instead of parsing the response.
+	@Override
+	int valueOf(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return values[i];
+			}
+		}
+
+		return -1;
+	}
+
+	// Returns the positions of the elements of the named array, or none if the response has no such array.
+	private int[] elements(String name) {
+		int value = valueOf(name);
+		if (value == -1 || json[value] != '[') {
+			return new int[0];
+		}
+
+		try {
+			int[] elements = new int[64];
+			int count = 0;
+			JsonPullParser parser = parser(value);
+			parser.beginArray();
+			while (parser.hasNext()) {
+				if (count + 2 > elements.length) {
+					int[] grown = new int[elements.length * 2];
+					System.arraycopy(elements, 0, grown, 0, count);
+					elements = grown;
+				}
+				elements[count++] = parser.getTokenStart();
+				parser.skipValue();
+				elements[count++] = parser.getPosition();
+			}
+
+			int[] result = new int[count];
+			System.arraycopy(elements, 0, result, 0, count);
+
+			return result;
+		} catch (IOException e) {
+			throw malformed(name, e);
+		} catch (JSONException e) {
+			throw malformed(name, e);
+		}
+	}
+
+}
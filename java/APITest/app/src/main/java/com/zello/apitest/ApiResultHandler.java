@@ -0,0 +1,16 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+/**
+ Completion handler receiving the response as an ApiResult, decoded on demand, instead of a JSONObject.
+
+ Pass it to ZelloAPI.getUsersResult(), ZelloAPI.getChannelsResult() or ZelloAPI.getChannelsRolesResult() to read
+ large listings without decoding every entry. As with ResultCompletionHandler, an exception represents
+ a client error; result is then null unless the server responded.
+ */
+public interface ApiResultHandler {
+  void onResult(boolean success, ApiResult result, Exception exception);
+}
@@ -0,0 +1,59 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ A role of a channel/roleslist response. Attributes are decoded when read, see ApiObject.
+
+ See ZelloAPI.saveChannelRole() for the settings.
+ */
+public class ChannelRole extends ApiObject {
+
+	ChannelRole(char[] json, int start, int end) {
+		super(json, start, end);
+	}
+
+	public String getName() {
+		return getString("name");
+	}
+
+	/**
+	 Returns the settings of the role, or null if the response does not include them.
+	 */
+	public ApiObject getSettings() {
+		return getObject("settings");
+	}
+
+	public boolean isListenOnly() {
+		ApiObject settings = getSettings();
+
+		return settings != null && settings.getBoolean("listen_only");
+	}
+
+	public boolean isNoDisconnect() {
+		ApiObject settings = getSettings();
+
+		return settings != null && settings.getBoolean("no_disconnect");
+	}
+
+	public boolean isAllowAlerts() {
+		ApiObject settings = getSettings();
+
+		return settings != null && settings.getBoolean("allow_alerts");
+	}
+
+	/**
+	 Returns the names of the roles the members of this role can talk to.
+	 */
+	public List<String> getTo() {
+		ApiObject settings = getSettings();
+
+		return settings != null ? settings.getStringList("to") : Collections.<String>emptyList();
+	}
+
+}
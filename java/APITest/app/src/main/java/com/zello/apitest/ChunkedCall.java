@@ -0,0 +1,206 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ Sends a call with a long list parameter, e.g. the logins of user/delete, as several calls with up to
+ chunkSize values each, with at most concurrency of them in flight, and merges their results.
+
+ The merged result is successful if every chunk succeeded. Its response is that of the first chunk,
+ or of the first chunk that failed, with these fields added:
+
+ - code - set even if the first failed chunk got no response: the code of the first failed chunk that did,
+   or CLIENT_ERROR_CODE if none of them did.
+ - chunks - number of calls the list was split into.
+ - failed_chunks - number of calls that failed.
+ - failed - values of the calls that failed, absent if none did.
+
+ A failed chunk does not stop the others. Cancelling the call cancels the chunks in flight and sends no more.
+
+ See ZelloAPI.setListChunking()
+ */
+class ChunkedCall {
+
+	/// "code" of a failed merged result when no failed chunk received a response.
+	static final String CLIENT_ERROR_CODE = "0";
+
+	/**
+	 Sends the call for one chunk of the list.
+	 */
+	interface Sender {
+		ApiRequest send(List<String> chunk, ResultCompletionHandler completionHandler);
+	}
+
+	private final List<List<String>> chunks;
+	private final Sender sender;
+	private final ResultCompletionHandler completionHandler;
+
+	private int next;
+	private int pending;
+	private boolean cancelled;
+	/// Calls in flight, by chunk index.
+	private final Map<Integer, ApiRequest> running = new HashMap<Integer, ApiRequest>();
+	private JSONObject response;
+	private Exception exception;
+	/// "code" of the first failed chunk that received a response.
+	private String failedCode;
+	private int failedChunks;
+	private final List<String> failedValues = new ArrayList<String>();
+
+	private ChunkedCall(List<List<String>> chunks, Sender sender, ResultCompletionHandler completionHandler) {
+		this.chunks = chunks;
+		this.sender = sender;
+		this.completionHandler = completionHandler;
+	}
+
+	/**
+	 Sends the chunks and completes the handler once all of them have completed.
+
+	 - parameter values:            list to split.
+	 - parameter chunkSize:         maximum number of values in one call.
+	 - parameter concurrency:       maximum number of calls in flight.
+	 - parameter sender:            sends the call for a chunk.
+	 - parameter completionHandler: handler to complete with the merged result.
+	 - returns:                     handle cancelling all the calls.
+	 */
+	static ApiRequest send(List<String> values, int chunkSize, int concurrency, Sender sender, ResultCompletionHandler completionHandler) {
+		List<List<String>> chunks = new ArrayList<List<String>>();
+		for (int i = 0; i < values.size(); i += chunkSize) {
+			// Copied, as the chunks are sent after the caller has got its list back
+			chunks.add(new ArrayList<String>(values.subList(i, Math.min(i + chunkSize, values.size()))));
+		}
+
+		ApiRequest request = new ApiRequest();
+		final ChunkedCall call = new ChunkedCall(chunks, sender, request.wrap(completionHandler));
+		request.setCancelAction(new Runnable() {
+			@Override
+			public void run() {
+				call.cancel();
+			}
+		});
+
+		for (int i = 0; i < concurrency; i++) {
+			call.sendNext();
+		}
+
+		return request;
+	}
+
+	private void sendNext() {
+		final int index;
+		synchronized (this) {
+			if (cancelled || next == chunks.size()) {
+				return;
+			}
+			index = next++;
+			pending++;
+		}
+
+		final List<String> chunk = chunks.get(index);
+		ApiRequest request = sender.send(chunk, new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				onChunkResult(index, chunk, success, response, exception);
+			}
+		});
+
+		boolean cancel;
+		synchronized (this) {
+			// The chunk may have completed already, e.g. from the cache or an open circuit breaker
+			if (!request.isDone()) {
+				running.put(index, request);
+			}
+			cancel = cancelled;
+		}
+		if (cancel) {
+			request.cancel();
+		}
+	}
+
+	private void onChunkResult(int index, List<String> chunk, boolean success, JSONObject response, Exception exception) {
+		boolean finished;
+		synchronized (this) {
+			running.remove(index);
+			pending--;
+
+			if (!success) {
+				if (failedChunks == 0) {
+					this.response = response;
+					this.exception = exception;
+				}
+				if (failedCode == null && response != null) {
+					failedCode = response.optString("code", null);
+				}
+				failedChunks++;
+				failedValues.addAll(chunk);
+			} else if (this.response == null && failedChunks == 0) {
+				this.response = response;
+			}
+
+			finished = pending == 0 && (cancelled || next == chunks.size());
+		}
+
+		if (finished) {
+			complete();
+		} else {
+			sendNext();
+		}
+	}
+
+	private void cancel() {
+		List<ApiRequest> requests;
+		synchronized (this) {
+			cancelled = true;
+			requests = new ArrayList<ApiRequest>(running.values());
+			running.clear();
+		}
+
+		for (ApiRequest request : requests) {
+			request.cancel();
+		}
+	}
+
+	private void complete() {
+		JSONObject merged = new JSONObject();
+		boolean success;
+		Exception error;
+		synchronized (this) {
+			success = failedChunks == 0;
+			error = exception;
+			try {
+				if (response != null) {
+					Iterator<?> keys = response.keys();
+					while (keys.hasNext()) {
+						String key = (String) keys.next();
+						merged.put(key, response.opt(key));
+					}
+				}
+				if (!success && !merged.has("code")) {
+					merged.put("code", failedCode != null ? failedCode : CLIENT_ERROR_CODE);
+				}
+				merged.put("chunks", chunks.size());
+				merged.put("failed_chunks", failedChunks);
+				if (failedChunks > 0) {
+					merged.put("failed", new JSONArray(failedValues));
+				}
+			} catch (JSONException e) {
+				// Empty
+			}
+		}
+
+		completionHandler.onResult(success, merged, error);
+	}
+
+}
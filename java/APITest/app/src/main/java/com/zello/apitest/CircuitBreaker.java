@@ -0,0 +1,168 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ Circuit breaker for the requests sent to one server.
+
+ The breaker records whether the last requests could reach the server. A request fails if it
+ ends with an IOException: the connection could not be made, timed out or the server returned
+ an HTTP 5xx or 429 status. Other HTTP 4xx statuses and API errors reported in the response "code"
+ come from a server that works, so they do not count as failures.
+
+ - Closed: requests are sent. Once at least minimumCalls of the last windowSize requests were
+   recorded and the failure rate reaches the threshold, the breaker opens.
+ - Open: requests fail right away with a CircuitBreakerOpenException, without waiting for
+   connect and read timeouts. After the open duration the breaker becomes half-open.
+ - Half-open: a single probe request is sent; all other requests keep failing fast. If the probe
+   succeeds the breaker closes, otherwise it opens again.
+
+ Share one breaker between ZelloAPI instances connected to the same host.
+
+ See ZelloAPI.setCircuitBreaker()
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final double failureRateThreshold;
+	private final int minimumCalls;
+	private final long openDurationMillis;
+
+	/// Outcomes of the last requests, true for failures.
+	private final boolean[] window;
+	private int windowPosition;
+	private int recordedCalls;
+	private int failures;
+
+	private State state = State.CLOSED;
+	private long openedAt;
+	private boolean probeInFlight;
+
+	public CircuitBreaker() {
+		this(0.5, 10, 20, 30000);
+	}
+
+	/**
+	 - parameter failureRateThreshold: failure rate between 0 and 1 at which the breaker opens.
+	 - parameter minimumCalls:         minimum number of recorded requests before the failure rate is evaluated.
+	 - parameter windowSize:           number of most recent requests the failure rate is computed over.
+	 - parameter openDurationMillis:   time the breaker stays open before a probe request is allowed.
+	 */
+	public CircuitBreaker(double failureRateThreshold, int minimumCalls, int windowSize, long openDurationMillis) {
+		if (failureRateThreshold <= 0 || failureRateThreshold > 1 || windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+			throw new IllegalArgumentException("Invalid circuit breaker configuration");
+		}
+
+		this.failureRateThreshold = failureRateThreshold;
+		this.minimumCalls = minimumCalls;
+		this.openDurationMillis = openDurationMillis;
+		this.window = new boolean[windowSize];
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 Returns null if the request may be sent, otherwise the exception to fail it with.
+	 A request allowed through must be followed by exactly one call to onResult().
+	 */
+	synchronized CircuitBreakerOpenException tryAcquire() {
+		long now = System.currentTimeMillis();
+
+		switch (state) {
+			case CLOSED:
+				return null;
+			case OPEN:
+				long remaining = openedAt + openDurationMillis - now;
+				if (remaining > 0) {
+					return new CircuitBreakerOpenException("Circuit breaker is open", remaining);
+				}
+				state = State.HALF_OPEN;
+				probeInFlight = true;
+				return null;
+			default:
+				if (!probeInFlight) {
+					probeInFlight = true;
+					return null;
+				}
+				return new CircuitBreakerOpenException("Circuit breaker is half-open, waiting for the probe request", 0);
+		}
+	}
+
+	/**
+	 Records the outcome of a request allowed by tryAcquire().
+
+	 - parameter exception: client error of the request, or null.
+	 */
+	synchronized void onResult(Exception exception) {
+		boolean failed = exception instanceof IOException && !isClientError(exception);
+		boolean unrelated = exception instanceof RuntimeException || exception instanceof TimeoutException;
+
+		if (state == State.HALF_OPEN) {
+			probeInFlight = false;
+			if (unrelated) {
+				// The probe was not sent or was cut short by its deadline; let the next request probe
+				return;
+			}
+			if (failed) {
+				open();
+			} else {
+				reset();
+			}
+			return;
+		}
+
+		if (state != State.CLOSED || unrelated) {
+			return;
+		}
+
+		if (recordedCalls == window.length) {
+			if (window[windowPosition]) {
+				failures--;
+			}
+		} else {
+			recordedCalls++;
+		}
+		window[windowPosition] = failed;
+		if (failed) {
+			failures++;
+		}
+		windowPosition = (windowPosition + 1) % window.length;
+
+		if (recordedCalls >= minimumCalls && failures >= failureRateThreshold * recordedCalls) {
+			open();
+		}
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openedAt = System.currentTimeMillis();
+	}
+
+	private void reset() {
+		state = State.CLOSED;
+		recordedCalls = 0;
+		failures = 0;
+		windowPosition = 0;
+	}
+
+	// Returns true for HTTP statuses caused by the request rather than by the server, except 429 Too Many Requests.
+	private static boolean isClientError(Exception exception) {
+		if (!(exception instanceof HttpStatusException)) {
+			return false;
+		}
+		int status = ((HttpStatusException) exception).getStatusCode();
+
+		return status < 500 && status != 429;
+	}
+
+}
@@ -0,0 +1,259 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ URL-encoded form body (application/x-www-form-urlencoded) of a POST request.
+
+ Values are percent-encoded as UTF-8 straight into a byte buffer, with the same result as
+ URLEncoder.encode(value, "UTF-8") but without the intermediate strings. The buffer is reused by
+ the next body built on the same thread; the finished body is a single array of the exact length,
+ written to the connection as is and resent unchanged by retries.
+
+ Large bodies can be sent compressed with gzip, see ZelloAPI.setRequestCompressionThreshold().
+ */
+public final class FormBody {
+
+	public static final String CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+	private final byte[] bytes;
+	/// "gzip" if the bytes are compressed, null otherwise.
+	private final String contentEncoding;
+
+	private FormBody(byte[] bytes, String contentEncoding) {
+		this.bytes = bytes;
+		this.contentEncoding = contentEncoding;
+	}
+
+	/**
+	 Returns the length of the body in bytes, as sent: compressed if the body is.
+	 */
+	public int getContentLength() {
+		return bytes.length;
+	}
+
+	/**
+	 Writes the body to the stream, e.g. the output stream of a connection in fixed-length streaming mode.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(bytes);
+	}
+
+	/**
+	 Returns the value of the Content-Encoding header to send the body with: "gzip" if it is compressed, null otherwise.
+	 */
+	public String getContentEncoding() {
+		return contentEncoding;
+	}
+
+	/// The encoded body. Not copied, must not be modified.
+	byte[] bytes() {
+		return bytes;
+	}
+
+	/**
+	 Returns the body compressed with gzip, or this body if compressing does not make it smaller.
+	 */
+	FormBody gzip() {
+		if (contentEncoding != null) {
+			return this;
+		}
+
+		byte[] compressed = ContentEncoding.gzip(bytes);
+
+		return compressed.length < bytes.length ? new FormBody(compressed, ContentEncoding.GZIP) : this;
+	}
+
+	/**
+	 Returns the encoded body, e.g. "login[]=alice&login[]=bob", or its encoding and length if it is compressed.
+	 */
+	@Override
+	public String toString() {
+		if (contentEncoding != null) {
+			return "[" + contentEncoding + ", " + bytes.length + " bytes]";
+		}
+
+		// Percent-encoding leaves only ASCII characters
+		char[] chars = new char[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i] = (char) bytes[i];
+		}
+
+		return new String(chars);
+	}
+
+	/**
+	 Builds a FormBody. A builder is used by a single thread.
+	 */
+	static final class Builder {
+
+		/// Buffers larger than this are not kept for reuse, so that one huge body doesn't pin its memory.
+		private static final int MAX_REUSED_CAPACITY = 64 * 1024;
+		private static final int INITIAL_CAPACITY = 1024;
+		private static final byte[] HEX = {
+				'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+		};
+		/// ASCII characters URLEncoder leaves as they are.
+		private static final boolean[] UNRESERVED = new boolean[128];
+
+		static {
+			for (char c = 'a'; c <= 'z'; c++) {
+				UNRESERVED[c] = true;
+			}
+			for (char c = 'A'; c <= 'Z'; c++) {
+				UNRESERVED[c] = true;
+			}
+			for (char c = '0'; c <= '9'; c++) {
+				UNRESERVED[c] = true;
+			}
+			UNRESERVED['.'] = true;
+			UNRESERVED['-'] = true;
+			UNRESERVED['*'] = true;
+			UNRESERVED['_'] = true;
+		}
+
+		/// Buffer of the last builder completed on the thread, or null while a builder is using it.
+		private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
+		private byte[] buffer;
+		private int length;
+
+		Builder() {
+			buffer = buffers.get();
+			if (buffer != null) {
+				buffers.set(null);
+			} else {
+				buffer = new byte[INITIAL_CAPACITY];
+			}
+		}
+
+		/**
+		 Adds a parameter. The name is written as is, e.g. "users[]"; the value is percent-encoded.
+		 */
+		Builder add(String name, String value) {
+			if (length > 0) {
+				write('&');
+			}
+			writeName(name);
+			write('=');
+			if (value != null) {
+				writeValue(value);
+			}
+
+			return this;
+		}
+
+		/**
+		 Adds a parameter for each value, e.g. "login[]=alice&login[]=bob" for name "login[]".
+		 */
+		Builder addAll(String name, List<String> values) {
+			for (int i = 0; i < values.size(); i++) {
+				add(name, values.get(i));
+			}
+
+			return this;
+		}
+
+		/**
+		 Adds a parameter for each entry of the map.
+		 */
+		Builder addAll(Map<String, String> parameters) {
+			for (Map.Entry<String, String> entry : parameters.entrySet()) {
+				add(entry.getKey(), entry.getValue());
+			}
+
+			return this;
+		}
+
+		/**
+		 Returns the body and hands the buffer to the next builder on this thread.
+		 */
+		FormBody build() {
+			byte[] bytes = new byte[length];
+			System.arraycopy(buffer, 0, bytes, 0, length);
+
+			if (buffer.length <= MAX_REUSED_CAPACITY) {
+				buffers.set(buffer);
+			}
+			buffer = null;
+
+			return new FormBody(bytes, null);
+		}
+
+		// Names are written as is, except for characters outside ASCII, which are percent-encoded.
+		private void writeName(String name) {
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				if (c < 0x80) {
+					write(c);
+				} else {
+					writeValue(name.substring(i, i + 1));
+				}
+			}
+		}
+
+		private void writeValue(String value) {
+			int count = value.length();
+			ensureCapacity(count);
+
+			for (int i = 0; i < count; i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					if (UNRESERVED[c]) {
+						write(c);
+					} else if (c == ' ') {
+						write('+');
+					} else {
+						writeEscaped(c);
+					}
+				} else if (c < 0x800) {
+					writeEscaped(0xC0 | (c >> 6));
+					writeEscaped(0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					writeEscaped(0xF0 | (codePoint >> 18));
+					writeEscaped(0x80 | ((codePoint >> 12) & 0x3F));
+					writeEscaped(0x80 | ((codePoint >> 6) & 0x3F));
+					writeEscaped(0x80 | (codePoint & 0x3F));
+				} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+					// Unpaired surrogate, replaced like the UTF-8 encoder of URLEncoder does
+					writeEscaped('?');
+				} else {
+					writeEscaped(0xE0 | (c >> 12));
+					writeEscaped(0x80 | ((c >> 6) & 0x3F));
+					writeEscaped(0x80 | (c & 0x3F));
+				}
+			}
+		}
+
+		private void writeEscaped(int b) {
+			ensureCapacity(3);
+			buffer[length++] = '%';
+			buffer[length++] = HEX[(b >> 4) & 0x0F];
+			buffer[length++] = HEX[b & 0x0F];
+		}
+
+		private void write(int b) {
+			ensureCapacity(1);
+			buffer[length++] = (byte) b;
+		}
+
+		private void ensureCapacity(int extra) {
+			if (length + extra <= buffer.length) {
+				return;
+			}
+
+			byte[] grown = new byte[Math.max(buffer.length * 2, length + extra)];
+			System.arraycopy(buffer, 0, grown, 0, length);
+			buffer = grown;
+		}
+	}
+
+}
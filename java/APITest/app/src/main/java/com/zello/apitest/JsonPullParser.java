@@ -0,0 +1,549 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ Minimal pull parser reading JSON tokens from a Reader or from a char array.
+
+ Unlike new JSONObject(String), the parser does not need the whole document in memory:
+ it reads the stream through a small buffer and the caller decides which values to
+ materialise (nextValue()) and which to skip (skipValue()).
+
+ A parser over a char array reads it in place and reports where the tokens are, so a value
+ can be found once and parsed again later from its position, as ApiObject does.
+ */
+public class JsonPullParser {
+
+	/**
+	 Token types returned by peek().
+	 */
+	public enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int SCOPE_EMPTY_ARRAY = 1;
+	private static final int SCOPE_NONEMPTY_ARRAY = 2;
+	private static final int SCOPE_EMPTY_OBJECT = 3;
+	private static final int SCOPE_DANGLING_NAME = 4;
+	private static final int SCOPE_NONEMPTY_OBJECT = 5;
+	private static final int SCOPE_EMPTY_DOCUMENT = 6;
+	private static final int SCOPE_NONEMPTY_DOCUMENT = 7;
+
+	/// Source of the buffer, or null if the buffer holds the whole document.
+	private final Reader reader;
+	private final char[] buffer;
+	private int pos;
+	private int limit;
+	/// Position of the first character of the peeked token.
+	private int tokenStart;
+
+	private int[] stack = new int[8];
+	private int stackSize;
+
+	private Token peeked;
+	/// Text of the peeked name, string or literal: the buffer from textStart to textEnd if it lies there
+	/// unchanged, otherwise the copy in text, when textStart is -1.
+	private int textStart = -1;
+	private int textEnd;
+	private StringBuilder text;
+
+	public JsonPullParser(Reader reader) {
+		this.reader = reader;
+		this.buffer = new char[4096];
+		stack[stackSize++] = SCOPE_EMPTY_DOCUMENT;
+	}
+
+	/**
+	 Creates a parser reading one value from the characters of the array between start and end, without copying them.
+	 */
+	public JsonPullParser(char[] json, int start, int end) {
+		this.reader = null;
+		this.buffer = json;
+		this.pos = start;
+		this.limit = end;
+		stack[stackSize++] = SCOPE_EMPTY_DOCUMENT;
+	}
+
+	/**
+	 Returns the type of the next token without consuming it.
+	 */
+	public Token peek() throws IOException, JSONException {
+		if (peeked == null) {
+			peeked = readToken();
+		}
+
+		return peeked;
+	}
+
+	public boolean hasNext() throws IOException, JSONException {
+		Token token = peek();
+
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() throws IOException, JSONException {
+		expect(Token.BEGIN_OBJECT);
+		push(SCOPE_EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException, JSONException {
+		expect(Token.END_OBJECT);
+		stackSize--;
+	}
+
+	public void beginArray() throws IOException, JSONException {
+		expect(Token.BEGIN_ARRAY);
+		push(SCOPE_EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException, JSONException {
+		expect(Token.END_ARRAY);
+		stackSize--;
+	}
+
+	public String nextName() throws IOException, JSONException {
+		expect(Token.NAME);
+
+		return textString();
+	}
+
+	/**
+	 Consumes the next name and returns true if it equals the given one, without allocating a String.
+	 */
+	public boolean nextNameEquals(String name) throws IOException, JSONException {
+		expect(Token.NAME);
+
+		return textEquals(name);
+	}
+
+	/**
+	 Returns the next string, number or boolean value as a string.
+	 */
+	public String nextString() throws IOException, JSONException {
+		Token token = peek();
+		if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+			throw syntaxError("Expected a string but was " + token);
+		}
+		peeked = null;
+
+		return textString();
+	}
+
+	/**
+	 Reads the next value and returns it as a JSONObject, JSONArray, String, Boolean, Number or JSONObject.NULL.
+	 */
+	public Object nextValue() throws IOException, JSONException {
+		Token token = peek();
+		switch (token) {
+			case BEGIN_OBJECT: {
+				JSONObject object = new JSONObject();
+				beginObject();
+				while (hasNext()) {
+					String name = nextName();
+					object.put(name, nextValue());
+				}
+				endObject();
+
+				return object;
+			}
+			case BEGIN_ARRAY: {
+				JSONArray array = new JSONArray();
+				beginArray();
+				while (hasNext()) {
+					array.put(nextValue());
+				}
+				endArray();
+
+				return array;
+			}
+			case STRING:
+				peeked = null;
+				return textString();
+			case NUMBER:
+				peeked = null;
+				return parseNumber(textString());
+			case BOOLEAN:
+				peeked = null;
+				return textEquals("true") ? Boolean.TRUE : Boolean.FALSE;
+			case NULL:
+				peeked = null;
+				return JSONObject.NULL;
+			default:
+				throw syntaxError("Expected a value but was " + token);
+		}
+	}
+
+	/**
+	 Skips the next value, including all nested values, without materialising it.
+	 */
+	public void skipValue() throws IOException, JSONException {
+		int depth = 0;
+		do {
+			Token token = peek();
+			switch (token) {
+				case BEGIN_OBJECT:
+					beginObject();
+					depth++;
+					break;
+				case BEGIN_ARRAY:
+					beginArray();
+					depth++;
+					break;
+				case END_OBJECT:
+					endObject();
+					depth--;
+					break;
+				case END_ARRAY:
+					endArray();
+					depth--;
+					break;
+				case END_DOCUMENT:
+					throw syntaxError("Unexpected end of document");
+				default:
+					peeked = null;
+					break;
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 Returns the position in the char array of the first character of the next token, e.g. the quote of a string.
+	 Only meaningful for a parser over a char array.
+	 */
+	public int getTokenStart() throws IOException, JSONException {
+		peek();
+
+		return tokenStart;
+	}
+
+	/**
+	 Returns the position in the char array right after the last consumed token, e.g. after skipValue() the end of the value.
+	 Only meaningful for a parser over a char array, and only if nothing has been peeked since.
+	 */
+	public int getPosition() {
+		return pos;
+	}
+
+	private void expect(Token expected) throws IOException, JSONException {
+		Token token = peek();
+		if (token != expected) {
+			throw syntaxError("Expected " + expected + " but was " + token);
+		}
+		peeked = null;
+	}
+
+	private void push(int scope) {
+		if (stackSize == stack.length) {
+			int[] newStack = new int[stackSize * 2];
+			System.arraycopy(stack, 0, newStack, 0, stackSize);
+			stack = newStack;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	private Token readToken() throws IOException, JSONException {
+		int scope = stack[stackSize - 1];
+		int c;
+
+		switch (scope) {
+			case SCOPE_EMPTY_ARRAY:
+				stack[stackSize - 1] = SCOPE_NONEMPTY_ARRAY;
+				c = nextNonWhitespace();
+				if (c == ']') {
+					return Token.END_ARRAY;
+				}
+				if (c == -1) {
+					throw syntaxError("Unexpected end of document");
+				}
+				pos--;
+				break;
+			case SCOPE_NONEMPTY_ARRAY:
+				c = nextNonWhitespace();
+				if (c == ']') {
+					return Token.END_ARRAY;
+				}
+				if (c != ',') {
+					throw syntaxError("Expected ',' or ']'");
+				}
+				break;
+			case SCOPE_EMPTY_OBJECT:
+			case SCOPE_NONEMPTY_OBJECT:
+				c = nextNonWhitespace();
+				if (c == '}') {
+					return Token.END_OBJECT;
+				}
+				if (scope == SCOPE_NONEMPTY_OBJECT) {
+					if (c != ',') {
+						throw syntaxError("Expected ',' or '}'");
+					}
+					c = nextNonWhitespace();
+				}
+				if (c != '"') {
+					throw syntaxError("Expected a name");
+				}
+				tokenStart = pos - 1;
+				readString();
+				if (nextNonWhitespace() != ':') {
+					throw syntaxError("Expected ':'");
+				}
+				stack[stackSize - 1] = SCOPE_DANGLING_NAME;
+
+				return Token.NAME;
+			case SCOPE_DANGLING_NAME:
+				stack[stackSize - 1] = SCOPE_NONEMPTY_OBJECT;
+				break;
+			case SCOPE_EMPTY_DOCUMENT:
+				stack[stackSize - 1] = SCOPE_NONEMPTY_DOCUMENT;
+				break;
+			case SCOPE_NONEMPTY_DOCUMENT:
+				if (nextNonWhitespace() == -1) {
+					return Token.END_DOCUMENT;
+				}
+				throw syntaxError("Unexpected data after the end of document");
+			default:
+				throw syntaxError("Parser is closed");
+		}
+
+		return readValueToken();
+	}
+
+	private Token readValueToken() throws IOException, JSONException {
+		int c = nextNonWhitespace();
+		tokenStart = pos - 1;
+		switch (c) {
+			case '{':
+				return Token.BEGIN_OBJECT;
+			case '[':
+				return Token.BEGIN_ARRAY;
+			case '"':
+				readString();
+				return Token.STRING;
+			case -1:
+				throw syntaxError("Unexpected end of document");
+			default:
+				pos--;
+				readLiteral();
+				// Compared in place, so that skipping a number or a boolean allocates nothing
+				if (textEquals("true") || textEquals("false")) {
+					return Token.BOOLEAN;
+				}
+				if (textEquals("null")) {
+					return Token.NULL;
+				}
+				char first = textLength() > 0 ? textCharAt(0) : ' ';
+				if (first == '-' || (first >= '0' && first <= '9')) {
+					return Token.NUMBER;
+				}
+				throw syntaxError("Unexpected value '" + textString() + "'");
+		}
+	}
+
+	private void readString() throws IOException, JSONException {
+		// A string without escapes that ends within the buffer is not copied
+		int begin = pos;
+		while (pos < limit) {
+			char c = buffer[pos++];
+			if (c == '"') {
+				textStart = begin;
+				textEnd = pos - 1;
+				return;
+			}
+			if (c == '\\') {
+				break;
+			}
+		}
+		pos = begin;
+
+		startCopy();
+		while (true) {
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos++];
+				if (c == '"') {
+					text.append(buffer, start, pos - start - 1);
+					return;
+				}
+				if (c == '\\') {
+					text.append(buffer, start, pos - start - 1);
+					text.append(readEscape());
+					start = pos;
+				}
+			}
+			text.append(buffer, start, pos - start);
+			if (!fill()) {
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	private char readEscape() throws IOException, JSONException {
+		if (pos == limit && !fill()) {
+			throw syntaxError("Unterminated escape sequence");
+		}
+		char c = buffer[pos++];
+		switch (c) {
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					if (pos == limit && !fill()) {
+						throw syntaxError("Unterminated escape sequence");
+					}
+					int digit = Character.digit(buffer[pos++], 16);
+					if (digit < 0) {
+						throw syntaxError("Invalid unicode escape");
+					}
+					value = (value << 4) | digit;
+				}
+				return (char) value;
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case '"':
+			case '\\':
+			case '/':
+				return c;
+			default:
+				// Rejected as by org.json
+				throw syntaxError("Illegal escape sequence");
+		}
+	}
+
+	private void readLiteral() throws IOException {
+		int begin = pos;
+		while (pos < limit) {
+			char c = buffer[pos];
+			if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+				textStart = begin;
+				textEnd = pos;
+				return;
+			}
+			pos++;
+		}
+		if (reader == null) {
+			textStart = begin;
+			textEnd = pos;
+			return;
+		}
+		pos = begin;
+
+		startCopy();
+		while (true) {
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos];
+				if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+					text.append(buffer, start, pos - start);
+					return;
+				}
+				pos++;
+			}
+			text.append(buffer, start, pos - start);
+			if (!fill()) {
+				return;
+			}
+		}
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		while (true) {
+			if (pos == limit && !fill()) {
+				return -1;
+			}
+			char c = buffer[pos++];
+			if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+				return c;
+			}
+		}
+	}
+
+	private void startCopy() {
+		textStart = -1;
+		if (text == null) {
+			text = new StringBuilder();
+		}
+		text.setLength(0);
+	}
+
+	private int textLength() {
+		return textStart != -1 ? textEnd - textStart : text.length();
+	}
+
+	private char textCharAt(int index) {
+		return textStart != -1 ? buffer[textStart + index] : text.charAt(index);
+	}
+
+	private String textString() {
+		return textStart != -1 ? new String(buffer, textStart, textEnd - textStart) : text.toString();
+	}
+
+	private boolean textEquals(String string) {
+		int length = textLength();
+		if (length != string.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (textCharAt(i) != string.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean fill() throws IOException {
+		if (reader == null) {
+			return false;
+		}
+		int read = reader.read(buffer, 0, buffer.length);
+		if (read <= 0) {
+			pos = 0;
+			limit = 0;
+			return false;
+		}
+		pos = 0;
+		limit = read;
+
+		return true;
+	}
+
+	private JSONException syntaxError(String message) {
+		return new JSONException(message);
+	}
+
+	private static Object parseNumber(String literal) throws JSONException {
+		try {
+			if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0) {
+				try {
+					long value = Long.parseLong(literal);
+					if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+						return Integer.valueOf((int) value);
+					}
+					return Long.valueOf(value);
+				} catch (NumberFormatException e) {
+					// Too large for a long
+				}
+			}
+
+			return Double.valueOf(literal);
+		} catch (NumberFormatException e) {
+			throw new JSONException("Invalid number '" + literal + "'");
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ Histogram of latencies in microseconds with log-linear buckets, as in HdrHistogram.
+
+ Values below 32 µs have a bucket each, and every power of two above is split into 16 buckets,
+ so a value is known to within 1/16 (6.25%). Values above 2^37 µs (38 hours) count in the last bucket.
+ Recording is lock-free.
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/// Exponent of the highest power of two with buckets of its own.
+	private static final int MAX_EXPONENT = 36;
+	static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	void record(long micros) {
+		long value = Math.max(0, micros);
+		counts.incrementAndGet(bucketOf(value));
+		totalMicros.addAndGet(value);
+
+		long max = maxMicros.get();
+		while (value > max && !maxMicros.compareAndSet(max, value)) {
+			max = maxMicros.get();
+		}
+	}
+
+	/**
+	 Copies the bucket counts into the array, which must have BUCKETS elements.
+	 Calls completing meanwhile may or may not be included.
+	 */
+	void copyCounts(long[] into) {
+		for (int i = 0; i < BUCKETS; i++) {
+			into[i] = counts.get(i);
+		}
+	}
+
+	long getTotalMicros() {
+		return totalMicros.get();
+	}
+
+	long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	static int bucketOf(long micros) {
+		if (micros < 2 * SUB_BUCKETS) {
+			return (int) micros;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 Returns the highest value counted in the bucket, in microseconds.
+	 */
+	static long upperBoundOf(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long step = 1L << (exponent - SUB_BUCKET_BITS);
+
+		return (SUB_BUCKETS + bucket % SUB_BUCKETS) * step + step - 1;
+	}
+
+}
@@ -0,0 +1,235 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ Measurements of a MetricsRecorder at one point in time. Immutable.
+ */
+public final class MetricsSnapshot {
+
+	private final long timeMillis;
+	private final Map<String, Endpoint> endpoints;
+
+	MetricsSnapshot(long timeMillis, Map<String, Endpoint> endpoints) {
+		this.timeMillis = timeMillis;
+		this.endpoints = Collections.unmodifiableMap(endpoints);
+	}
+
+	/**
+	 Returns the time the snapshot was taken, in milliseconds since the epoch.
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	/**
+	 Returns the measurements of every endpoint called so far, sorted by endpoint.
+	 */
+	public Collection<Endpoint> getEndpoints() {
+		return endpoints.values();
+	}
+
+	/**
+	 Returns the measurements of an endpoint, e.g. "user/get", or null if it has not been called.
+	 */
+	public Endpoint getEndpoint(String endpoint) {
+		return endpoints.get(endpoint);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (Endpoint endpoint : endpoints.values()) {
+			builder.append(endpoint).append('\n');
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 Measurements of one endpoint.
+	 */
+	public static final class Endpoint {
+
+		private final String endpoint;
+		private final long calls;
+		private final long failures;
+		private final long clientErrors;
+		private final long retries;
+		private final long inFlight;
+		private final long bytesSent;
+		private final long bytesReceived;
+		private final Map<String, Long> codes;
+		private final long[] latencyCounts;
+		private final long totalLatencyMicros;
+		private final long maxLatencyMicros;
+
+		Endpoint(String endpoint, long calls, long failures, long clientErrors, long retries, long inFlight,
+				long bytesSent, long bytesReceived, Map<String, Long> codes, long[] latencyCounts,
+				long totalLatencyMicros, long maxLatencyMicros) {
+			this.endpoint = endpoint;
+			this.calls = calls;
+			this.failures = failures;
+			this.clientErrors = clientErrors;
+			this.retries = retries;
+			this.inFlight = inFlight;
+			this.bytesSent = bytesSent;
+			this.bytesReceived = bytesReceived;
+			this.codes = Collections.unmodifiableMap(codes);
+			this.latencyCounts = latencyCounts;
+			this.totalLatencyMicros = totalLatencyMicros;
+			this.maxLatencyMicros = maxLatencyMicros;
+		}
+
+		/**
+		 Returns the command without its path parameters, e.g. "user/get".
+		 */
+		public String getEndpoint() {
+			return endpoint;
+		}
+
+		/**
+		 Returns the number of completed calls.
+		 */
+		public long getCalls() {
+			return calls;
+		}
+
+		/**
+		 Returns the number of calls completed with success set to false.
+		 */
+		public long getFailures() {
+			return failures;
+		}
+
+		/**
+		 Returns the number of calls that failed without a response, e.g. with an IOException or a timeout.
+		 */
+		public long getClientErrors() {
+			return clientErrors;
+		}
+
+		public long getRetries() {
+			return retries;
+		}
+
+		/**
+		 Returns the number of calls started but not completed yet.
+		 */
+		public long getInFlight() {
+			return inFlight;
+		}
+
+		public long getBytesSent() {
+			return bytesSent;
+		}
+
+		public long getBytesReceived() {
+			return bytesReceived;
+		}
+
+		/**
+		 Returns the number of responses by their "code" field, e.g. "200".
+		 */
+		public Map<String, Long> getCodes() {
+			return codes;
+		}
+
+		public double getMeanLatencyMillis() {
+			long count = getLatencyCount();
+
+			return count > 0 ? totalLatencyMicros / 1000.0 / count : 0;
+		}
+
+		public double getMaxLatencyMillis() {
+			return maxLatencyMicros / 1000.0;
+		}
+
+		/**
+		 Returns the latency that the given percentage of calls did not exceed, accurate to 6.25%.
+
+		 - parameter percentile: percentile from 0 to 100, e.g. 99 for the 99th percentile.
+		 */
+		public double getLatencyPercentileMillis(double percentile) {
+			long count = getLatencyCount();
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < latencyCounts.length; i++) {
+				seen += latencyCounts[i];
+				if (seen >= rank) {
+					return Math.min(LatencyHistogram.upperBoundOf(i), maxLatencyMicros) / 1000.0;
+				}
+			}
+
+			return getMaxLatencyMillis();
+		}
+
+		/**
+		 Returns the upper bounds in microseconds of the latency buckets holding calls, in increasing order,
+		 for exporting the histogram. getLatencyBucketCounts() returns the number of calls in each.
+		 */
+		public long[] getLatencyBucketBoundsMicros() {
+			ArrayList<Long> bounds = new ArrayList<Long>();
+			for (int i = 0; i < latencyCounts.length; i++) {
+				if (latencyCounts[i] > 0) {
+					bounds.add(LatencyHistogram.upperBoundOf(i));
+				}
+			}
+
+			return toArray(bounds);
+		}
+
+		/**
+		 Returns the number of calls in each bucket returned by getLatencyBucketBoundsMicros().
+		 */
+		public long[] getLatencyBucketCounts() {
+			ArrayList<Long> counts = new ArrayList<Long>();
+			for (long count : latencyCounts) {
+				if (count > 0) {
+					counts.add(count);
+				}
+			}
+
+			return toArray(counts);
+		}
+
+		@Override
+		public String toString() {
+			return endpoint + ": calls=" + calls + ", failures=" + failures + ", clientErrors=" + clientErrors
+					+ ", retries=" + retries + ", inFlight=" + inFlight + ", codes=" + codes
+					+ ", bytesSent=" + bytesSent + ", bytesReceived=" + bytesReceived
+					+ ", p50=" + getLatencyPercentileMillis(50) + "ms, p99=" + getLatencyPercentileMillis(99)
+					+ "ms, max=" + getMaxLatencyMillis() + "ms";
+		}
+
+		private long getLatencyCount() {
+			long count = 0;
+			for (long bucketCount : latencyCounts) {
+				count += bucketCount;
+			}
+
+			return count;
+		}
+
+		private static long[] toArray(ArrayList<Long> values) {
+			long[] array = new long[values.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = values.get(i);
+			}
+
+			return array;
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+/**
+ Token bucket limiting the rate of requests sent to the server.
+
+ The bucket holds up to burst tokens and is refilled at the configured rate. Each request takes one
+ token; a request arriving at an empty bucket is delayed until its token is available, without
+ blocking any thread.
+
+ See ZelloAPI.setRateLimiter()
+ */
+public class RateLimiter {
+
+	private final double permitsPerSecond;
+	private final double burst;
+
+	private double tokens;
+	private long lastRefillNanos = System.nanoTime();
+
+	/**
+	 - parameter permitsPerSecond: sustained number of requests per second.
+	 - parameter burst:            number of requests that may be sent at once after an idle period.
+	 */
+	public RateLimiter(double permitsPerSecond, int burst) {
+		if (permitsPerSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+		}
+
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = burst;
+		this.tokens = burst;
+	}
+
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	/**
+	 Takes a token, possibly one that will only be available in the future.
+
+	 - returns: nanoseconds to wait before the request may be sent; 0 to send it right away.
+	 */
+	public synchronized long reserve() {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerSecond / 1e9);
+		lastRefillNanos = now;
+
+		tokens -= 1;
+		if (tokens >= 0) {
+			return 0;
+		}
+
+		return (long) (-tokens * 1e9 / permitsPerSecond);
+	}
+
+}
@@ -0,0 +1,162 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ Retry policy for failed API calls.
+
+ A call is retried if its endpoint is safe to repeat (reads and add-or-update calls by default) and it
+ failed with a network error, with HTTP status 429, 502, 503 or 504, or with one of the configured response codes.
+ Other HTTP error statuses, e.g. 400 or 500, are not retried. The delay before each retry
+ grows exponentially and is randomized ("full jitter") so that clients do not retry in lockstep.
+
+ Retries are limited by a budget: each call adds a fraction of a retry to the budget and each retry
+ spends one, so during an outage at most that fraction of extra requests is sent instead of
+ multiplying the load by the number of attempts.
+
+ See ZelloAPI.setRetryPolicy()
+ */
+public class RetryPolicy {
+
+	/// Endpoints retried by default: reads and calls that add or update the same entity when repeated.
+	public static final String[] DEFAULT_RETRYABLE_ENDPOINTS = {
+			"user/get", "channel/get", "channel/roleslist", "user/save", "channel/saverole"
+	};
+
+	private int maxAttempts = 3;
+	private long baseDelayMillis = 200;
+	private long maxDelayMillis = 5000;
+	private Set<String> retryableEndpoints = new HashSet<String>(Arrays.asList(DEFAULT_RETRYABLE_ENDPOINTS));
+	private Set<String> retryableCodes = new HashSet<String>();
+
+	private double budgetRatio = 0.1;
+	private double budgetReserve = 10;
+	private double budget = budgetReserve;
+
+	private final Random random = new Random();
+
+	/**
+	 - parameter maxAttempts: maximum number of attempts per call, including the first one.
+	 */
+	public synchronized RetryPolicy setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be positive");
+		}
+
+		this.maxAttempts = maxAttempts;
+
+		return this;
+	}
+
+	/**
+	 - parameter baseDelayMillis: upper bound of the delay before the first retry; doubled for every further retry.
+	 - parameter maxDelayMillis:  upper bound of any delay.
+	 */
+	public synchronized RetryPolicy setBackoff(long baseDelayMillis, long maxDelayMillis) {
+		this.baseDelayMillis = Math.max(0, baseDelayMillis);
+		this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+
+		return this;
+	}
+
+	/**
+	 - parameter endpoints: endpoints safe to retry, e.g. "user/get". Calls to other endpoints are never retried.
+	 */
+	public synchronized RetryPolicy setRetryableEndpoints(String... endpoints) {
+		retryableEndpoints = new HashSet<String>(Arrays.asList(endpoints));
+
+		return this;
+	}
+
+	/**
+	 - parameter codes: response codes that mean a temporary server error. None by default.
+	 */
+	public synchronized RetryPolicy setRetryableCodes(String... codes) {
+		retryableCodes = new HashSet<String>(Arrays.asList(codes));
+
+		return this;
+	}
+
+	/**
+	 - parameter ratio:   fraction of a retry added to the budget by every call.
+	 - parameter reserve: maximum number of retries available for a burst of failures, and the initial budget.
+	 */
+	public synchronized RetryPolicy setBudget(double ratio, double reserve) {
+		budgetRatio = Math.max(0, ratio);
+		budgetReserve = Math.max(0, reserve);
+		budget = Math.min(budget, budgetReserve);
+
+		return this;
+	}
+
+	/**
+	 Returns true if the failed attempt should be retried, and spends the retry from the budget.
+
+	 - parameter endpoint:  endpoint of the call, e.g. "user/get".
+	 - parameter attempt:   number of attempts made so far.
+	 - parameter response:  response of the failed attempt, or null.
+	 - parameter exception: client error of the failed attempt, or null.
+	 */
+	public synchronized boolean shouldRetry(String endpoint, int attempt, JSONObject response, Exception exception) {
+		if (attempt >= maxAttempts || !retryableEndpoints.contains(endpoint)) {
+			return false;
+		}
+
+		boolean retryable;
+		if (response != null) {
+			retryable = retryableCodes.contains(response.optString("code", ""));
+		} else {
+			retryable = isTransient(exception);
+		}
+		if (!retryable || budget < 1) {
+			return false;
+		}
+
+		budget -= 1;
+
+		return true;
+	}
+
+	// Returns true for network errors and for the HTTP statuses of an overloaded or unavailable server.
+	private static boolean isTransient(Exception exception) {
+		if (exception instanceof HttpStatusException) {
+			int status = ((HttpStatusException) exception).getStatusCode();
+
+			return status == 429 || status == 502 || status == 503 || status == 504;
+		}
+
+		return exception instanceof IOException;
+	}
+
+	/**
+	 Returns the delay before the next attempt.
+
+	 - parameter attempt: number of attempts made so far.
+	 */
+	public synchronized long getDelayMillis(int attempt) {
+		long cap = baseDelayMillis << Math.min(attempt - 1, 30);
+		if (cap <= 0 || cap > maxDelayMillis) {
+			cap = maxDelayMillis;
+		}
+
+		return (long) (random.nextDouble() * cap);
+	}
+
+	/**
+	 Records a call, adding to the retry budget.
+	 */
+	synchronized void onCall() {
+		budget = Math.min(budget + budgetRatio, Math.max(budgetReserve, 1));
+	}
+
+}
@@ -0,0 +1,332 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ Manages the API session of a ZelloAPI instance.
+
+ Concurrent authenticate() calls with the same credentials share a single login. A call with other
+ credentials waits for the login in progress to complete, then logs in on its own, so a caller is
+ never completed with the session of another user. When re-authentication is enabled, the
+ credentials of the last successful login are kept in memory, and an API call that
+ fails because the session expired triggers one new login; calls failing at the same time wait
+ for it, and each of them is then sent again once with the new Session ID.
+
+ Optionally, the Session ID is stored in a file so that a restarted process can reuse the session
+ without logging in again.
+
+ See ZelloAPI.getSessionManager()
+ */
+public class SessionManager {
+
+	/// Response codes treated as an expired or invalid session by default.
+	public static final String[] DEFAULT_SESSION_EXPIRED_CODES = { "301" };
+
+	/**
+	 Access to the session of the managed ZelloAPI instance.
+	 */
+	interface Session {
+		String getSessionId();
+
+		void setSessionId(String sessionId);
+
+		/// Performs the user/gettoken and user/login calls. The deadline may be null.
+		void login(String username, String password, Deadline deadline, ResultCompletionHandler completionHandler);
+	}
+
+	private final Session session;
+
+	private boolean reauthenticate;
+	private File sessionFile;
+	private Set<String> sessionExpiredCodes = new HashSet<String>(Arrays.asList(DEFAULT_SESSION_EXPIRED_CODES));
+
+	/// Credentials of the last successful login, kept while re-authentication is enabled.
+	private String username;
+	private String password;
+	/// Login in progress, or null if no login is in progress.
+	private Login current;
+	/// Logins with other credentials than the one in progress, started in order once it completes.
+	private final LinkedList<Login> queued = new LinkedList<Login>();
+
+	SessionManager(Session session) {
+		this.session = session;
+	}
+
+	/**
+	 Enables automatic re-authentication when the session expires.
+	 The credentials of the last successful ZelloAPI.authenticate() call are kept in memory while enabled.
+
+	 - parameter reauthenticate: true to log in again when a call fails because the session expired.
+	 */
+	public synchronized void setReauthenticate(boolean reauthenticate) {
+		this.reauthenticate = reauthenticate;
+		if (!reauthenticate) {
+			username = null;
+			password = null;
+		}
+	}
+
+	public synchronized boolean isReauthenticate() {
+		return reauthenticate;
+	}
+
+	/**
+	 Sets the file the Session ID is stored in after each login and removed from after logout.
+	 If the file exists and no Session ID is set yet, the stored Session ID is used right away.
+	 The file holds a live session, so it is written readable by the current user only.
+
+	 - parameter sessionFile: file to store the Session ID in, or null to stop storing it.
+	 */
+	public void setSessionFile(File sessionFile) {
+		synchronized (this) {
+			this.sessionFile = sessionFile;
+		}
+
+		if (sessionFile != null && session.getSessionId() == null) {
+			String stored = readSessionFile(sessionFile);
+			if (stored != null) {
+				session.setSessionId(stored);
+			}
+		}
+	}
+
+	/**
+	 Sets the response codes that mean the session has expired or is invalid.
+	 */
+	public synchronized void setSessionExpiredCodes(String... codes) {
+		sessionExpiredCodes = new HashSet<String>(Arrays.asList(codes));
+	}
+
+	/**
+	 Logs in, or joins the login with the same credentials already in progress or queued.
+	 A login with other credentials is queued until the login in progress completes.
+
+	 - parameter deadline: deadline of the login if one is started, or null.
+	 */
+	void authenticate(String username, String password, Deadline deadline, ResultCompletionHandler completionHandler) {
+		Login login;
+		synchronized (this) {
+			if (current != null && current.matches(username, password)) {
+				current.handlers.add(completionHandler);
+				return;
+			}
+			for (Login next : queued) {
+				if (next.matches(username, password)) {
+					next.handlers.add(completionHandler);
+					return;
+				}
+			}
+
+			login = new Login(username, password, deadline);
+			login.handlers.add(completionHandler);
+			if (current != null) {
+				queued.add(login);
+				return;
+			}
+			current = login;
+		}
+
+		start(login);
+	}
+
+	private void start(final Login login) {
+		session.login(login.username, login.password, login.deadline, new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				Login next;
+				File file;
+				synchronized (SessionManager.this) {
+					// Kept only once they are known to be valid
+					if (success && reauthenticate) {
+						username = login.username;
+						password = login.password;
+					}
+					next = queued.poll();
+					current = next;
+					file = sessionFile;
+				}
+
+				if (success && file != null) {
+					writeSessionFile(file, session.getSessionId());
+				}
+				for (ResultCompletionHandler handler : login.handlers) {
+					try {
+						handler.onResult(success, response, exception);
+					} catch (RuntimeException e) {
+						// Complete the remaining handlers
+					}
+				}
+
+				if (next != null) {
+					start(next);
+				}
+			}
+		});
+	}
+
+	/**
+	 Called after logout.
+	 */
+	void onLogout() {
+		File file;
+		synchronized (this) {
+			file = sessionFile;
+			username = null;
+			password = null;
+		}
+
+		if (file != null && !file.delete() && file.exists()) {
+			writeSessionFile(file, "");
+		}
+	}
+
+	/**
+	 Returns true if the failed call should be retried after logging in again.
+	 */
+	synchronized boolean shouldReauthenticate(JSONObject response) {
+		if (!reauthenticate || username == null || response == null) {
+			return false;
+		}
+
+		return sessionExpiredCodes.contains(response.optString("code", ""));
+	}
+
+	/**
+	 Logs in again unless another call already did since the failed call was sent.
+
+	 - parameter staleSessionId:    Session ID the failed call was sent with.
+	 - parameter deadline:          deadline of the failed call, or null.
+	 - parameter completionHandler: completed when a new session is available.
+	 */
+	void reauthenticate(String staleSessionId, Deadline deadline, ResultCompletionHandler completionHandler) {
+		String user;
+		String pass;
+		synchronized (this) {
+			// A login in progress is joined first: the Session ID only changes once it has succeeded
+			if (current != null) {
+				current.handlers.add(completionHandler);
+				return;
+			}
+			user = username;
+			pass = password;
+		}
+
+		String currentSessionId = session.getSessionId();
+		if (currentSessionId != null && !currentSessionId.equals(staleSessionId)) {
+			completionHandler.onResult(true, null, null);
+			return;
+		}
+		if (user == null) {
+			completionHandler.onResult(false, null, null);
+			return;
+		}
+
+		authenticate(user, pass, deadline, completionHandler);
+	}
+
+	private static class Login {
+
+		final String username;
+		final String password;
+		final Deadline deadline;
+		/// Handlers completed with the result of the login. Only modified while it is current or queued.
+		final List<ResultCompletionHandler> handlers = new ArrayList<ResultCompletionHandler>();
+
+		Login(String username, String password, Deadline deadline) {
+			this.username = username;
+			this.password = password;
+			this.deadline = deadline;
+		}
+
+		boolean matches(String username, String password) {
+			return equal(this.username, username) && equal(this.password, password);
+		}
+
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	private static String readSessionFile(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			String line = reader.readLine();
+
+			return line != null && line.trim().length() > 0 ? line.trim() : null;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				if (reader != null) {
+					reader.close();
+				}
+			} catch (IOException e) {
+				// Empty
+			}
+		}
+	}
+
+	// Writes a temporary file readable by the owner only and renames it into place, so the file is never seen half written.
+	private static void writeSessionFile(File file, String sessionId) {
+		File temp = new File(file.getPath() + ".tmp");
+		Writer writer = null;
+		try {
+			// Restricted before the Session ID is written to it
+			temp.delete();
+			new FileOutputStream(temp).close();
+			temp.setReadable(false, false);
+			temp.setReadable(true, true);
+			temp.setWritable(false, false);
+			temp.setWritable(true, true);
+
+			writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+			writer.write(sessionId != null ? sessionId : "");
+			writer.close();
+			writer = null;
+
+			if (!temp.renameTo(file)) {
+				// Renaming over an existing file fails on some platforms
+				file.delete();
+				if (!temp.renameTo(file)) {
+					temp.delete();
+				}
+			}
+		} catch (IOException e) {
+			// The session still works; it just won't survive a restart
+			temp.delete();
+		} finally {
+			try {
+				if (writer != null) {
+					writer.close();
+				}
+			} catch (IOException e) {
+				// Empty
+			}
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ Shares one request between concurrent identical reads.
+
+ The first caller for a key performs the request; callers arriving while it is in flight are
+ attached to it and completed with the same result, sharing the same response object.
+
+ See ZelloAPI.setRequestDeduplication()
+ */
+class SingleFlight {
+
+	private final Map<String, List<ResultCompletionHandler>> inFlight = new HashMap<String, List<ResultCompletionHandler>>();
+
+	/**
+	 Attaches the handler to the request in flight for the key.
+
+	 - returns: null if the handler was attached to a request in flight, otherwise the handler
+	            the caller must perform the request with; it completes every attached handler.
+	 */
+	synchronized ResultCompletionHandler join(final String key, ResultCompletionHandler completionHandler) {
+		List<ResultCompletionHandler> waiting = inFlight.get(key);
+		if (waiting != null) {
+			waiting.add(completionHandler);
+			return null;
+		}
+
+		waiting = new ArrayList<ResultCompletionHandler>();
+		waiting.add(completionHandler);
+		inFlight.put(key, waiting);
+
+		return new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				List<ResultCompletionHandler> handlers;
+				synchronized (SingleFlight.this) {
+					handlers = inFlight.remove(key);
+				}
+
+				for (ResultCompletionHandler handler : handlers) {
+					try {
+						handler.onResult(success, response, exception);
+					} catch (RuntimeException e) {
+						// Complete the remaining handlers
+					}
+				}
+			}
+		};
+	}
+
+}
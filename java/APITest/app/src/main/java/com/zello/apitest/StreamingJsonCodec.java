@@ -0,0 +1,163 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ JsonCodec parsing the response with JsonPullParser while it is read, and encoding straight into a StringBuilder.
+
+ Compared with OrgJsonCodec, the response is never held as a String: the parser decodes the stream through
+ a small buffer and builds the JSONObject as it goes. The result is the same, except that a duplicate key
+ keeps its last value, where some versions of org.json fail.
+ */
+public class StreamingJsonCodec implements JsonCodec {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	@Override
+	public JSONObject decode(InputStream stream) throws IOException, JSONException {
+		JsonPullParser parser = new JsonPullParser(new InputStreamReader(stream, "UTF-8"));
+		if (parser.peek() != JsonPullParser.Token.BEGIN_OBJECT) {
+			throw new JSONException("Expected a JSON object but was " + parser.peek());
+		}
+		JSONObject object = (JSONObject) parser.nextValue();
+		if (parser.peek() != JsonPullParser.Token.END_DOCUMENT) {
+			throw new JSONException("Unexpected data after the end of document");
+		}
+
+		return object;
+	}
+
+	@Override
+	public String encode(Map<String, ?> object) {
+		StringBuilder builder = new StringBuilder(128);
+		writeMap(builder, object);
+
+		return builder.toString();
+	}
+
+	private static void writeValue(StringBuilder builder, Object value) {
+		if (value == null || value == JSONObject.NULL) {
+			builder.append("null");
+		} else if (value instanceof String) {
+			writeString(builder, (String) value);
+		} else if (value instanceof Boolean) {
+			builder.append(((Boolean) value).booleanValue());
+		} else if (value instanceof Number) {
+			writeNumber(builder, (Number) value);
+		} else if (value instanceof Map) {
+			writeMap(builder, (Map<?, ?>) value);
+		} else if (value instanceof Collection) {
+			writeArray(builder, ((Collection<?>) value).iterator());
+		} else if (value instanceof Object[]) {
+			writeArray(builder, Arrays.asList((Object[]) value).iterator());
+		} else if (value instanceof JSONObject || value instanceof JSONArray) {
+			builder.append(value.toString());
+		} else {
+			writeString(builder, value.toString());
+		}
+	}
+
+	private static void writeMap(StringBuilder builder, Map<?, ?> map) {
+		builder.append('{');
+		boolean first = true;
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			if (!first) {
+				builder.append(',');
+			}
+			first = false;
+			writeString(builder, String.valueOf(entry.getKey()));
+			builder.append(':');
+			writeValue(builder, entry.getValue());
+		}
+		builder.append('}');
+	}
+
+	private static void writeArray(StringBuilder builder, Iterator<?> values) {
+		builder.append('[');
+		boolean first = true;
+		while (values.hasNext()) {
+			if (!first) {
+				builder.append(',');
+			}
+			first = false;
+			writeValue(builder, values.next());
+		}
+		builder.append(']');
+	}
+
+	private static void writeNumber(StringBuilder builder, Number number) {
+		if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+			builder.append(number.longValue());
+			return;
+		}
+
+		double value = number.doubleValue();
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("JSON does not allow non-finite numbers: " + number);
+		}
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			// 3.0 as 3, like org.json
+			builder.append((long) value);
+		} else {
+			builder.append(number.toString());
+		}
+	}
+
+	private static void writeString(StringBuilder builder, String string) {
+		builder.append('"');
+		int length = string.length();
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+				continue;
+			}
+
+			builder.append(string, start, i);
+			start = i + 1;
+			switch (c) {
+				case '"':
+					builder.append("\\\"");
+					break;
+				case '\\':
+					builder.append("\\\\");
+					break;
+				case '\b':
+					builder.append("\\b");
+					break;
+				case '\f':
+					builder.append("\\f");
+					break;
+				case '\n':
+					builder.append("\\n");
+					break;
+				case '\r':
+					builder.append("\\r");
+					break;
+				case '\t':
+					builder.append("\\t");
+					break;
+				default:
+					// Other control characters, and the line separators JavaScript does not allow in strings
+					builder.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+					break;
+			}
+		}
+		builder.append(string, start, length).append('"');
+	}
+
+}
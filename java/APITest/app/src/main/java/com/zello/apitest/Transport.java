@@ -0,0 +1,57 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import java.io.InputStream;
+
+/**
+ Sends the HTTP requests of API calls.
+
+ ZelloAPI builds each request, takes care of sessions, caching, retries and limits, and parses
+ the response; the transport only moves bytes. Two implementations are provided:
+
+ - HttpURLConnectionTransport, the default, works on Android and any Java version. It blocks a
+   thread per request, so ZelloAPI calls it on its executor.
+ - HttpClientTransport uses java.net.http.HttpClient (Java 11 or newer, not available on Android).
+   It is asynchronous: requests wait for the response without holding a thread.
+
+ See ZelloAPI.setTransport()
+ */
+public interface Transport {
+
+	/**
+	 Receives the outcome of a request. Exactly one of the methods is called, once.
+	 */
+	interface ResponseHandler {
+		/**
+		 Reads and parses the response body and completes the call.
+		 The transport may release the connection once the method returns.
+
+		 - parameter body: response body. Transports decode any Content-Encoding before passing it.
+		 */
+		void onResponse(InputStream body);
+
+		/**
+		 Completes the call with a client error, e.g. an IOException if the server could not be reached.
+		 */
+		void onFailure(Exception exception);
+	}
+
+	/**
+	 Returns true if send() returns without waiting for the response.
+	 Blocking transports are called on the executor of the ZelloAPI instance.
+	 */
+	boolean isAsynchronous();
+
+	/**
+	 Sends the request and passes the response or the error to the handler.
+	 Use ApiCall.setCancelAction() to let cancel() abort the request in flight.
+
+	 - parameter call:            request to send.
+	 - parameter responseHandler: handler to pass the response or the error to.
+	 */
+	void send(ApiCall call, ResponseHandler responseHandler);
+
+}
@@ -0,0 +1,61 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import java.util.List;
+
+/**
+ A user of a user/get response. Attributes are decoded when read, see ApiObject.
+
+ See ZelloAPI.saveUser() for the attributes.
+ */
+public class User extends ApiObject {
+
+	User(char[] json, int start, int end) {
+		super(json, start, end);
+	}
+
+	public String getName() {
+		return getString("name");
+	}
+
+	public String getFullName() {
+		return getString("full_name");
+	}
+
+	public String getJob() {
+		return getString("job");
+	}
+
+	public String getEmail() {
+		return getString("email");
+	}
+
+	/**
+	 Returns true if the user has access to the admin console.
+	 */
+	public boolean isAdmin() {
+		return getBoolean("admin");
+	}
+
+	/**
+	 Returns true if the user is restricted from starting 1-on-1 conversations.
+	 */
+	public boolean isLimitedAccess() {
+		return getBoolean("limited_access");
+	}
+
+	public boolean isGateway() {
+		return getBoolean("gateway");
+	}
+
+	/**
+	 Returns the names of the channels the user is a member of.
+	 */
+	public List<String> getChannels() {
+		return getStringList("channels");
+	}
+
+}
@@ -4,23 +4,31 @@
 
 package com.zello.apitest;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  ZelloWork server Java API wrapper class.
@@ -34,7 +42,7 @@ import java.util.Map;
  */
 public class ZelloAPI {
 
-	private enum HTTPMethod {
+	enum HTTPMethod {
 		POST, GET
 	}
 
@@ -42,24 +50,447 @@ public class ZelloAPI {
 	public static String version = "1.1.0";
 
 	/// Session ID used to identify logged in client. Typically you'll want to authenticate first and store the Session ID to reuse later.
-	public String sessionId;
+	public volatile String sessionId;
 
-	/// Last accessed API URL. Useful for API troubleshooting.
-	public String lastURL;
+	/// Last accessed API URL. Useful for API troubleshooting. With calls made from several threads it is the URL
+	/// of whichever call was made last; use setMetrics() to observe concurrent calls.
+	public volatile String lastURL;
 
 	/// Server hostname or IP address.
 	private String host;
 	/// API Key.
 	private String apiKey;
+	/// Executor running the HTTP requests. Created on first use if not provided.
+	private Executor executor;
+	/// Runs the tasks of timers, such as retries and deadline completions, on the current executor instead of the timer thread.
+	private final Executor timerHandOff = new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			getExecutor().execute(task);
+		}
+	};
+	/// Sends the HTTP requests. Null to use defaultTransport.
+	private Transport transport;
+	/// HttpURLConnectionTransport using the connection pool set with setConnectionPool().
+	private HttpURLConnectionTransport defaultTransport = new HttpURLConnectionTransport();
+	/// Merges addToChannel() and removeFromChannel() calls. Null when coalescing is disabled.
+	private MembershipCoalescer membershipCoalescer;
+	/// Cache of read responses. Null when caching is disabled.
+	private ResponseCache responseCache;
+	/// Identical reads in flight. Null when deduplication is disabled.
+	private SingleFlight singleFlight;
+	/// Shares logins between threads and renews expired sessions.
+	private final SessionManager sessionManager;
+	/// Retry policy for failed requests. Null when failed requests are not retried.
+	private RetryPolicy retryPolicy;
+	/// Limits the request rate. Null when the rate is not limited.
+	private RateLimiter rateLimiter;
+	/// Limits the number of requests in flight. Null when not limited.
+	private AdaptiveConcurrencyLimiter concurrencyLimiter;
+	/// Fails requests fast while the server is unreachable. Null when disabled.
+	private CircuitBreaker circuitBreaker;
+	/// Connect timeout in milliseconds.
+	private int connectTimeout = 15000;
+	/// Read timeout in milliseconds.
+	private int readTimeout = 10000;
+	/// Connect and read timeouts of endpoints that override the defaults.
+	private final Map<String, int[]> timeoutsByEndpoint = new HashMap<String, int[]>();
+	/// Maximum number of values of a list parameter sent in one call. 0 when lists are not split.
+	private int listChunkSize = 0;
+	/// Maximum number of chunks of a list sent at the same time.
+	private int listChunkConcurrency = 4;
+	/// Receives the measurements of every request.
+	private ApiMetrics metrics = ApiMetrics.NOOP;
+	/// Receives the phases of every request. Null when requests are not traced.
+	private RequestListener requestListener;
+	/// Decodes the responses and encodes JSON parameters.
+	private JsonCodec jsonCodec = defaultJsonCodec();
+	/// Minimum size in bytes of the POST bodies sent compressed. 0 when bodies are not compressed.
+	private int requestCompressionThreshold;
 
 	public ZelloAPI(String host, String apiKey) {
 		this(host, apiKey, null);
 	}
 
 	public ZelloAPI(String host, String apiKey, String sessionId) {
+		this(host, apiKey, sessionId, null);
+	}
+
+	/**
+	 - parameter executor: executor running the HTTP requests. If null, a bounded pool created by APIExecutors.newBoundedExecutor() is used.
+	 */
+	public ZelloAPI(String host, String apiKey, String sessionId, Executor executor) {
 		this.host = host;
 		this.apiKey = apiKey;
 		this.sessionId = sessionId;
+		this.executor = executor;
+		this.sessionManager = new SessionManager(new SessionManager.Session() {
+			@Override
+			public String getSessionId() {
+				return ZelloAPI.this.sessionId;
+			}
+
+			@Override
+			public void setSessionId(String sessionId) {
+				ZelloAPI.this.sessionId = sessionId;
+			}
+
+			@Override
+			public void login(String username, String password, Deadline deadline, ResultCompletionHandler completionHandler) {
+				ZelloAPI.this.login(username, password, deadline, completionHandler);
+			}
+		});
+	}
+
+	/**
+	 Returns the session manager, used to enable automatic re-authentication and Session ID persistence.
+	 */
+	public SessionManager getSessionManager() {
+		return sessionManager;
+	}
+
+	/**
+	 Sets the executor running the HTTP requests.
+	 Each API call is a single task on this executor. If the executor rejects the task,
+	 the completion handler receives the RejectedExecutionException.
+	 See APIExecutors for the bounded and virtual-thread-per-task executors.
+
+	 - parameter executor: executor to use. If null, the default bounded pool is used.
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 Sets the connection pool releasing the connections of the default transport, optionally limiting their number per host.
+	 By default all ZelloAPI instances share ConnectionPool.getDefault(), which does not limit connections.
+	 The pool is used by the default HttpURLConnectionTransport, not by transports set with setTransport().
+
+	 - parameter connectionPool: connection pool to use.
+	 */
+	public synchronized void setConnectionPool(ConnectionPool connectionPool) {
+		if (connectionPool == null) {
+			throw new IllegalArgumentException("connectionPool must not be null");
+		}
+
+		defaultTransport = new HttpURLConnectionTransport(connectionPool);
+	}
+
+	/**
+	 Returns the connection pool of the default transport, e.g. to read its statistics.
+	 */
+	public synchronized ConnectionPool getConnectionPool() {
+		return defaultTransport.getConnectionPool();
+	}
+
+	/**
+	 Sets the transport sending the HTTP requests.
+	 By default requests are sent with HttpURLConnection, blocking a thread of the executor per request.
+	 On Java 11 or newer, HttpClientTransport waits for responses without holding threads.
+
+	 - parameter transport: transport to use, or null for the default HttpURLConnectionTransport.
+	 */
+	public synchronized void setTransport(Transport transport) {
+		this.transport = transport;
+	}
+
+	public synchronized Transport getTransport() {
+		return transport != null ? transport : defaultTransport;
+	}
+
+	/**
+	 Enables coalescing of addToChannel() and removeFromChannel() calls.
+	 Calls made within the window are buffered and merged per channel, and channels with the same users
+	 are merged into one addToChannels() or removeFromChannels() call. Each completion handler receives
+	 the result of the merged call. Useful when many single-user membership changes are made in bursts.
+
+	 - parameter windowMillis:       time in milliseconds a call may wait for others to merge with. 0 disables coalescing.
+	 - parameter maxUsersPerChannel: number of buffered users of one channel that sends the calls before the window ends.
+	 */
+	public void setMembershipCoalescing(long windowMillis, int maxUsersPerChannel) {
+		MembershipCoalescer previous;
+		synchronized (this) {
+			previous = membershipCoalescer;
+			membershipCoalescer = null;
+			if (windowMillis > 0) {
+				membershipCoalescer = new MembershipCoalescer(new MembershipCoalescer.Sender() {
+					@Override
+					public void send(boolean add, ArrayList<String> channelNames, ArrayList<String> users, ResultCompletionHandler completionHandler) {
+						if (channelNames.size() == 1) {
+							sendMembership(add, channelNames.get(0), users, completionHandler);
+						} else if (add) {
+							addToChannels(channelNames, users, completionHandler);
+						} else {
+							removeFromChannels(channelNames, users, completionHandler);
+						}
+					}
+				}, timerHandOff, windowMillis, Math.max(1, maxUsersPerChannel));
+			}
+		}
+
+		if (previous != null) {
+			previous.flush();
+		}
+	}
+
+	/**
+	 Enables caching of getUsers(), getChannels() and getChannelsRoles() responses.
+	 Calls that modify users, channels or roles through this instance invalidate the affected cached responses.
+	 Changes made by other clients are visible once the cached responses expire.
+	 Responses are cached per Session ID, and the cache is cleared on login and logout, so a response is never served to another user.
+	 Cache hits complete the handler on the calling thread. A cache must not be shared by instances connected to different hosts.
+
+	 - parameter responseCache: cache to use, or null to disable caching.
+	 */
+	public synchronized void setResponseCache(ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	public synchronized ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	// Drops the responses read with the previous session.
+	private void clearResponseCache() {
+		ResponseCache cache = getResponseCache();
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 Enables sharing of identical concurrent reads.
+	 While a getUsers(), getChannels() or getChannelsRoles() request is in flight, identical calls do not
+	 send another request but receive the result of the one in flight, including the same response object.
+	 Calls with an ItemStreamHandler are never shared.
+
+	 - parameter enabled: true to share identical concurrent reads.
+	 */
+	public synchronized void setRequestDeduplication(boolean enabled) {
+		if (!enabled) {
+			singleFlight = null;
+		} else if (singleFlight == null) {
+			singleFlight = new SingleFlight();
+		}
+	}
+
+	/**
+	 Sets the policy used to retry failed requests.
+	 Streaming requests are retried only if they failed before any item was delivered.
+
+	 - parameter retryPolicy: retry policy, or null to never retry.
+	 */
+	public synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	private synchronized RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 Limits the rate at which requests are sent to the server.
+	 Requests over the rate are delayed, not rejected. Retries count against the rate as well.
+
+	 - parameter rateLimiter: rate limiter, or null to send requests as fast as possible.
+	 */
+	public synchronized void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	private synchronized RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 Limits the number of requests in flight with a limit that adapts to the latency and errors observed.
+	 Requests over the limit wait until a request in flight completes.
+
+	 - parameter concurrencyLimiter: concurrency limiter, or null to only be limited by the executor.
+	 */
+	public synchronized void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	private synchronized AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
+	/**
+	 Sets the circuit breaker protecting against an unreachable server.
+	 While the breaker is open, calls complete right away with a CircuitBreakerOpenException
+	 instead of waiting for the connect and read timeouts.
+
+	 - parameter circuitBreaker: circuit breaker for the host, or null to always send requests.
+	 */
+	public synchronized void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	private synchronized CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 Sets the connect and read timeouts of all requests, except for endpoints with their own timeouts.
+	 By default the connect timeout is 15 seconds and the read timeout 10 seconds.
+
+	 - parameter connectTimeoutMillis: connect timeout in milliseconds. 0 means no timeout.
+	 - parameter readTimeoutMillis:    read timeout in milliseconds, i.e. the longest wait for data from the server. 0 means no timeout.
+	 */
+	public synchronized void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+		if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Timeouts must not be negative");
+		}
+
+		connectTimeout = connectTimeoutMillis;
+		readTimeout = readTimeoutMillis;
+	}
+
+	/**
+	 Sets the connect and read timeouts of the requests to an endpoint,
+	 e.g. a longer read timeout for "user/get" listings and a shorter one for "channel/add".
+
+	 - parameter endpoint:             endpoint without its path parameters, e.g. "user/get".
+	 - parameter connectTimeoutMillis: connect timeout in milliseconds. 0 means no timeout.
+	 - parameter readTimeoutMillis:    read timeout in milliseconds. 0 means no timeout.
+	 */
+	public synchronized void setTimeouts(String endpoint, int connectTimeoutMillis, int readTimeoutMillis) {
+		if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Timeouts must not be negative");
+		}
+
+		timeoutsByEndpoint.put(endpoint, new int[] { connectTimeoutMillis, readTimeoutMillis });
+	}
+
+	/**
+	 Removes the timeouts set for an endpoint, so that its requests use the default timeouts again.
+	 */
+	public synchronized void clearTimeouts(String endpoint) {
+		timeoutsByEndpoint.remove(endpoint);
+	}
+
+	// Returns the connect and read timeouts of an endpoint.
+	private synchronized int[] getTimeouts(String endpoint) {
+		int[] timeouts = timeoutsByEndpoint.get(endpoint);
+
+		return timeouts != null ? timeouts : new int[] { connectTimeout, readTimeout };
+	}
+
+	/**
+	 Splits long lists of users, channels or roles into several calls. Applies to deleteUsers(), deleteChannels(),
+	 addToChannel(), removeFromChannel(), addToChannels(), removeFromChannels(), addToChannelRole() and
+	 deleteChannelRole(), so that mass changes are not sent as one huge request that can exceed the body size
+	 limit of the server or the read timeout. Splitting is off by default: a split list is no longer changed atomically,
+	 as some calls can succeed while others fail, so callers have to opt in.
+
+	 The completion handler receives the merged result of the calls: success if all of them succeeded, and the
+	 response of the first call (or the first that failed) with "chunks" (number of calls), "failed_chunks"
+	 (number of failed calls) and "failed" (values of the failed calls, if any) added. A failed result always has a
+	 "code": that of the first failed call with a response, or "0" if none of the failed calls got a response.
+	 The calls continue when one fails. Lists no longer than the chunk size are sent as before.
+
+	 - parameter chunkSize:   maximum number of values sent in one call. 0 disables splitting.
+	 - parameter concurrency: maximum number of calls of one list in flight.
+	 */
+	public synchronized void setListChunking(int chunkSize, int concurrency) {
+		if (chunkSize < 0) {
+			throw new IllegalArgumentException("chunkSize must not be negative");
+		}
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be positive");
+		}
+
+		listChunkSize = chunkSize;
+		listChunkConcurrency = concurrency;
+	}
+
+	/**
+	 Sets the metrics receiving the latency, size and outcome of every request, e.g. a MetricsRecorder.
+
+	 - parameter metrics: metrics to record to, or null to record nothing.
+	 */
+	public synchronized void setMetrics(ApiMetrics metrics) {
+		this.metrics = metrics != null ? metrics : ApiMetrics.NOOP;
+	}
+
+	public synchronized ApiMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 Sets the listener receiving the phases of every request with their timestamps:
+	 waiting for limits, DNS, connect, time to first byte, reading and parsing the response.
+
+	 - parameter requestListener: listener, or null to stop tracing.
+	 */
+	public synchronized void setRequestListener(RequestListener requestListener) {
+		this.requestListener = requestListener;
+	}
+
+	public synchronized RequestListener getRequestListener() {
+		return requestListener;
+	}
+
+	/**
+	 Sets the codec decoding the responses and encoding JSON parameters. The default is OrgJsonCodec on Android,
+	 where org.json is part of the platform, and StreamingJsonCodec, which is faster and allocates less, on other JVMs.
+
+	 - parameter jsonCodec: codec, or null for the default.
+	 */
+	public synchronized void setJsonCodec(JsonCodec jsonCodec) {
+		this.jsonCodec = jsonCodec != null ? jsonCodec : defaultJsonCodec();
+	}
+
+	public synchronized JsonCodec getJsonCodec() {
+		return jsonCodec;
+	}
+
+	private static JsonCodec defaultJsonCodec() {
+		String vm = System.getProperty("java.vm.name", "");
+		if (vm.contains("Dalvik") || System.getProperty("java.vendor", "").contains("Android")) {
+			return new OrgJsonCodec();
+		}
+
+		return new StreamingJsonCodec();
+	}
+
+	/**
+	 Sends POST bodies of at least the given size compressed with gzip (Content-Encoding: gzip), e.g. the
+	 long login lists of deleteUsers(). Bodies that do not get smaller are sent as they are.
+	 Only enable it for servers that accept compressed request bodies; it is disabled by default.
+
+	 Responses are compressed regardless of this setting, if the server supports it: every request asks
+	 for gzip or deflate and the response is decompressed while it is read.
+
+	 - parameter threshold: minimum body size in bytes, or 0 to never compress.
+	 */
+	public synchronized void setRequestCompressionThreshold(int threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("threshold must not be negative");
+		}
+
+		requestCompressionThreshold = threshold;
+	}
+
+	public synchronized int getRequestCompressionThreshold() {
+		return requestCompressionThreshold;
+	}
+
+	private synchronized SingleFlight getSingleFlight() {
+		return singleFlight;
+	}
+
+	private synchronized MembershipCoalescer getMembershipCoalescer() {
+		return membershipCoalescer;
+	}
+
+	private synchronized Executor getExecutor() {
+		if (executor == null) {
+			executor = APIExecutors.newBoundedExecutor();
+		}
+
+		return executor;
 	}
 
 	/**
@@ -68,13 +499,51 @@ public class ZelloAPI {
 	 If authentication succeeds, sessionId is set to the Session ID.
 	 The Session ID is reusable so it's recommended that you save this value and use it for further API calls.
 	 Once you are done using the API, call ZelloAPI.logout() to end the session and invalidate Session ID.
+	 Concurrent calls with the same credentials share a single login. See ZelloAPI.getSessionManager() for automatic re-authentication.
 
 	 - parameter username:          administrative username
 	 - parameter password:          administrative password
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void authenticate(final String username, final String password, final ResultCompletionHandler completionHandler) {
-		callAPI("user/gettoken", HTTPMethod.GET, null, new ResultCompletionHandler() {
+	public ApiRequest authenticate(String username, String password, ResultCompletionHandler completionHandler) {
+		return authenticate(username, password, null, completionHandler);
+	}
+
+	/**
+	 Same as authenticate() without a deadline, but both steps of the login must complete before the deadline.
+	 If a login is already in progress the call joins it, and still completes by its own deadline.
+
+	 - parameter deadline: deadline of the whole login.
+	 */
+	public ApiRequest authenticate(String username, String password, Deadline deadline, ResultCompletionHandler completionHandler) {
+		ApiRequest request = new ApiRequest();
+		sessionManager.authenticate(username, password, deadline, completeByDeadline(deadline, request.wrap(completionHandler), timerHandOff));
+
+		return request;
+	}
+
+	/**
+	 Same as authenticate() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture authenticate(String username, String password) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(authenticate(username, password, future));
+
+		return future;
+	}
+
+	/**
+	 Same as authenticate() with a deadline and a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture authenticate(String username, String password, Deadline deadline) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(authenticate(username, password, deadline, future));
+
+		return future;
+	}
+
+	private void login(final String username, final String password, final Deadline deadline, final ResultCompletionHandler completionHandler) {
+		callAPI("user/gettoken", HTTPMethod.GET, null, deadline, new ResultCompletionHandler() {
 			@Override
 			public void onResult(boolean success, JSONObject response, Exception exception) {
 				// On main thread.
@@ -90,8 +559,8 @@ public class ZelloAPI {
 
 				try {
 					String token = response.getString("token");
-
-					sessionId = response.getString("sid");
+					// Not published until the login succeeds, so that other calls don't use a session that is not authenticated yet
+					final String newSessionId = response.getString("sid");
 
 					if (apiKey == null) {
 						completionHandler.onResult(false, response, exception);
@@ -99,9 +568,22 @@ public class ZelloAPI {
 					}
 
 					String hashedPassword = MD5(MD5(password) + token + apiKey);
-					String parameters = "username=" + username + "&password=" + hashedPassword;
-
-					callAPI("user/login", HTTPMethod.POST, parameters, completionHandler);
+					FormBody parameters = new FormBody.Builder()
+							.add("username", username)
+							.add("password", hashedPassword)
+							.build();
+
+					ApiRequest request = new ApiRequest();
+					callAPI("user/login", HTTPMethod.POST, parameters, deadline, newSessionId, request, request.wrap(new ResultCompletionHandler() {
+						@Override
+						public void onResult(boolean success, JSONObject response, Exception exception) {
+							if (success) {
+								sessionId = newSessionId;
+								clearResponseCache();
+							}
+							completionHandler.onResult(success, response, exception);
+						}
+					}), null, true);
 				} catch (Exception e) {
 					completionHandler.onResult(false, response, e);
 				}
@@ -109,6 +591,7 @@ public class ZelloAPI {
 		});
 	}
 
+
 	/**
 	 Ends session identified by sessionId.
 	 Use this method to terminate the API session.
@@ -116,17 +599,29 @@ public class ZelloAPI {
 
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void logout(final ResultCompletionHandler completionHandler) {
-		callAPI("user/logout", HTTPMethod.GET, null, new ResultCompletionHandler() {
+	public ApiRequest logout(final ResultCompletionHandler completionHandler) {
+		return callAPI("user/logout", HTTPMethod.GET, null, new ResultCompletionHandler() {
 			@Override
 			public void onResult(boolean success, JSONObject response, Exception exception) {
 				sessionId = null;
+				sessionManager.onLogout();
+				clearResponseCache();
 
 				completionHandler.onResult(success, response, exception);
 			}
 		});
 	}
 
+	/**
+	 Same as logout() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture logout() {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(logout(future));
+
+		return future;
+	}
+
 	/**
 	 Gets the list of the users or detailed information regarding a particular user.
 
@@ -136,8 +631,33 @@ public class ZelloAPI {
 	 - parameter start:             start index of results to fetch.
 	 - parameter channel:           channel name.
 	 - parameter completionHandler: completion handler indicating success, response and error.
+	                                Pass an ItemStreamHandler to receive the users one at a time while the response is parsed.
+	 */
+	public ApiRequest getUsers(String username, Boolean isGateway, Integer max, Integer start, String channel, ResultCompletionHandler completionHandler) {
+		return callAPI(usersCommand(username, isGateway, max, start, channel), HTTPMethod.GET, null, completionHandler);
+	}
+
+	/**
+	 Same as getUsers() with a completion handler, but returns the users as an ApiResult decoded on demand,
+	 see ApiResult.getUsers(). Reading one attribute of every user of a large listing this way allocates
+	 a fraction of what decoding the response into a JSONObject does.
+	 The response cache and request deduplication are not used for these calls.
+	 */
+	public ApiRequest getUsersResult(String username, Boolean isGateway, Integer max, Integer start, String channel, ApiResultHandler resultHandler) {
+		return callAPI(usersCommand(username, isGateway, max, start, channel), resultHandler);
+	}
+
+	/**
+	 Same as getUsers() with a completion handler, but returns the result as an ApiFuture.
 	 */
-	public void getUsers(String username, Boolean isGateway, Integer max, Integer start, String channel, ResultCompletionHandler completionHandler) {
+	public ApiFuture getUsers(String username, Boolean isGateway, Integer max, Integer start, String channel) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(getUsers(username, isGateway, max, start, channel, future));
+
+		return future;
+	}
+
+	private String usersCommand(String username, Boolean isGateway, Integer max, Integer start, String channel) {
 		String command = "user/get";
 
 		if (username != null) {
@@ -156,7 +676,7 @@ public class ZelloAPI {
 			command += "/start/" + start.toString();
 		}
 
-		callAPI(command, HTTPMethod.GET, null, completionHandler);
+		return command;
 	}
 
 	/**
@@ -166,8 +686,31 @@ public class ZelloAPI {
 	 - parameter max:               maximum number of results to fetch.
 	 - parameter start:             start index of results to fetch.
 	 - parameter completionHandler: completion handler indicating success, response and error.
+	                                Pass an ItemStreamHandler to receive the channels one at a time while the response is parsed.
+	 */
+	public ApiRequest getChannels(String name, Integer max, Integer start, ResultCompletionHandler completionHandler) {
+		return callAPI(channelsCommand(name, max, start), HTTPMethod.GET, null, completionHandler);
+	}
+
+	/**
+	 Same as getChannels() with a completion handler, but returns the channels as an ApiResult decoded on demand,
+	 see ApiResult.getChannels(). The response cache and request deduplication are not used for these calls.
+	 */
+	public ApiRequest getChannelsResult(String name, Integer max, Integer start, ApiResultHandler resultHandler) {
+		return callAPI(channelsCommand(name, max, start), resultHandler);
+	}
+
+	/**
+	 Same as getChannels() with a completion handler, but returns the result as an ApiFuture.
 	 */
-	public void getChannels(String name, Integer max, Integer start, ResultCompletionHandler completionHandler) {
+	public ApiFuture getChannels(String name, Integer max, Integer start) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(getChannels(name, max, start, future));
+
+		return future;
+	}
+
+	private String channelsCommand(String name, Integer max, Integer start) {
 		String command = "channel/get";
 
 		if (name != null) {
@@ -180,76 +723,195 @@ public class ZelloAPI {
 			command += "/start/" + start.toString();
 		}
 
-		callAPI(command, HTTPMethod.GET, null, completionHandler);
+		return command;
 	}
 
 	/**
-	 Adds users to a channel.
+	 Returns a lazy iterator over all users, fetched page by page.
+	 See PagedIterator
 
-	 - parameter channelName: name of the channel where the users will be added.
-	 - parameter users:       usernames of the users to add.
-	 - parameter completionHandler: completion handler indicating success, response and error.
+	 - parameter pageSize: number of users fetched per request.
 	 */
-	public void addToChannel(String channelName, ArrayList<String> users, ResultCompletionHandler completionHandler) {
-		String command = "user/addto/" + urlEncode(channelName);
-
-		String parameters = implode("login[]=", "&login[]=", users);
+	public PagedIterator streamUsers(int pageSize) {
+		return streamUsers(null, null, pageSize, 2);
+	}
 
-		callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+	/**
+	 Returns a lazy iterator over the users, fetched page by page.
+	 The following pages are downloaded while the current one is consumed.
+	 See PagedIterator
+
+	 - parameter isGateway:     whether to return users or gateways.
+	 - parameter channel:       channel name. If null, users of all channels are returned.
+	 - parameter pageSize:      number of users fetched per request.
+	 - parameter prefetchPages: number of pages requested concurrently ahead of the consumer.
+	 */
+	public PagedIterator streamUsers(Boolean isGateway, String channel, int pageSize, int prefetchPages) {
+		return streamUsers(isGateway, channel, pageSize, prefetchPages, null);
 	}
 
 	/**
-	 Add users to multiple channels.
+	 Same as streamUsers() without a deadline, but the whole scan must complete before the deadline.
+	 Once it passes, page requests in flight are disconnected and the iterator throws a ZelloAPIException
+	 caused by a TimeoutException.
 
-	 - parameter channelNames:      channel names where the users are added.
-	 - parameter users:             usernames of the users to add.
-	 - parameter completionHandler: completion handler indicating success, response and error.
+	 - parameter deadline: deadline of the scan, or null.
 	 */
-	public void addToChannels(ArrayList<String> channelNames, ArrayList<String> users, ResultCompletionHandler completionHandler) {
-		String command = "user/addtochannels";
+	public PagedIterator streamUsers(final Boolean isGateway, final String channel, int pageSize, int prefetchPages, final Deadline deadline) {
+		return new PagedIterator(new PagedIterator.PageLoader() {
+			@Override
+			public ApiRequest loadPage(int start, int max, ResultCompletionHandler completionHandler) {
+				return callAPI(usersCommand(null, isGateway, max, start, channel), HTTPMethod.GET, null, deadline, completionHandler);
+			}
+		}, "users", pageSize, prefetchPages, deadline);
+	}
 
-		String parameters = implode("users[]=", "&users[]=", users);
-		parameters += implode("&channels[]=", "&channels[]=", channelNames);
+	/**
+	 Returns a lazy iterator over all channels, fetched page by page.
+	 See PagedIterator
 
-		callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+	 - parameter pageSize: number of channels fetched per request.
+	 */
+	public PagedIterator streamChannels(int pageSize) {
+		return streamChannels(pageSize, 2);
 	}
 
 	/**
-	 Removes users from a channel.
+	 Returns a lazy iterator over all channels, fetched page by page.
+	 The following pages are downloaded while the current one is consumed.
+	 See PagedIterator
 
-	 - parameter channelName:       name of the channel.
-	 - parameter users:             usernames of the users to remove from the channel.
-	 - parameter completionHandler: completion handler indicating success, response and error.
+	 - parameter pageSize:      number of channels fetched per request.
+	 - parameter prefetchPages: number of pages requested concurrently ahead of the consumer.
 	 */
-	public void removeFromChannel(String channelName, ArrayList<String> users, ResultCompletionHandler completionHandler) {
-		String command = "user/removefrom/" + urlEncode(channelName);
+	public PagedIterator streamChannels(int pageSize, int prefetchPages) {
+		return streamChannels(pageSize, prefetchPages, null);
+	}
 
-		String parameters = implode("login[]=", "&login[]=", users);
+	/**
+	 Same as streamChannels() without a deadline, but the whole scan must complete before the deadline.
+	 See ZelloAPI.streamUsers()
 
-		callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+	 - parameter deadline: deadline of the scan, or null.
+	 */
+	public PagedIterator streamChannels(int pageSize, int prefetchPages, final Deadline deadline) {
+		return new PagedIterator(new PagedIterator.PageLoader() {
+			@Override
+			public ApiRequest loadPage(int start, int max, ResultCompletionHandler completionHandler) {
+				return callAPI(channelsCommand(null, max, start), HTTPMethod.GET, null, deadline, completionHandler);
+			}
+		}, "channels", pageSize, prefetchPages, deadline);
 	}
 
 	/**
-	 Removes users from multiple channels.
+	 Adds users to a channel.
 
-	 - parameter channelNames:      names of the channels.
-	 - parameter users:             usernames of the users to remove from channels.
+	 - parameter channelName: name of the channel where the users will be added.
+	 - parameter users:       usernames of the users to add.
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void removeFromChannels(ArrayList<String> channelNames, ArrayList<String> users, ResultCompletionHandler completionHandler) {
-		String command = "user/removefromchannels";
+	public ApiRequest addToChannel(String channelName, ArrayList<String> users, ResultCompletionHandler completionHandler) {
+		MembershipCoalescer coalescer = getMembershipCoalescer();
+		if (coalescer != null) {
+			ApiRequest request = new ApiRequest();
+			coalescer.enqueue(true, channelName, users, request.wrap(completionHandler));
 
-		String parameters = implode("users[]=", "&users[]=", users);
-		parameters += implode("&channels[]=", "&channels[]=", channelNames);
+			return request;
+		}
 
-		callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+		return sendMembership(true, channelName, users, completionHandler);
 	}
 
 	/**
-	 Adds or updates the user.
-	 If username exists, the user is updated. Otherwise, a new user is created.
-	 When adding a user, the "name" and "password" attributes are required.
-	 When updating a user, the "name" attribute is required.
+	 Same as addToChannel() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture addToChannel(String channelName, ArrayList<String> users) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(addToChannel(channelName, users, future));
+
+		return future;
+	}
+
+	/**
+	 Add users to multiple channels.
+
+	 - parameter channelNames:      channel names where the users are added.
+	 - parameter users:             usernames of the users to add.
+	 - parameter completionHandler: completion handler indicating success, response and error.
+	 */
+	public ApiRequest addToChannels(ArrayList<String> channelNames, ArrayList<String> users, ResultCompletionHandler completionHandler) {
+		String command = "user/addtochannels";
+
+		return postToChannels(command, channelNames, users, completionHandler);
+	}
+
+	/**
+	 Same as addToChannels() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture addToChannels(ArrayList<String> channelNames, ArrayList<String> users) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(addToChannels(channelNames, users, future));
+
+		return future;
+	}
+
+	/**
+	 Removes users from a channel.
+
+	 - parameter channelName:       name of the channel.
+	 - parameter users:             usernames of the users to remove from the channel.
+	 - parameter completionHandler: completion handler indicating success, response and error.
+	 */
+	public ApiRequest removeFromChannel(String channelName, ArrayList<String> users, ResultCompletionHandler completionHandler) {
+		MembershipCoalescer coalescer = getMembershipCoalescer();
+		if (coalescer != null) {
+			ApiRequest request = new ApiRequest();
+			coalescer.enqueue(false, channelName, users, request.wrap(completionHandler));
+
+			return request;
+		}
+
+		return sendMembership(false, channelName, users, completionHandler);
+	}
+
+	/**
+	 Same as removeFromChannel() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture removeFromChannel(String channelName, ArrayList<String> users) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(removeFromChannel(channelName, users, future));
+
+		return future;
+	}
+
+	/**
+	 Removes users from multiple channels.
+
+	 - parameter channelNames:      names of the channels.
+	 - parameter users:             usernames of the users to remove from channels.
+	 - parameter completionHandler: completion handler indicating success, response and error.
+	 */
+	public ApiRequest removeFromChannels(ArrayList<String> channelNames, ArrayList<String> users, ResultCompletionHandler completionHandler) {
+		String command = "user/removefromchannels";
+
+		return postToChannels(command, channelNames, users, completionHandler);
+	}
+
+	/**
+	 Same as removeFromChannels() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture removeFromChannels(ArrayList<String> channelNames, ArrayList<String> users) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(removeFromChannels(channelNames, users, future));
+
+		return future;
+	}
+
+	/**
+	 Adds or updates the user.
+	 If username exists, the user is updated. Otherwise, a new user is created.
+	 When adding a user, the "name" and "password" attributes are required.
+	 When updating a user, the "name" attribute is required.
 
 	 See ZelloAPI.deleteUsers()
 
@@ -267,12 +929,22 @@ public class ZelloAPI {
 	 - parameter user:              map of user attributes.
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void saveUser(Map<String, String> user, ResultCompletionHandler completionHandler) {
+	public ApiRequest saveUser(Map<String, String> user, ResultCompletionHandler completionHandler) {
 		String command = "user/save";
 
-		String parameters = createURLStringFromMap(user);
+		FormBody parameters = new FormBody.Builder().addAll(user).build();
 
-		callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+		return callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+	}
+
+	/**
+	 Same as saveUser() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture saveUser(Map<String, String> user) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(saveUser(user, future));
+
+		return future;
 	}
 
 	/**
@@ -283,12 +955,20 @@ public class ZelloAPI {
 	 - parameter users:             usernames of the users to remove.
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void deleteUsers(ArrayList<String> users, ResultCompletionHandler completionHandler) {
+	public ApiRequest deleteUsers(ArrayList<String> users, ResultCompletionHandler completionHandler) {
 		String command = "user/delete";
 
-		String parameters = implode("login[]=", "&login[]=", users);
+		return postList(command, "login[]", users, completionHandler);
+	}
 
-		callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+	/**
+	 Same as deleteUsers() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture deleteUsers(ArrayList<String> users) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(deleteUsers(users, future));
+
+		return future;
 	}
 
 	/**
@@ -299,7 +979,7 @@ public class ZelloAPI {
 	 - parameter isHidden:          when set to true in combination with isGroup set to true, a hidden group channel is created.
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void addChannel(String name, Boolean isGroup, Boolean isHidden, ResultCompletionHandler completionHandler) {
+	public ApiRequest addChannel(String name, Boolean isGroup, Boolean isHidden, ResultCompletionHandler completionHandler) {
 		String command = "channel/add/name/" + urlEncode(name);
 
 		if (isGroup != null){
@@ -309,7 +989,17 @@ public class ZelloAPI {
 			command += "/invisible/" + (isHidden ? "true" : "false");
 		}
 
-		callAPI(command, HTTPMethod.GET, null, completionHandler);
+		return callAPI(command, HTTPMethod.GET, null, completionHandler);
+	}
+
+	/**
+	 Same as addChannel() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture addChannel(String name, Boolean isGroup, Boolean isHidden) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(addChannel(name, isGroup, isHidden, future));
+
+		return future;
 	}
 
 	/**
@@ -318,12 +1008,20 @@ public class ZelloAPI {
 	 - parameter channelNames:      names of the channels to remove.
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void deleteChannels(ArrayList<String> channelNames, ResultCompletionHandler completionHandler) {
+	public ApiRequest deleteChannels(ArrayList<String> channelNames, ResultCompletionHandler completionHandler) {
 		String command = "channel/delete";
 
-		String parameters = implode("name[]=", "&name[]=", channelNames);
+		return postList(command, "name[]", channelNames, completionHandler);
+	}
+
+	/**
+	 Same as deleteChannels() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture deleteChannels(ArrayList<String> channelNames) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(deleteChannels(channelNames, future));
 
-		callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+		return future;
 	}
 
 	/**
@@ -332,10 +1030,30 @@ public class ZelloAPI {
 	 - parameter channelName:       channel name.
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void getChannelsRoles(String channelName, ResultCompletionHandler completionHandler) {
+	public ApiRequest getChannelsRoles(String channelName, ResultCompletionHandler completionHandler) {
 		String command = "channel/roleslist/name/" + urlEncode(channelName);
 
-		callAPI(command, HTTPMethod.GET, null, completionHandler);
+		return callAPI(command, HTTPMethod.GET, null, completionHandler);
+	}
+
+	/**
+	 Same as getChannelsRoles() with a completion handler, but returns the roles as an ApiResult decoded on demand,
+	 see ApiResult.getRoles(). The response cache and request deduplication are not used for these calls.
+	 */
+	public ApiRequest getChannelsRolesResult(String channelName, ApiResultHandler resultHandler) {
+		String command = "channel/roleslist/name/" + urlEncode(channelName);
+
+		return callAPI(command, resultHandler);
+	}
+
+	/**
+	 Same as getChannelsRoles() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture getChannelsRoles(String channelName) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(getChannelsRoles(channelName, future));
+
+		return future;
 	}
 
 	/**
@@ -346,13 +1064,22 @@ public class ZelloAPI {
 	 - parameter settings:          role settings in JSON format: ["listen_only" : false, "no_disconnect" : true, "allow_alerts" : false, "to": ["dispatchers"]]
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void saveChannelRole(String channelName, String roleName, Map<String, Object> settings, ResultCompletionHandler completionHandler) {
+	public ApiRequest saveChannelRole(String channelName, String roleName, Map<String, Object> settings, ResultCompletionHandler completionHandler) {
 		String command = "channel/saverole/channel/" + urlEncode(channelName) + "/name/" + urlEncode(roleName);
 
-		JSONObject object = new JSONObject(settings);
-		String parameters = "settings=" + object.toString();
+		FormBody parameters = new FormBody.Builder().add("settings", getJsonCodec().encode(settings)).build();
 
-		callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+		return callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+	}
+
+	/**
+	 Same as saveChannelRole() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture saveChannelRole(String channelName, String roleName, Map<String, Object> settings) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(saveChannelRole(channelName, roleName, settings, future));
+
+		return future;
 	}
 
 	/**
@@ -362,12 +1089,20 @@ public class ZelloAPI {
 	 - parameter roles:             role names to delete.
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void deleteChannelRole(String channelName, ArrayList<String> roles, ResultCompletionHandler completionHandler) {
+	public ApiRequest deleteChannelRole(String channelName, ArrayList<String> roles, ResultCompletionHandler completionHandler) {
 		String command = "channel/deleterole/channel/" + urlEncode(channelName);
 
-		String parameters = implode("roles[]=", "&roles[]=", roles);
+		return postList(command, "roles[]", roles, completionHandler);
+	}
+
+	/**
+	 Same as deleteChannelRole() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture deleteChannelRole(String channelName, ArrayList<String> roles) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(deleteChannelRole(channelName, roles, future));
 
-		callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+		return future;
 	}
 
 	/**
@@ -378,103 +1113,836 @@ public class ZelloAPI {
 	 - parameter users:             usernames to add to role in channel.
 	 - parameter completionHandler: completion handler indicating success, response and error.
 	 */
-	public void addToChannelRole(String channelName, String roleName, ArrayList<String> users, ResultCompletionHandler completionHandler) {
+	public ApiRequest addToChannelRole(String channelName, String roleName, ArrayList<String> users, ResultCompletionHandler completionHandler) {
 		String command = "channel/addtorole/channel/" + urlEncode(channelName) + "/name/" + urlEncode(roleName);
 
-		String parameters = implode("login[]=", "&login[]=", users);
+		return postList(command, "login[]", users, completionHandler);
+	}
+
+	/**
+	 Same as addToChannelRole() with a completion handler, but returns the result as an ApiFuture.
+	 */
+	public ApiFuture addToChannelRole(String channelName, String roleName, ArrayList<String> users) {
+		ApiFuture future = new ApiFuture();
+		future.setRequest(addToChannelRole(channelName, roleName, users, future));
+
+		return future;
+	}
+
+	private ApiRequest sendMembership(boolean add, String channelName, ArrayList<String> users, ResultCompletionHandler completionHandler) {
+		String command = (add ? "user/addto/" : "user/removefrom/") + urlEncode(channelName);
+
+		return postList(command, "login[]", users, completionHandler);
+	}
+
+	// Sends the users with the channels, split into several calls if there are more users than the chunk size.
+	private ApiRequest postToChannels(final String command, ArrayList<String> channelNames, ArrayList<String> users,
+			ResultCompletionHandler completionHandler) {
+		final List<String> channels = new ArrayList<String>(channelNames);
+
+		return postInChunks(users, completionHandler, new ChunkedCall.Sender() {
+			@Override
+			public ApiRequest send(List<String> chunk, ResultCompletionHandler handler) {
+				FormBody parameters = new FormBody.Builder()
+						.addAll("users[]", chunk)
+						.addAll("channels[]", channels)
+						.build();
+
+				return callAPI(command, HTTPMethod.POST, parameters, handler);
+			}
+		});
+	}
+
+	// Sends the values as the list parameter of the command, split into several calls if there are more than the chunk size.
+	private ApiRequest postList(final String command, final String name, ArrayList<String> values, ResultCompletionHandler completionHandler) {
+		return postInChunks(values, completionHandler, new ChunkedCall.Sender() {
+			@Override
+			public ApiRequest send(List<String> chunk, ResultCompletionHandler handler) {
+				FormBody parameters = new FormBody.Builder().addAll(name, chunk).build();
+
+				return callAPI(command, HTTPMethod.POST, parameters, handler);
+			}
+		});
+	}
+
+	private ApiRequest postInChunks(List<String> values, ResultCompletionHandler completionHandler, ChunkedCall.Sender sender) {
+		int chunkSize;
+		int concurrency;
+		synchronized (this) {
+			chunkSize = listChunkSize;
+			concurrency = listChunkConcurrency;
+		}
+
+		if (chunkSize == 0 || values.size() <= chunkSize) {
+			return sender.send(values, completionHandler);
+		}
+
+		return ChunkedCall.send(values, chunkSize, concurrency, sender, completionHandler);
+	}
+
+	private ApiRequest callAPI(String command, HTTPMethod method, FormBody parameters, ResultCompletionHandler completionHandler) {
+		return callAPI(command, method, parameters, null, completionHandler);
+	}
 
-		callAPI(command, HTTPMethod.POST, parameters, completionHandler);
+	private ApiRequest callAPI(String command, HTTPMethod method, FormBody parameters, Deadline deadline, ResultCompletionHandler completionHandler) {
+		ApiRequest request = new ApiRequest();
+		callAPI(command, method, parameters, deadline, sessionId, request, request.wrap(completionHandler), null, true);
+
+		return request;
+	}
+
+	// Reads with the response decoded on demand into an ApiResult.
+	private ApiRequest callAPI(String command, ApiResultHandler resultHandler) {
+		ApiRequest request = new ApiRequest();
+		AtomicReference<ApiResult> result = new AtomicReference<ApiResult>();
+		callAPI(command, HTTPMethod.GET, null, null, sessionId, request, request.wrap(decoding(resultHandler, result)), result, true);
+
+		return request;
 	}
 
-	private void callAPI(String command, HTTPMethod method, String parameters, ResultCompletionHandler completionHandler) {
+	// Sends the call with the given Session ID, which is the current one except for the login itself.
+	// If result is not null, the response is decoded on demand into the ApiResult it receives.
+	private void callAPI(String command, HTTPMethod method, FormBody parameters, Deadline deadline, String sid, ApiRequest request,
+			ResultCompletionHandler completionHandler, AtomicReference<ApiResult> result, boolean renewSession) {
+		if (renewSession && sessionManager.isReauthenticate() && !isSessionCommand(command)) {
+			completionHandler = renewSessionOnExpiry(command, method, parameters, deadline, sid, request, completionHandler, result);
+		}
+
+		// The cache and shared requests hold decoded responses, which calls decoding on demand do not produce
+		ResponseCache cache = getResponseCache();
+		if (cache != null && result == null) {
+			completionHandler = applyCache(cache, command, method, sid, completionHandler);
+			if (completionHandler == null) {
+				return;
+			}
+		}
+
 		String prefix = "http://";
 		if (host.contains("http://") || host.contains("https://")) {
 			prefix = "";
 		}
 		String string = prefix + host + "/" + command;
 
-		if (sessionId != null) {
-			string += "?sid=" + sessionId;
+		if (sid != null) {
+			string += "?sid=" + sid;
 		}
 
 		lastURL = string;
 
-		final String urlString = string;
-		final String httpParameters = parameters;
-		final HTTPMethod httpMethod = method;
-		final ResultCompletionHandler resultCompletionHandler = completionHandler;
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				InputStream is = null;
+		// Calls with a deadline are not shared, as the shared request could outlive the deadline or be cut short by it
+		SingleFlight flights = getSingleFlight();
+		if (flights != null && result == null && deadline == null && method == HTTPMethod.GET && isReadOnly(command) && !(completionHandler instanceof ItemStreamHandler)) {
+			completionHandler = flights.join(string, completionHandler);
+			if (completionHandler == null) {
+				return;
+			}
+			// Other calls may join the request, so cancelling this call must not stop it
+			request = null;
+		}
 
+		RetryPolicy retry = getRetryPolicy();
+		if (retry != null) {
+			retry.onCall();
+		}
+
+		// Compressed once per call, so that retries resend the same bytes
+		int compressionThreshold = getRequestCompressionThreshold();
+		if (parameters != null && compressionThreshold > 0 && parameters.getContentLength() >= compressionThreshold) {
+			parameters = parameters.gzip();
+		}
+
+		int[] timeouts = getTimeouts(endpointOf(command));
+		boolean streaming = completionHandler instanceof ItemStreamHandler;
+		ApiCall call = new ApiCall(command, string, method, parameters, deadline, request, streaming, result, timeouts[0], timeouts[1],
+				getRequestListener());
+
+		ApiMetrics metrics = getMetrics();
+		if (metrics != ApiMetrics.NOOP) {
+			completionHandler = measured(metrics, call, completionHandler);
+		}
+		if (call.isTraced()) {
+			call.trace(RequestListener.Event.CALL_START);
+			completionHandler = traced(call, completionHandler);
+		}
+
+		submit(call, completionHandler, 1);
+	}
+
+	// Passes the ApiResult of the response to the handler. The slot holds the result of the last attempt that received a response.
+	private static ResultCompletionHandler decoding(final ApiResultHandler resultHandler, final AtomicReference<ApiResult> slot) {
+		return new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				ApiResult result = null;
 				try {
-					URL url = new URL(urlString);
-					HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-					conn.setReadTimeout(10000 /* milliseconds */);
-					conn.setConnectTimeout(15000 /* milliseconds */);
-					conn.setRequestMethod(convertHTTPMethodToString(httpMethod));
-					conn.setDoInput(true);
-					conn.setDoOutput(true);
-
-					if (httpParameters != null) {
-						OutputStream os = conn.getOutputStream();
-						BufferedWriter writer = new BufferedWriter(
-								new OutputStreamWriter(os, "UTF-8"));
-						writer.write(httpParameters);
-
-						writer.flush();
-						writer.close();
-						os.close();
+					if (response != null) {
+						result = slot.get();
+						if (result == null) {
+							result = ApiResult.of(response);
+						}
 					}
+				} catch (IllegalStateException e) {
+					resultHandler.onResult(false, null, e);
+					return;
+				}
+				resultHandler.onResult(success, result, exception);
+			}
+		};
+	}
 
-					// Starts the query
-					conn.connect();
-					is = conn.getInputStream();
+	// Reports the call to the metrics once it completes.
+	private static ResultCompletionHandler measured(final ApiMetrics metrics, final ApiCall call, final ResultCompletionHandler completionHandler) {
+		final long start = System.nanoTime();
+		metrics.onCallStarted(call.endpoint);
 
-					// Convert the InputStream into a string
-					String contentAsString = readIt(is);
+		return forwardingResult(completionHandler, new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				String code = response != null ? response.optString("code", null) : null;
+				metrics.onCallCompleted(call.endpoint, success, code, exception, System.nanoTime() - start,
+						call.bytesSent.get(), call.bytesReceived.get());
+				completionHandler.onResult(success, response, exception);
+			}
+		});
+	}
 
-					final JSONObject result = new JSONObject(contentAsString);
+	// Reports the end of the call to its request listener.
+	private static ResultCompletionHandler traced(final ApiCall call, final ResultCompletionHandler completionHandler) {
+		return forwardingResult(completionHandler, new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				call.trace(RequestListener.Event.CALL_END);
+				completionHandler.onResult(success, response, exception);
+			}
+		});
+	}
+
+	// Runs one attempt of the request on the executor, scheduling another attempt if it fails and the retry policy allows it.
+	private void submit(final ApiCall call, final ResultCompletionHandler completionHandler, final int attempt) {
+		if (call.request != null && call.request.isCancelled()) {
+			completionHandler.onResult(false, null, cancelled());
+			return;
+		}
+
+		final RetryPolicy retry = getRetryPolicy();
+		ResultCompletionHandler attemptHandler = completionHandler;
+		if (retry != null) {
+			// Streamed items must not be delivered twice, so a stream is retried only if it failed before the first item
+			final AtomicBoolean itemsDelivered = new AtomicBoolean();
+			ResultCompletionHandler retryingHandler = new ResultCompletionHandler() {
+				@Override
+				public void onResult(boolean success, JSONObject response, Exception exception) {
+					if (success || itemsDelivered.get() || !retry.shouldRetry(call.endpoint, attempt, response, exception)) {
+						completionHandler.onResult(success, response, exception);
+						return;
+					}
+
+					long delay = retry.getDelayMillis(attempt);
+					if (call.deadline != null && delay >= call.deadline.getRemainingMillis()) {
+						// The retry could not complete in time
+						completionHandler.onResult(success, response, exception);
+						return;
+					}
 
-					final String response = result.getString("code");
-					resultCompletionHandler.onResult(response != null && response.equals("200"), result, null);
-				} catch (final Exception e) {
-					resultCompletionHandler.onResult(false, null, e);
-				} finally {
+					CancellableStage nextAttempt = new CancellableStage(call.request, new Runnable() {
+						@Override
+						public void run() {
+							getMetrics().onRetry(call.endpoint, attempt + 1);
+							submit(call, completionHandler, attempt + 1);
+						}
+					}, completionHandler);
+					nextAttempt.arm(null);
 					try {
-						if (is != null) {
-							is.close();
+						APIExecutors.schedule(nextAttempt, delay, TimeUnit.MILLISECONDS, timerHandOff);
+					} catch (RuntimeException e) {
+						if (nextAttempt.claim()) {
+							completionHandler.onResult(success, response, exception);
+						}
+					}
+				}
+			};
+
+			if (completionHandler instanceof ItemStreamHandler) {
+				final ItemStreamHandler itemHandler = (ItemStreamHandler) completionHandler;
+				final ResultCompletionHandler resultHandler = retryingHandler;
+				attemptHandler = new ItemStreamHandler() {
+					@Override
+					public boolean onItem(String listName, JSONObject item) {
+						itemsDelivered.set(true);
+						return itemHandler.onItem(listName, item);
+					}
+
+					@Override
+					public void onResult(boolean success, JSONObject response, Exception exception) {
+						resultHandler.onResult(success, response, exception);
+					}
+				};
+			} else {
+				attemptHandler = retryingHandler;
+			}
+		}
+
+		dispatch(call, attemptHandler);
+	}
+
+	// Sends the request once the circuit breaker and the rate limiter allow it.
+	private void dispatch(final ApiCall call, ResultCompletionHandler resultHandler) {
+		final CircuitBreaker breaker = getCircuitBreaker();
+		if (breaker != null) {
+			CircuitBreakerOpenException open = breaker.tryAcquire();
+			if (open != null) {
+				resultHandler.onResult(false, null, open);
+				return;
+			}
+
+			final ResultCompletionHandler originalHandler = resultHandler;
+			resultHandler = forwardingResult(originalHandler, new ResultCompletionHandler() {
+				@Override
+				public void onResult(boolean success, JSONObject response, Exception exception) {
+					breaker.onResult(exception);
+					originalHandler.onResult(success, response, exception);
+				}
+			});
+		}
+
+		final ResultCompletionHandler completionHandler = resultHandler;
+		RateLimiter limiter = getRateLimiter();
+		long waitNanos = limiter != null ? limiter.reserve() : 0;
+		if (waitNanos <= 0) {
+			acquireAndExecute(call, completionHandler);
+			return;
+		}
+
+		CancellableStage delayed = new CancellableStage(call.request, new Runnable() {
+			@Override
+			public void run() {
+				acquireAndExecute(call, completionHandler);
+			}
+		}, completionHandler);
+		delayed.arm(null);
+		try {
+			APIExecutors.schedule(delayed, waitNanos, TimeUnit.NANOSECONDS, timerHandOff);
+		} catch (RuntimeException e) {
+			if (delayed.claim()) {
+				completionHandler.onResult(false, null, e);
+			}
+		}
+	}
+
+	// Sends the request once the concurrency limiter has a free slot.
+	private void acquireAndExecute(final ApiCall call, final ResultCompletionHandler completionHandler) {
+		final AdaptiveConcurrencyLimiter limiter = getConcurrencyLimiter();
+		if (limiter == null) {
+			execute(call, completionHandler);
+			return;
+		}
+
+		final CancellableStage waiting = new CancellableStage(call.request, new Runnable() {
+			@Override
+			public void run() {
+				final long start = System.nanoTime();
+				execute(call, forwardingResult(completionHandler, new ResultCompletionHandler() {
+					@Override
+					public void onResult(boolean success, JSONObject response, Exception exception) {
+						limiter.release(System.nanoTime() - start, response, exception);
+						completionHandler.onResult(success, response, exception);
+					}
+				}));
+			}
+		}, completionHandler);
+		final Runnable slotTask = new Runnable() {
+			@Override
+			public void run() {
+				if (!waiting.claim()) {
+					// Cancelled after the limiter picked the request; give the slot back
+					limiter.release(0, null, cancelled());
+					return;
+				}
+				waiting.runClaimed();
+			}
+		};
+		waiting.arm(new Runnable() {
+			@Override
+			public void run() {
+				limiter.remove(slotTask);
+			}
+		});
+		limiter.acquire(slotTask);
+	}
+
+	private void execute(final ApiCall call, final ResultCompletionHandler completionHandler) {
+		if (getTransport().isAsynchronous()) {
+			performRequest(call, completionHandler);
+			return;
+		}
+
+		final CancellableStage request = new CancellableStage(call.request, new Runnable() {
+			@Override
+			public void run() {
+				performRequest(call, completionHandler);
+			}
+		}, completionHandler);
+
+		final Executor executor = getExecutor();
+		request.arm(new Runnable() {
+			@Override
+			public void run() {
+				// Frees the queue slot of the bounded executor
+				if (executor instanceof ThreadPoolExecutor) {
+					((ThreadPoolExecutor) executor).remove(request);
+				}
+			}
+		});
+		try {
+			executor.execute(request);
+		} catch (RuntimeException e) {
+			// RejectedExecutionException or the executor is shut down
+			if (request.claim()) {
+				completionHandler.onResult(false, null, e);
+			}
+		}
+	}
+
+	private static CancellationException cancelled() {
+		return new CancellationException("API call cancelled");
+	}
+
+	// Adds the number of bytes read from the stream to the counter.
+	private static class CountingInputStream extends FilterInputStream {
+
+		private final AtomicLong count;
+
+		CountingInputStream(InputStream in, AtomicLong count) {
+			super(in);
+			this.count = count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count.incrementAndGet();
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				count.addAndGet(read);
+			}
+
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count.addAndGet(skipped);
+
+			return skipped;
+		}
+	}
+
+	// Reports RESPONSE_BODY_END to the request listener of the call once the end of the stream is read.
+	private static class BodyEndInputStream extends FilterInputStream {
+
+		private final ApiCall call;
+		private boolean ended;
+
+		BodyEndInputStream(InputStream in, ApiCall call) {
+			super(in);
+			this.call = call;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) {
+				end();
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read == -1) {
+				end();
+			}
+
+			return read;
+		}
+
+		private void end() {
+			if (!ended) {
+				ended = true;
+				call.trace(RequestListener.Event.RESPONSE_BODY_END);
+			}
+		}
+	}
+
+	/**
+	 A stage of a call waiting to run: queued on the executor, delayed by the rate limiter or a retry,
+	 or waiting for the concurrency limiter. Cancelling the call skips the stage and completes its
+	 handler with a CancellationException, so that limiters and the circuit breaker see the call end.
+	 */
+	private static class CancellableStage implements Runnable {
+
+		private final ApiRequest request;
+		private final Runnable stage;
+		private final ResultCompletionHandler completionHandler;
+		/// Set once the stage has run or has been cancelled.
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private Runnable cancelAction;
+
+		CancellableStage(ApiRequest request, Runnable stage, ResultCompletionHandler completionHandler) {
+			this.request = request;
+			this.stage = stage;
+			this.completionHandler = completionHandler;
+		}
+
+		/**
+		 Lets the request cancel the stage. Called right before the stage is queued.
+
+		 - parameter dequeue: removes the stage from where it waits, or null.
+		 */
+		void arm(final Runnable dequeue) {
+			if (request == null) {
+				return;
+			}
+
+			Runnable action = new Runnable() {
+				@Override
+				public void run() {
+					if (claim()) {
+						if (dequeue != null) {
+							dequeue.run();
 						}
-					} catch (Exception e) {
-						// Empty
+						completionHandler.onResult(false, null, cancelled());
+					}
+				}
+			};
+			synchronized (this) {
+				cancelAction = action;
+			}
+			if (!request.setCancelAction(action)) {
+				action.run();
+			}
+		}
+
+		/**
+		 Returns true if neither run() nor cancellation has claimed the stage yet, and claims it.
+		 Whoever fails to queue the stage must claim it before completing the handler.
+		 */
+		boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+
+		@Override
+		public void run() {
+			if (claim()) {
+				runClaimed();
+			}
+		}
+
+		/**
+		 Runs the stage after a successful claim().
+		 */
+		void runClaimed() {
+			Runnable action;
+			synchronized (this) {
+				action = cancelAction;
+			}
+			if (action != null) {
+				request.clearCancelAction(action);
+			}
+			stage.run();
+		}
+	}
+
+	// Logs in again and resends the call once if it fails because the session expired.
+	private ResultCompletionHandler renewSessionOnExpiry(final String command, final HTTPMethod method, final FormBody parameters,
+			final Deadline deadline, final String staleSessionId, final ApiRequest request, final ResultCompletionHandler completionHandler,
+			final AtomicReference<ApiResult> result) {
+		return forwardingResult(completionHandler, new ResultCompletionHandler() {
+			@Override
+			public void onResult(final boolean success, final JSONObject response, final Exception exception) {
+				if (success || !sessionManager.shouldReauthenticate(response)) {
+					completionHandler.onResult(success, response, exception);
+					return;
+				}
+
+				sessionManager.reauthenticate(staleSessionId, deadline, new ResultCompletionHandler() {
+					@Override
+					public void onResult(boolean renewed, JSONObject loginResponse, Exception loginException) {
+						if (renewed) {
+							callAPI(command, method, parameters, deadline, sessionId, request, completionHandler, result, false);
+						} else {
+							completionHandler.onResult(success, response, exception);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	// Returns a handler that completes at most once: with the result, or with a TimeoutException if the deadline passes first.
+	private static ResultCompletionHandler completeByDeadline(final Deadline deadline, final ResultCompletionHandler completionHandler, Executor executor) {
+		if (deadline == null) {
+			return completionHandler;
+		}
+
+		final AtomicBoolean completed = new AtomicBoolean();
+		final ScheduledFuture<?> timeout;
+		try {
+			timeout = APIExecutors.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (completed.compareAndSet(false, true)) {
+						completionHandler.onResult(false, null, deadline.exceeded());
+					}
+				}
+			}, deadline.getRemainingMillis(), TimeUnit.MILLISECONDS, executor);
+		} catch (RuntimeException e) {
+			// The requests still time out by the deadline
+			return completionHandler;
+		}
+
+		return new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				if (completed.compareAndSet(false, true)) {
+					timeout.cancel(false);
+					completionHandler.onResult(success, response, exception);
+				}
+			}
+		};
+	}
+
+	private static boolean isSessionCommand(String command) {
+		return command.equals("user/gettoken") || command.equals("user/login") || command.equals("user/logout");
+	}
+
+	// Returns a handler passing the result to resultHandler and, if completionHandler streams items, the items to completionHandler.
+	static ResultCompletionHandler forwardingResult(ResultCompletionHandler completionHandler, final ResultCompletionHandler resultHandler) {
+		if (!(completionHandler instanceof ItemStreamHandler)) {
+			return resultHandler;
+		}
+
+		final ItemStreamHandler itemHandler = (ItemStreamHandler) completionHandler;
+		return new ItemStreamHandler() {
+			@Override
+			public boolean onItem(String listName, JSONObject item) {
+				return itemHandler.onItem(listName, item);
+			}
+
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				resultHandler.onResult(success, response, exception);
+			}
+		};
+	}
+
+	// Completes reads from the cache, stores read responses and invalidates responses affected by modifications.
+	// Responses are keyed by the command and the Session ID, as listings depend on the user.
+	// Returns the handler to call the API with, or null if the call was completed from the cache.
+	private ResultCompletionHandler applyCache(final ResponseCache cache, String command, HTTPMethod method, String sid, final ResultCompletionHandler completionHandler) {
+		final String endpoint = endpointOf(command);
+		final String key = sid == null ? command : command + "?sid=" + sid;
+
+		if (method == HTTPMethod.GET && cache.isCacheable(endpoint)) {
+			if (completionHandler instanceof ItemStreamHandler) {
+				return completionHandler;
+			}
+
+			JSONObject cached = cache.get(key);
+			if (cached != null) {
+				completionHandler.onResult(true, cached, null);
+				return null;
+			}
+
+			final long generation = cache.getGeneration();
+			return new ResultCompletionHandler() {
+				@Override
+				public void onResult(boolean success, JSONObject response, Exception exception) {
+					if (success) {
+						cache.put(key, endpoint, response, generation);
 					}
+					completionHandler.onResult(success, response, exception);
 				}
+			};
+		}
+
+		final String[] affected = ResponseCache.endpointsAffectedBy(endpoint);
+		if (affected.length == 0) {
+			return completionHandler;
+		}
+
+		// Invalidated both before and after the call, so reads running concurrently with it are not cached
+		for (String affectedEndpoint : affected) {
+			cache.invalidate(affectedEndpoint);
+		}
+		return new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				for (String affectedEndpoint : affected) {
+					cache.invalidate(affectedEndpoint);
+				}
+				completionHandler.onResult(success, response, exception);
+			}
+		};
+	}
+
+	// Returns true for commands that do not modify anything on the server.
+	private static boolean isReadOnly(String command) {
+		String endpoint = endpointOf(command);
+
+		return endpoint.equals("user/get") || endpoint.equals("channel/get") || endpoint.equals("channel/roleslist");
+	}
+
+	// Returns the endpoint of a command without its path parameters, e.g. "user/get" for "user/get/login/admin".
+	static String endpointOf(String command) {
+		int slash = command.indexOf('/');
+		if (slash < 0) {
+			return command;
+		}
+		int end = command.indexOf('/', slash + 1);
+
+		return end < 0 ? command : command.substring(0, end);
+	}
+
+	private void performRequest(final ApiCall call, final ResultCompletionHandler resultCompletionHandler) {
+		if (call.isCancelled()) {
+			resultCompletionHandler.onResult(false, null, cancelled());
+			return;
+		}
+		if (call.deadline != null && call.deadline.isExpired()) {
+			resultCompletionHandler.onResult(false, null, call.deadline.exceeded());
+			return;
+		}
+
+		if (call.parameters != null) {
+			call.bytesSent.addAndGet(call.parameters.getContentLength());
+		}
+		call.trace(RequestListener.Event.ATTEMPT_START);
+
+		getTransport().send(call, new Transport.ResponseHandler() {
+			@Override
+			public void onResponse(InputStream body) {
+				handleResponse(call, new CountingInputStream(body, call.bytesReceived), resultCompletionHandler);
+			}
+
+			@Override
+			public void onFailure(Exception exception) {
+				resultCompletionHandler.onResult(false, null, clientError(call, exception));
 			}
-		}).start();
+		});
+	}
+
+	private void handleResponse(ApiCall call, InputStream is, ResultCompletionHandler resultCompletionHandler) {
+		try {
+			if (resultCompletionHandler instanceof ItemStreamHandler) {
+				streamResponse(is, (ItemStreamHandler) resultCompletionHandler);
+				return;
+			}
+			if (call.result != null) {
+				byte[] content = readBytes(is);
+				call.trace(RequestListener.Event.RESPONSE_BODY_END);
+
+				// Only the top-level fields are indexed here, the lists are left to the handler
+				ApiResult result = new ApiResult(content);
+				JSONObject fields = result.getScalarFields();
+				call.trace(RequestListener.Event.PARSE_END);
+
+				call.result.set(result);
+				resultCompletionHandler.onResult(result.isSuccess(), fields, null);
+				return;
+			}
+
+			// The codec may parse while reading, so the end of the body is reported when the stream reaches it
+			final JSONObject result = getJsonCodec().decode(call.isTraced() ? new BodyEndInputStream(is, call) : is);
+			call.trace(RequestListener.Event.PARSE_END);
+
+			final String response = result.getString("code");
+			resultCompletionHandler.onResult(response != null && response.equals("200"), result, null);
+		} catch (final Exception e) {
+			resultCompletionHandler.onResult(false, null, clientError(call, e));
+		}
+	}
+
+	// Returns the error to report for a failed request: a request aborted by cancel() or by its deadline fails with the reason, not with the I/O error it caused.
+	private static Exception clientError(ApiCall call, Exception exception) {
+		if (call.isCancelled()) {
+			return cancelled();
+		}
+		if (call.deadline != null && call.deadline.isExpired()) {
+			return call.deadline.exceeded();
+		}
+
+		return exception;
 	}
 
 	// Reads an InputStream and converts it to a String.
-	private String readIt(InputStream stream) throws IOException {
+	static String readIt(InputStream stream) throws IOException {
 		Reader reader = new InputStreamReader(stream, "UTF-8");
+		StringBuilder builder = new StringBuilder(10240);
 		char[] buffer = new char[10240];
-		int bytesRead = reader.read(buffer);
+		int charsRead;
+		while ((charsRead = reader.read(buffer)) != -1) {
+			builder.append(buffer, 0, charsRead);
+		}
 
-		return new String(buffer, 0, bytesRead);
+		return builder.toString();
 	}
 
-	private String convertHTTPMethodToString(HTTPMethod method) {
-		switch (method) {
-			case POST:
-				return "POST";
-			case GET:
-				return "GET";
+	// Reads an InputStream to the end.
+	static byte[] readBytes(InputStream stream) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(10240);
+		byte[] buffer = new byte[10240];
+		int bytesRead;
+		while ((bytesRead = stream.read(buffer)) != -1) {
+			output.write(buffer, 0, bytesRead);
 		}
 
-		return "";
+		return output.toByteArray();
 	}
 
-	private synchronized String MD5(String string) {
+	// Parses the response while reading it and passes the "users" or "channels" entries to the handler one at a time.
+	static void streamResponse(InputStream stream, ItemStreamHandler handler) throws IOException, JSONException {
+		JsonPullParser parser = new JsonPullParser(new InputStreamReader(stream, "UTF-8"));
+		JSONObject result = new JSONObject();
+
+		parser.beginObject();
+		while (parser.hasNext()) {
+			String name = parser.nextName();
+			if ((name.equals("users") || name.equals("channels")) && parser.peek() == JsonPullParser.Token.BEGIN_ARRAY) {
+				parser.beginArray();
+				while (parser.hasNext()) {
+					Object item = parser.nextValue();
+					if (!(item instanceof JSONObject)) {
+						throw new JSONException("Unexpected " + name + " entry: " + item);
+					}
+					if (!handler.onItem(name, (JSONObject) item)) {
+						handler.onResult(false, result, null);
+						return;
+					}
+				}
+				parser.endArray();
+			} else {
+				result.put(name, parser.nextValue());
+			}
+		}
+		parser.endObject();
+
+		String code = result.optString("code", null);
+		handler.onResult(code != null && code.equals("200"), result, null);
+	}
+
+	static String MD5(String string) {
 		try {
 			MessageDigest m = MessageDigest.getInstance("MD5");
 			m.reset();
@@ -490,7 +1958,7 @@ public class ZelloAPI {
 		return null;
 	}
 
-	private String urlEncode(String string) {
+	static String urlEncode(String string) {
 		try {
 			return URLEncoder.encode(string, "UTF-8");
 		} catch (UnsupportedEncodingException e) {
@@ -498,34 +1966,4 @@ public class ZelloAPI {
 		}
 	}
 
-	private String implode(String string, String glue, ArrayList<String> pieces) {
-		for (int i = 0; i < pieces.size(); i++) {
-			string += urlEncode(pieces.get(i));
-
-			if (i < pieces.size() - 1) {
-				string += glue;
-			}
-		}
-
-		return string;
-	}
-
-	private String createURLStringFromMap(Map<String, String> map) {
-		String string = "";
-
-		Object[] keys = map.keySet().toArray();
-		for (int i = 0; i < keys.length; i++) {
-			String key = (String) keys[i];
-			String value = map.get(key);
-
-			if (i == 0) {
-				string += key + "=" + urlEncode(value);
-			} else {
-				string += "&" + key + "=" + urlEncode(value);
-			}
-		}
-
-		return string;
-	}
-
 }
@@ -0,0 +1,33 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zello.apitest;
+
+import org.json.JSONObject;
+
+/**
+ Unchecked exception thrown by blocking ZelloAPI helpers (such as PagedIterator) when an API call fails.
+ If the server returned an error, getResponse() returns the response with its "code" and "status".
+ If the call failed on the client, getCause() returns the client error.
+ */
+public class ZelloAPIException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/// Not serialized: JSONObject is not Serializable.
+	private final transient JSONObject response;
+
+	public ZelloAPIException(String message, JSONObject response, Throwable cause) {
+		super(message, cause);
+		this.response = response;
+	}
+
+	/**
+	 Returns the API response describing the error, or null if no response was received.
+	 */
+	public JSONObject getResponse() {
+		return response;
+	}
+
+}
@@ -0,0 +1,249 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ Future result of an API call.
+
+ Every ZelloAPI operation has a variant without the completion handler that returns an ApiFuture.
+ The future can be waited for with a timeout, observed with addCompletionHandler(), chained with
+ thenCompose() and joined with allOf(), so independent calls can be started concurrently instead of nesting handlers.
+
+ A failed call does not throw from get(): the returned ApiResponse carries the success flag,
+ the server response and the client error, exactly as they are passed to ResultCompletionHandler.
+ Only a cancelled future throws, a CancellationException, as Future requires.
+ */
+public class ApiFuture implements Future<ApiResponse>, ResultCompletionHandler {
+
+	/**
+	 Starts the next API call once the previous one has completed.
+	 */
+	public interface Continuation {
+		/**
+		 - parameter previous: result of the previous call.
+		 - returns:            future of the next call.
+		 */
+		ApiFuture then(ApiResponse previous);
+	}
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final List<ResultCompletionHandler> handlers = new ArrayList<ResultCompletionHandler>();
+	private ApiResponse result;
+	private boolean cancelled;
+	/// Handle of the call completing this future, or null.
+	private ApiRequest request;
+
+	/**
+	 Completes the future. Only the first result is kept.
+	 */
+	@Override
+	public void onResult(boolean success, JSONObject response, Exception exception) {
+		complete(new ApiResponse(success, response, exception), false);
+	}
+
+	/**
+	 Completes the future with a CancellationException if it is not completed yet, and cancels the
+	 API call, stopping its request whether it is queued or in flight. See ApiRequest.cancel()
+	 The completion handlers are called with success set to false.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = complete(new ApiResponse(false, null, new CancellationException("API call cancelled")), true);
+
+		ApiRequest call;
+		synchronized (this) {
+			call = request;
+		}
+		if (cancelled && call != null) {
+			call.cancel();
+		}
+
+		return cancelled;
+	}
+
+	/**
+	 Sets the handle of the call completing this future, so that cancel() stops the call.
+	 Cancels the call right away if the future has been cancelled already.
+	 */
+	void setRequest(ApiRequest request) {
+		boolean cancel;
+		synchronized (this) {
+			this.request = request;
+			cancel = cancelled;
+		}
+		if (cancel) {
+			request.cancel();
+		}
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 Waits for the call to complete.
+
+	 - throws: CancellationException if the future was cancelled.
+	 */
+	@Override
+	public ApiResponse get() throws InterruptedException {
+		done.await();
+
+		return getCompletedResult();
+	}
+
+	/**
+	 Waits at most the given time for the call to complete.
+
+	 - throws: CancellationException if the future was cancelled.
+	 */
+	@Override
+	public ApiResponse get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("API call did not complete in " + unit.toMillis(timeout) + " ms");
+		}
+
+		return getCompletedResult();
+	}
+
+	/**
+	 Calls the handler when the call completes, or immediately if it has already completed.
+	 The handler runs on the thread that completed the call.
+	 */
+	public ApiFuture addCompletionHandler(ResultCompletionHandler completionHandler) {
+		ApiResponse completed;
+		synchronized (this) {
+			completed = result;
+			if (completed == null) {
+				handlers.add(completionHandler);
+				return this;
+			}
+		}
+		completionHandler.onResult(completed.isSuccess(), completed.getResponse(), completed.getException());
+
+		return this;
+	}
+
+	/**
+	 Returns a future of the call started by the continuation once this call completes.
+	 The continuation is called whether this call succeeded or not.
+	 Cancelling the returned future cancels the call started by the continuation, or keeps it from being started.
+	 */
+	public ApiFuture thenCompose(final Continuation continuation) {
+		final ApiFuture next = new ApiFuture();
+		addCompletionHandler(new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				if (next.isDone()) {
+					return;
+				}
+				try {
+					final ApiFuture inner = continuation.then(new ApiResponse(success, response, exception));
+					ApiRequest request = new ApiRequest();
+					request.setCancelAction(new Runnable() {
+						@Override
+						public void run() {
+							inner.cancel(true);
+						}
+					});
+					next.setRequest(request);
+					inner.addCompletionHandler(next);
+				} catch (RuntimeException e) {
+					next.onResult(false, null, e);
+				}
+			}
+		});
+
+		return next;
+	}
+
+	/**
+	 Returns a future that completes when all the given futures complete.
+	 It succeeds only if all the calls succeed; otherwise its exception is the first client error, if any.
+	 Read the individual results from the given futures.
+	 */
+	public static ApiFuture allOf(final ApiFuture... futures) {
+		final ApiFuture all = new ApiFuture();
+		if (futures.length == 0) {
+			all.onResult(true, null, null);
+			return all;
+		}
+
+		final AtomicInteger remaining = new AtomicInteger(futures.length);
+		for (ApiFuture future : futures) {
+			future.addCompletionHandler(new ResultCompletionHandler() {
+				@Override
+				public void onResult(boolean success, JSONObject response, Exception exception) {
+					if (remaining.decrementAndGet() > 0) {
+						return;
+					}
+
+					boolean allSucceeded = true;
+					Exception firstException = null;
+					for (ApiFuture completed : futures) {
+						ApiResponse result = completed.getResult();
+						allSucceeded &= result.isSuccess();
+						if (firstException == null) {
+							firstException = result.getException();
+						}
+					}
+					all.onResult(allSucceeded, null, firstException);
+				}
+			});
+		}
+
+		return all;
+	}
+
+	private synchronized ApiResponse getResult() {
+		return result;
+	}
+
+	private synchronized ApiResponse getCompletedResult() {
+		if (cancelled) {
+			throw new CancellationException("API call cancelled");
+		}
+
+		return result;
+	}
+
+	private boolean complete(ApiResponse response, boolean cancel) {
+		List<ResultCompletionHandler> toNotify;
+		synchronized (this) {
+			if (result != null) {
+				return false;
+			}
+			result = response;
+			cancelled = cancel;
+			toNotify = new ArrayList<ResultCompletionHandler>(handlers);
+			handlers.clear();
+		}
+		done.countDown();
+
+		for (ResultCompletionHandler handler : toNotify) {
+			handler.onResult(response.isSuccess(), response.getResponse(), response.getException());
+		}
+
+		return true;
+	}
+
+}
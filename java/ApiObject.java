@@ -0,0 +1,233 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ A JSON object of an API response, read from the response text when its fields are accessed.
+
+ Nothing is decoded up front: every getter finds its field in the text and decodes only its value,
+ so reading one attribute of every user in a large listing allocates little more than the values read.
+ Getters decode again on every call; keep the value if it is needed repeatedly.
+ Unknown fields can be read with getString(), getBoolean(), getLong() and opt().
+
+ Getters throw an IllegalStateException if the response is malformed where the field is looked up.
+ */
+public class ApiObject {
+
+	final char[] json;
+	final int start;
+	final int end;
+
+	ApiObject(char[] json, int start, int end) {
+		this.json = json;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 Returns true if the object has the field, even if its value is null.
+	 */
+	public boolean has(String name) {
+		return valueOf(name) != -1;
+	}
+
+	/**
+	 Returns the value of the field as a string: strings as they are, numbers and booleans as their JSON text.
+
+	 - returns: the value, or null if the object has no such field or its value is null.
+	 */
+	public String getString(String name) {
+		int value = valueOf(name);
+		if (value == -1) {
+			return null;
+		}
+
+		try {
+			return text(parser(value));
+		} catch (IOException e) {
+			throw malformed(name, e);
+		} catch (JSONException e) {
+			throw malformed(name, e);
+		}
+	}
+
+	/**
+	 Returns true if the value of the field is true, "true" or 1.
+	 */
+	public boolean getBoolean(String name) {
+		String value = getString(name);
+
+		return "true".equals(value) || "1".equals(value);
+	}
+
+	/**
+	 Returns the value of the field as a number. Numbers sent as strings are parsed as well.
+
+	 - returns: the value, or defaultValue if the object has no such field or it is not an integer.
+	 */
+	public long getLong(String name, long defaultValue) {
+		String value = getString(name);
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 Returns the value of the field as a list of strings, e.g. the channels of a user.
+
+	 - returns: the strings, or an empty list if the object has no such field or its value is not an array.
+	 */
+	public List<String> getStringList(String name) {
+		int value = valueOf(name);
+		if (value == -1 || json[value] != '[') {
+			return Collections.emptyList();
+		}
+
+		try {
+			JsonPullParser parser = parser(value);
+			List<String> strings = new ArrayList<String>();
+			parser.beginArray();
+			while (parser.hasNext()) {
+				String string = text(parser);
+				strings.add(string != null ? string : "null");
+			}
+
+			return strings;
+		} catch (IOException e) {
+			throw malformed(name, e);
+		} catch (JSONException e) {
+			throw malformed(name, e);
+		}
+	}
+
+	/**
+	 Returns the value of the field as an object, e.g. the settings of a channel role.
+
+	 - returns: the object, or null if the object has no such field or its value is not an object.
+	 */
+	public ApiObject getObject(String name) {
+		int value = valueOf(name);
+		if (value == -1 || json[value] != '{') {
+			return null;
+		}
+
+		try {
+			JsonPullParser parser = parser(value);
+			parser.skipValue();
+
+			return new ApiObject(json, value, parser.getPosition());
+		} catch (IOException e) {
+			throw malformed(name, e);
+		} catch (JSONException e) {
+			throw malformed(name, e);
+		}
+	}
+
+	/**
+	 Returns the value of the field decoded as by org.json: a String, Boolean, Integer, Long, Double,
+	 JSONObject, JSONArray or JSONObject.NULL.
+
+	 - returns: the value, or null if the object has no such field.
+	 */
+	public Object opt(String name) {
+		int value = valueOf(name);
+		if (value == -1) {
+			return null;
+		}
+
+		try {
+			return parser(value).nextValue();
+		} catch (IOException e) {
+			throw malformed(name, e);
+		} catch (JSONException e) {
+			throw malformed(name, e);
+		}
+	}
+
+	/**
+	 Decodes the whole object.
+	 */
+	public JSONObject toJSONObject() {
+		try {
+			return (JSONObject) parser(start).nextValue();
+		} catch (IOException e) {
+			throw malformed(null, e);
+		} catch (JSONException e) {
+			throw malformed(null, e);
+		}
+	}
+
+	/**
+	 Returns the JSON text of the object, as received.
+	 */
+	@Override
+	public String toString() {
+		return new String(json, start, end - start);
+	}
+
+	/**
+	 Returns the position of the value of the field, or -1 if the object has no such field.
+	 */
+	int valueOf(String name) {
+		try {
+			JsonPullParser parser = parser(start);
+			parser.beginObject();
+			while (parser.hasNext()) {
+				if (parser.nextNameEquals(name)) {
+					return parser.getTokenStart();
+				}
+				parser.skipValue();
+			}
+		} catch (IOException e) {
+			throw malformed(name, e);
+		} catch (JSONException e) {
+			throw malformed(name, e);
+		}
+
+		return -1;
+	}
+
+	/**
+	 Returns a parser reading from the value at the given position to the end of this object.
+	 */
+	JsonPullParser parser(int position) {
+		return new JsonPullParser(json, position, end);
+	}
+
+	// Reads the next value as a string: strings as they are, null as null, other values as their JSON text.
+	private String text(JsonPullParser parser) throws IOException, JSONException {
+		switch (parser.peek()) {
+			case NULL:
+				parser.skipValue();
+				return null;
+			case BEGIN_OBJECT:
+			case BEGIN_ARRAY:
+				int valueStart = parser.getTokenStart();
+				parser.skipValue();
+				return new String(json, valueStart, parser.getPosition() - valueStart);
+			default:
+				return parser.nextString();
+		}
+	}
+
+	static IllegalStateException malformed(String name, Exception e) {
+		return new IllegalStateException(name != null ? "Malformed response reading \"" + name + "\"" : "Malformed response", e);
+	}
+
+}
@@ -0,0 +1,45 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+
+/**
+ Result of an API call: the values otherwise passed to ResultCompletionHandler.onResult().
+ */
+public class ApiResponse {
+
+	private final boolean success;
+	private final JSONObject response;
+	private final Exception exception;
+
+	public ApiResponse(boolean success, JSONObject response, Exception exception) {
+		this.success = success;
+		this.response = response;
+		this.exception = exception;
+	}
+
+	/**
+	 Returns true if the server returned code "200".
+	 */
+	public boolean isSuccess() {
+		return success;
+	}
+
+	/**
+	 Returns the response returned by the server, or null if the call failed on the client.
+	 */
+	public JSONObject getResponse() {
+		return response;
+	}
+
+	/**
+	 Returns the client error. This is not the error returned by the API, which can be retrieved from the response.
+	 */
+	public Exception getException() {
+		return exception;
+	}
+
+}
@@ -0,0 +1,303 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+
+/**
+ Bulk import of users and channel memberships.
+
+ Users are saved with ZelloAPI.saveUser(), running up to the configured number of calls concurrently.
+ Channel memberships are then grouped: users that are added to the same set of channels are sent
+ together in user/addtochannels calls of up to batchSize users each, instead of one call per user and channel.
+ Memberships of users that failed to save are skipped. Users of channelsByUser that are not among the
+ users to save, e.g. users that already exist, are added to their channels as well.
+
+ run() blocks until all calls have completed, so do not call it on the main thread.
+ cancel() stops a run from another thread: no further calls are made and the calls in flight are cancelled.
+ A cancelled provisioner stays cancelled, so a cancel() issued just before run() is not lost.
+
+ Example:
+
+	BulkProvisioner provisioner = new BulkProvisioner(api);
+	provisioner.setConcurrency(8);
+	BulkProvisioner.Report report = provisioner.run(users.iterator(), channelsByUser);
+ */
+public class BulkProvisioner {
+
+	/// Default number of concurrent API calls.
+	public static final int DEFAULT_CONCURRENCY = 4;
+	/// Default maximum number of users in one user/addtochannels call.
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/**
+	 Receives the result of every call made by the provisioner.
+	 Methods are called on the threads completing the API calls.
+	 */
+	public interface Listener {
+		void onUserSaved(Map<String, String> user, ApiResponse result);
+
+		void onMembershipsSaved(List<String> channelNames, List<String> users, ApiResponse result);
+	}
+
+	/**
+	 Summary of a bulk import.
+	 */
+	public static class Report {
+
+		public int usersSaved;
+		public int usersFailed;
+		public int membershipCalls;
+		public int membershipCallsFailed;
+		/// True if the run was stopped by cancel(). Users not read from the iterator yet are not counted.
+		public boolean cancelled;
+		/// Usernames whose channel memberships were skipped because the user could not be saved.
+		public final List<String> skippedUsers = new ArrayList<String>();
+		/// Usernames that could not be saved or added to their channels.
+		public final Set<String> failedUsers = new TreeSet<String>();
+
+		public boolean isSuccess() {
+			return usersFailed == 0 && membershipCallsFailed == 0 && !cancelled;
+		}
+
+		@Override
+		public String toString() {
+			return "saved=" + usersSaved + ", failed=" + usersFailed + ", membershipCalls=" + membershipCalls
+					+ ", membershipCallsFailed=" + membershipCallsFailed + ", skipped=" + skippedUsers.size()
+					+ (cancelled ? ", cancelled" : "");
+		}
+	}
+
+	private final ZelloAPI api;
+	private int concurrency = DEFAULT_CONCURRENCY;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private Listener listener;
+
+	/// Set once by cancel(); never cleared, so that a cancel() racing with the start of run() is not lost.
+	private volatile boolean cancelled;
+	/// Calls of the current run, cancelled by cancel(). Completed calls are pruned as new ones are added.
+	private final List<ApiRequest> calls = new ArrayList<ApiRequest>();
+
+	public BulkProvisioner(ZelloAPI api) {
+		this.api = api;
+	}
+
+	/**
+	 - parameter concurrency: maximum number of API calls running at the same time.
+	 */
+	public void setConcurrency(int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be positive");
+		}
+
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 - parameter batchSize: maximum number of users in one user/addtochannels call.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive");
+		}
+
+		this.batchSize = batchSize;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 Stops the run in progress, or the next run if none is in progress. Calls in flight complete as failed
+	 with a CancellationException, and run() returns once they have, with Report.cancelled set.
+	 */
+	public void cancel() {
+		cancelled = true;
+
+		List<ApiRequest> running;
+		synchronized (calls) {
+			running = new ArrayList<ApiRequest>(calls);
+			calls.clear();
+		}
+		for (ApiRequest request : running) {
+			request.cancel();
+		}
+	}
+
+	/**
+	 Saves the users, then adds them to their channels.
+
+	 - parameter users:          user attribute maps as accepted by ZelloAPI.saveUser(). Read lazily, one at a time.
+	 - parameter channelsByUser: channel names to add each user to, keyed by username, including users that are
+	                             not saved by this run. May be null.
+	 - returns:                  summary of the import. If the provisioner has been cancelled, no calls are made.
+	 */
+	public Report run(Iterator<Map<String, String>> users, Map<String, ? extends Collection<String>> channelsByUser) throws InterruptedException {
+		final Report report = new Report();
+		final Set<String> failedUsers = Collections.synchronizedSet(new HashSet<String>());
+		final int limit = concurrency;
+		final Semaphore permits = new Semaphore(limit);
+
+		while (!cancelled && users.hasNext()) {
+			final Map<String, String> user = users.next();
+			permits.acquire();
+			if (cancelled) {
+				permits.release();
+				break;
+			}
+			track(api.saveUser(user, new ResultCompletionHandler() {
+				@Override
+				public void onResult(boolean success, JSONObject response, Exception exception) {
+					try {
+						// A map without a name can't be saved and has no username to report.
+						String username = user.get("name");
+						synchronized (report) {
+							if (success) {
+								report.usersSaved++;
+							} else {
+								report.usersFailed++;
+								if (username != null) {
+									report.failedUsers.add(username);
+								}
+							}
+						}
+						if (!success && username != null) {
+							failedUsers.add(username);
+						}
+						notifyUserSaved(user, new ApiResponse(success, response, exception));
+					} finally {
+						permits.release();
+					}
+				}
+			}), limit);
+		}
+		permits.acquire(limit);
+		permits.release(limit);
+
+		if (channelsByUser != null && !cancelled) {
+			saveMemberships(groupByChannels(channelsByUser, failedUsers, report), report, permits, limit);
+		}
+
+		synchronized (calls) {
+			calls.clear();
+		}
+		report.cancelled = cancelled;
+
+		return report;
+	}
+
+	// Keeps the call so that cancel() can stop it.
+	private void track(ApiRequest request, int limit) {
+		synchronized (calls) {
+			if (calls.size() >= 2 * limit) {
+				Iterator<ApiRequest> iterator = calls.iterator();
+				while (iterator.hasNext()) {
+					if (iterator.next().isDone()) {
+						iterator.remove();
+					}
+				}
+			}
+			calls.add(request);
+		}
+		if (cancelled) {
+			// cancel() may have run before the call was added
+			request.cancel();
+		}
+	}
+
+	// Groups the users by identical channel sets, so each set is sent once for many users.
+	private Map<Set<String>, List<String>> groupByChannels(Map<String, ? extends Collection<String>> channelsByUser, Set<String> failedUsers, Report report) {
+		Map<Set<String>, List<String>> groups = new LinkedHashMap<Set<String>, List<String>>();
+		for (Map.Entry<String, ? extends Collection<String>> entry : channelsByUser.entrySet()) {
+			String username = entry.getKey();
+			if (entry.getValue() == null || entry.getValue().isEmpty()) {
+				continue;
+			}
+			if (failedUsers.contains(username)) {
+				report.skippedUsers.add(username);
+				continue;
+			}
+
+			Set<String> channels = new TreeSet<String>(entry.getValue());
+			List<String> group = groups.get(channels);
+			if (group == null) {
+				group = new ArrayList<String>();
+				groups.put(channels, group);
+			}
+			group.add(username);
+		}
+
+		return groups;
+	}
+
+	private void saveMemberships(Map<Set<String>, List<String>> groups, final Report report, final Semaphore permits, int limit) throws InterruptedException {
+		for (Map.Entry<Set<String>, List<String>> group : groups.entrySet()) {
+			final ArrayList<String> channelNames = new ArrayList<String>(group.getKey());
+			List<String> members = group.getValue();
+
+			for (int from = 0; from < members.size(); from += batchSize) {
+				final ArrayList<String> batch = new ArrayList<String>(members.subList(from, Math.min(members.size(), from + batchSize)));
+				permits.acquire();
+				if (cancelled) {
+					permits.release();
+					break;
+				}
+				ResultCompletionHandler handler = new ResultCompletionHandler() {
+					@Override
+					public void onResult(boolean success, JSONObject response, Exception exception) {
+						synchronized (report) {
+							report.membershipCalls++;
+							if (!success) {
+								report.membershipCallsFailed++;
+								report.failedUsers.addAll(batch);
+							}
+						}
+						try {
+							notifyMembershipsSaved(channelNames, batch, new ApiResponse(success, response, exception));
+						} finally {
+							permits.release();
+						}
+					}
+				};
+
+				if (channelNames.size() == 1) {
+					track(api.addToChannel(channelNames.get(0), batch, handler), limit);
+				} else {
+					track(api.addToChannels(channelNames, batch, handler), limit);
+				}
+			}
+		}
+		permits.acquire(limit);
+		permits.release(limit);
+	}
+
+	private void notifyUserSaved(Map<String, String> user, ApiResponse result) {
+		Listener l = listener;
+		if (l != null) {
+			l.onUserSaved(user, result);
+		}
+	}
+
+	private void notifyMembershipsSaved(List<String> channelNames, List<String> users, ApiResponse result) {
+		Listener l = listener;
+		if (l != null) {
+			l.onMembershipsSaved(channelNames, users, result);
+		}
+	}
+
+}
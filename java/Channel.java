@@ -0,0 +1,34 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+/**
+ A channel of a channel/get response. Attributes are decoded when read, see ApiObject.
+ */
+public class Channel extends ApiObject {
+
+	Channel(char[] json, int start, int end) {
+		super(json, start, end);
+	}
+
+	public String getName() {
+		return getString("name");
+	}
+
+	/**
+	 Returns the number of members of the channel, or -1 if the response does not include it.
+	 */
+	public long getCount() {
+		return getLong("count", -1);
+	}
+
+	/**
+	 Returns true if the channel is a group channel, false if it is a dynamic one. See ZelloAPI.addChannel()
+	 */
+	public boolean isShared() {
+		return getBoolean("is_shared");
+	}
+
+}
@@ -0,0 +1,29 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+/**
+ Passed to the completion handler of a call that was not sent because the circuit breaker is open.
+ See CircuitBreaker
+ */
+public class CircuitBreakerOpenException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long retryAfterMillis;
+
+	public CircuitBreakerOpenException(String message, long retryAfterMillis) {
+		super(message);
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 Returns the time in milliseconds until the circuit breaker lets a probe request through.
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+
+}
@@ -0,0 +1,330 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Keep-alive connection management for ZelloAPI requests.
+
+ The sockets themselves are kept by the keep-alive cache of HttpURLConnection, which the pool
+ does not control: the platform closes idle sockets, and keeps at most "http.maxConnections"
+ idle sockets per host (5 by default on the JVM). A socket only goes back to that cache if the
+ response body and the error stream were read to the end and closed. The pool:
+
+ - drains and closes the responses it releases, so their sockets can be reused;
+ - optionally limits the number of concurrent connections per host, e.g. to the keep-alive
+   cache size so that every connection can be returned to it. Unlimited by default;
+ - keeps usage statistics per host. The statistics of hosts not used for longer than the
+   idle timeout are dropped.
+
+ To keep more idle sockets per host, set the "http.maxConnections" system property before the
+ first HTTP connection of the process is made; it is read only once.
+
+ See ZelloAPI.setConnectionPool()
+ */
+public class ConnectionPool {
+
+	/// Default limit of concurrent connections per host: none, requests are only limited by the executor.
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 0;
+	/// Default time in milliseconds after which the statistics of an unused host are dropped.
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+
+	/// Maximum number of bytes read from a response that is released before it was fully consumed.
+	private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+	private static ConnectionPool defaultPool;
+
+	private final int maxConnectionsPerHost;
+	private final long idleTimeoutMillis;
+	private final Map<String, HostEntry> hosts = new HashMap<String, HostEntry>();
+	/// Host entries of open connections. The connection URL may change on redirects, so it is not used as a key.
+	private final Map<HttpURLConnection, HostEntry> leases = new IdentityHashMap<HttpURLConnection, HostEntry>();
+
+	private long totalRequests;
+	private long waitCount;
+	private long totalWaitNanos;
+	private long discardedConnections;
+
+	/**
+	 Returns the pool shared by all ZelloAPI instances that were not given their own pool.
+	 */
+	public static synchronized ConnectionPool getDefault() {
+		if (defaultPool == null) {
+			defaultPool = new ConnectionPool();
+		}
+
+		return defaultPool;
+	}
+
+	public ConnectionPool() {
+		this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 - parameter maxConnectionsPerHost: maximum number of concurrent connections to one host, or 0 for no limit.
+	                                    Requests over the limit wait for a connection to be released.
+	 - parameter idleTimeoutMillis:     time after which the statistics of an unused host are dropped.
+	 */
+	public ConnectionPool(int maxConnectionsPerHost, long idleTimeoutMillis) {
+		if (maxConnectionsPerHost < 0) {
+			throw new IllegalArgumentException("maxConnectionsPerHost must not be negative");
+		}
+
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 Opens a connection to the URL, waiting until the number of connections to its host is below the limit, if any.
+	 Every connection returned by this method must be passed to release().
+	 */
+	public HttpURLConnection open(URL url) throws IOException {
+		return open(url, null);
+	}
+
+	/**
+	 Same as open(), but waits for a free connection no longer than until the deadline.
+
+	 - parameter deadline: deadline of the request, or null to wait as long as needed.
+	 */
+	HttpURLConnection open(URL url, Deadline deadline) throws IOException {
+		HostEntry entry = acquireEntry(hostKey(url));
+
+		long waitStart = System.nanoTime();
+		boolean waited = entry.permits != null && !entry.permits.tryAcquire();
+		if (waited) {
+			try {
+				if (deadline == null) {
+					entry.permits.acquire();
+				} else if (!entry.permits.tryAcquire(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS)) {
+					releaseEntry(entry, false);
+					throw new SocketTimeoutException("Deadline exceeded while waiting for a connection to " + url.getHost());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				releaseEntry(entry, false);
+				throw new IOException("Interrupted while waiting for a connection to " + url.getHost());
+			}
+		}
+
+		synchronized (this) {
+			entry.connections++;
+			entry.peakConnections = Math.max(entry.peakConnections, entry.connections);
+			totalRequests++;
+			if (waited) {
+				waitCount++;
+				totalWaitNanos += System.nanoTime() - waitStart;
+			}
+		}
+
+		try {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			synchronized (this) {
+				leases.put(connection, entry);
+			}
+
+			return connection;
+		} catch (IOException e) {
+			releaseConnection(entry, false);
+			throw e;
+		}
+	}
+
+	/**
+	 Releases a connection opened by open().
+	 The response body and the error stream are drained and closed so the socket can be reused.
+	 If the body cannot be drained, the connection is closed.
+
+	 - parameter connection: connection to release.
+	 - parameter body:       response stream obtained from the connection, or null.
+	 */
+	public void release(HttpURLConnection connection, InputStream body) {
+		boolean reusable = drain(body);
+		if (reusable) {
+			reusable = drain(connection.getErrorStream());
+		}
+		if (!reusable) {
+			connection.disconnect();
+		}
+
+		HostEntry entry;
+		synchronized (this) {
+			entry = leases.remove(connection);
+			if (!reusable) {
+				discardedConnections++;
+			}
+		}
+		if (entry != null) {
+			releaseConnection(entry, true);
+		}
+	}
+
+	/**
+	 Drops the statistics of hosts that have no active connections and have not been used for longer than the
+	 idle timeout. Idle sockets are not affected; they are closed by the keep-alive cache of the platform.
+	 Called automatically when connections are opened; may also be called periodically.
+	 */
+	public synchronized void evictIdle() {
+		long now = System.currentTimeMillis();
+		Iterator<HostEntry> iterator = hosts.values().iterator();
+		while (iterator.hasNext()) {
+			HostEntry entry = iterator.next();
+			if (entry.active == 0 && now - entry.lastUsed > idleTimeoutMillis) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 Returns a snapshot of the pool statistics.
+	 */
+	public synchronized Stats getStats() {
+		int active = 0;
+		int peak = 0;
+		for (HostEntry entry : hosts.values()) {
+			active += entry.active;
+			peak = Math.max(peak, entry.peakConnections);
+		}
+
+		return new Stats(hosts.size(), active, peak, totalRequests, waitCount, totalWaitNanos / 1000000, discardedConnections);
+	}
+
+	private synchronized HostEntry acquireEntry(String key) {
+		evictIdle();
+
+		HostEntry entry = hosts.get(key);
+		if (entry == null) {
+			entry = new HostEntry(maxConnectionsPerHost > 0 ? new Semaphore(maxConnectionsPerHost, true) : null);
+			hosts.put(key, entry);
+		}
+		entry.active++;
+
+		return entry;
+	}
+
+	private void releaseConnection(HostEntry entry, boolean used) {
+		synchronized (this) {
+			entry.connections--;
+		}
+		if (entry.permits != null) {
+			entry.permits.release();
+		}
+		releaseEntry(entry, used);
+	}
+
+	private synchronized void releaseEntry(HostEntry entry, boolean used) {
+		entry.active--;
+		if (used) {
+			entry.lastUsed = System.currentTimeMillis();
+		}
+	}
+
+	private static boolean drain(InputStream stream) {
+		if (stream == null) {
+			return true;
+		}
+
+		boolean drained = false;
+		try {
+			byte[] buffer = new byte[4096];
+			int total = 0;
+			int read;
+			while (total <= MAX_DRAIN_BYTES && (read = stream.read(buffer)) != -1) {
+				total += read;
+			}
+			drained = total <= MAX_DRAIN_BYTES;
+		} catch (IOException e) {
+			// The connection is broken and will not be reused
+		} finally {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				// Empty
+			}
+		}
+
+		return drained;
+	}
+
+	private static String hostKey(URL url) {
+		int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+
+		return url.getProtocol() + "://" + url.getHost() + ":" + port;
+	}
+
+	private static class HostEntry {
+
+		/// Limits the connections to the host, or null if they are not limited.
+		final Semaphore permits;
+		/// Connections open or waiting for a free slot.
+		int active;
+		/// Connections open.
+		int connections;
+		int peakConnections;
+		long lastUsed = System.currentTimeMillis();
+
+		HostEntry(Semaphore permits) {
+			this.permits = permits;
+		}
+	}
+
+	/**
+	 Connection pool statistics.
+	 */
+	public static class Stats {
+
+		/// Number of hosts currently tracked by the pool.
+		public final int hosts;
+		/// Number of connections currently open or waiting for a free slot.
+		public final int activeConnections;
+		/// Highest number of concurrent connections to a single host.
+		public final int peakConnectionsPerHost;
+		/// Total number of connections opened through the pool.
+		public final long totalRequests;
+		/// Number of requests that had to wait for a free connection.
+		public final long waitCount;
+		/// Total time in milliseconds spent waiting for a free connection.
+		public final long totalWaitMillis;
+		/// Number of connections closed instead of being returned to the keep-alive cache.
+		public final long discardedConnections;
+
+		Stats(int hosts, int activeConnections, int peakConnectionsPerHost, long totalRequests, long waitCount, long totalWaitMillis, long discardedConnections) {
+			this.hosts = hosts;
+			this.activeConnections = activeConnections;
+			this.peakConnectionsPerHost = peakConnectionsPerHost;
+			this.totalRequests = totalRequests;
+			this.waitCount = waitCount;
+			this.totalWaitMillis = totalWaitMillis;
+			this.discardedConnections = discardedConnections;
+		}
+
+		@Override
+		public String toString() {
+			return "hosts=" + hosts + ", active=" + activeConnections + ", peakPerHost=" + peakConnectionsPerHost
+					+ ", requests=" + totalRequests + ", waits=" + waitCount + ", waitMillis=" + totalWaitMillis
+					+ ", discarded=" + discardedConnections;
+		}
+	}
+
+}
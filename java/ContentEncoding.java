@@ -0,0 +1,107 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ Compression of request and response bodies, shared by the transports.
+
+ Responses are requested with Accept-Encoding: gzip, deflate and decompressed while they are read,
+ so the response reader and JsonCodec see the same bytes as for an uncompressed response.
+ */
+final class ContentEncoding {
+
+	/// Value of the Accept-Encoding header of every request.
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+	static final String GZIP = "gzip";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private ContentEncoding() {
+	}
+
+	/**
+	 Returns the stream decompressing the response body.
+
+	 - parameter stream:          the body as received.
+	 - parameter contentEncoding: value of the Content-Encoding header, or null.
+	 - returns:                   the decompressed body, or the stream itself if it is not compressed.
+	                              Close a decompressing stream once done, to free its Inflater.
+	 */
+	static InputStream decode(InputStream stream, String contentEncoding) throws IOException {
+		if (contentEncoding == null) {
+			return stream;
+		}
+
+		String encoding = contentEncoding.trim().toLowerCase(Locale.US);
+		if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+			return new GZIPInputStream(stream, BUFFER_SIZE);
+		}
+		if (encoding.equals("deflate")) {
+			return inflating(stream);
+		}
+		if (encoding.length() == 0 || encoding.equals("identity")) {
+			return stream;
+		}
+
+		throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+	}
+
+	/**
+	 Compresses the bytes with gzip.
+	 */
+	static byte[] gzip(byte[] bytes) {
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 4 + 64);
+			GZIPOutputStream gzip = new GZIPOutputStream(output, BUFFER_SIZE);
+			gzip.write(bytes);
+			gzip.close();
+
+			return output.toByteArray();
+		} catch (IOException e) {
+			// Not thrown by a ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// "deflate" is meant to be zlib-wrapped, but some servers send raw deflate data, so the header is checked first.
+	private static InputStream inflating(InputStream stream) throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(stream, 2);
+		int first = pushback.read();
+		int second = first != -1 ? pushback.read() : -1;
+		if (second != -1) {
+			pushback.unread(second);
+		}
+		if (first == -1) {
+			// An empty body, e.g. of a 204 response, has nothing to inflate
+			return pushback;
+		}
+		pushback.unread(first);
+
+		boolean zlib = second != -1 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+
+		return new InflaterInputStream(pushback, new Inflater(!zlib), BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				// InflaterInputStream only ends the Inflater it creates itself
+				try {
+					super.close();
+				} finally {
+					inf.end();
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,79 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ Point in time by which an operation must complete, including all the requests it is made of.
+
+ Requests sent on behalf of the operation use connect and read timeouts no longer than the time
+ remaining, and a request still in flight when the deadline passes is disconnected.
+ The operation then fails with a TimeoutException. Expired operations are not retried.
+
+ See ZelloAPI.authenticate(), ZelloAPI.streamUsers(), ZelloAPI.streamChannels()
+ */
+public final class Deadline {
+
+	private final long expiresAtNanos;
+
+	private Deadline(long expiresAtNanos) {
+		this.expiresAtNanos = expiresAtNanos;
+	}
+
+	/**
+	 Returns a deadline the given time from now.
+
+	 - parameter timeoutMillis: time in milliseconds the operation may take.
+	 */
+	public static Deadline after(long timeoutMillis) {
+		return after(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public static Deadline after(long timeout, TimeUnit unit) {
+		return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	/**
+	 Returns the time remaining in milliseconds, rounded up, or 0 if the deadline has passed.
+	 */
+	public long getRemainingMillis() {
+		long remaining = expiresAtNanos - System.nanoTime();
+		if (remaining <= 0) {
+			return 0;
+		}
+
+		return (remaining + 999999) / 1000000;
+	}
+
+	public boolean isExpired() {
+		return expiresAtNanos - System.nanoTime() <= 0;
+	}
+
+	/**
+	 Returns the timeout clipped to the time remaining. Never returns 0, which would mean no timeout.
+
+	 - parameter timeoutMillis: configured timeout in milliseconds, or 0 for none.
+	 */
+	int clip(int timeoutMillis) {
+		long remaining = Math.max(1, getRemainingMillis());
+		if (timeoutMillis <= 0 || timeoutMillis > remaining) {
+			return (int) Math.min(remaining, Integer.MAX_VALUE);
+		}
+
+		return timeoutMillis;
+	}
+
+	TimeoutException exceeded() {
+		return new TimeoutException("Deadline exceeded");
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline in " + getRemainingMillis() + " ms";
+	}
+
+}
@@ -0,0 +1,418 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ Transport sending the requests with java.net.http.HttpClient.
+
+ Requests are sent asynchronously: while waiting for the server no thread is held, so thousands of
+ calls can be in flight on the few threads of the client. Responses are parsed on the executor of
+ the HttpClient. Streamed responses (calls with an ItemStreamHandler) are parsed while they arrive;
+ all others are received in full first.
+
+ In HTTP/2 mode (see newHttp2Transport()) the calls to a host are multiplexed as streams over a
+ single connection instead of one connection per call in flight, which saves sockets and handshakes
+ when fanning out many calls. HTTP/2 is negotiated with ALPN over https, or with an h2c upgrade over
+ http; servers that do not support it are talked to over HTTP/1.1. Flow control happens per stream
+ and per connection inside HttpClient; its window sizes are set with the jdk.httpclient.windowsize
+ and jdk.httpclient.connectionWindowSize system properties.
+
+ The number of calls in flight per host can be capped with setMaxConcurrentStreams(). Calls over
+ the cap wait in a queue without holding a thread. Keep the cap at or below the
+ SETTINGS_MAX_CONCURRENT_STREAMS the server announces (commonly 100 or more).
+
+ Requires Java 11 or newer, so it is not part of the Android library.
+
+ Example:
+
+	api.setTransport(HttpClientTransport.newHttp2Transport(100));
+ */
+public class HttpClientTransport implements Transport {
+
+	/// Connect timeout of the client created by the default constructor, in milliseconds.
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+
+	private final HttpClient client;
+	/// Maximum number of calls in flight per host. 0 means no limit.
+	private int maxConcurrentStreams;
+	private final Map<String, HostStreams> streamsByHost = new HashMap<String, HostStreams>();
+
+	/**
+	 Creates a transport with its own HTTP/1.1 client.
+	 */
+	public HttpClientTransport() {
+		this(HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofMillis(DEFAULT_CONNECT_TIMEOUT_MILLIS))
+				.build());
+	}
+
+	/**
+	 Creates a transport using the given client, e.g. one with a custom executor, proxy or SSL context.
+	 HttpClient sets the connect timeout per client, so the connect timeouts set on ZelloAPI are not used;
+	 the read timeout of each call limits the wait for the response headers.
+	 */
+	public HttpClientTransport(HttpClient client) {
+		if (client == null) {
+			throw new IllegalArgumentException("client must not be null");
+		}
+
+		this.client = client;
+	}
+
+	/**
+	 Creates a transport with its own client preferring HTTP/2, with at most the given number of calls in flight per host.
+
+	 - parameter maxConcurrentStreams: maximum number of concurrent streams per host. 0 means no limit.
+	 */
+	public static HttpClientTransport newHttp2Transport(int maxConcurrentStreams) {
+		HttpClientTransport transport = new HttpClientTransport(HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.connectTimeout(Duration.ofMillis(DEFAULT_CONNECT_TIMEOUT_MILLIS))
+				.build());
+		transport.setMaxConcurrentStreams(maxConcurrentStreams);
+
+		return transport;
+	}
+
+	public HttpClient getClient() {
+		return client;
+	}
+
+	/**
+	 Caps the number of calls in flight per host, which over HTTP/2 is the number of concurrent streams.
+
+	 - parameter maxConcurrentStreams: maximum number of calls in flight per host. 0 means no limit.
+	 */
+	public synchronized void setMaxConcurrentStreams(int maxConcurrentStreams) {
+		if (maxConcurrentStreams < 0) {
+			throw new IllegalArgumentException("maxConcurrentStreams must not be negative");
+		}
+
+		this.maxConcurrentStreams = maxConcurrentStreams;
+	}
+
+	public synchronized int getMaxConcurrentStreams() {
+		return maxConcurrentStreams;
+	}
+
+	/**
+	 Returns the number of calls in flight to the host.
+
+	 - parameter authority: host as in the request URL, with the port only if the URL has one, e.g. "example.com" or "example.com:8443".
+	 */
+	public int getActiveStreams(String authority) {
+		HostStreams streams = existingStreams(authority);
+
+		return streams != null ? streams.getActive() : 0;
+	}
+
+	/**
+	 Returns the number of calls to the host waiting for a free stream.
+
+	 - parameter authority: host as in the request URL, see getActiveStreams().
+	 */
+	public int getQueuedRequests(String authority) {
+		HostStreams streams = existingStreams(authority);
+
+		return streams != null ? streams.getWaiting() : 0;
+	}
+
+	@Override
+	public boolean isAsynchronous() {
+		return true;
+	}
+
+	@Override
+	public void send(final ApiCall call, final ResponseHandler responseHandler) {
+		final HttpRequest request;
+		try {
+			request = buildRequest(call);
+		} catch (RuntimeException e) {
+			// Malformed URL
+			responseHandler.onFailure(e);
+			return;
+		}
+
+		final int limit = getMaxConcurrentStreams();
+		if (limit == 0) {
+			send(call, request, responseHandler);
+			return;
+		}
+
+		final HostStreams streams = streamsFor(request.uri().getAuthority());
+		final AtomicBoolean claimed = new AtomicBoolean();
+		final Runnable start = new Runnable() {
+			@Override
+			public void run() {
+				if (!claimed.compareAndSet(false, true)) {
+					// Cancelled while waiting
+					streams.release();
+					return;
+				}
+				send(call, request, new ResponseHandler() {
+					@Override
+					public void onResponse(InputStream body) {
+						try {
+							responseHandler.onResponse(body);
+						} finally {
+							streams.release();
+						}
+					}
+
+					@Override
+					public void onFailure(Exception exception) {
+						streams.release();
+						responseHandler.onFailure(exception);
+					}
+				});
+			}
+		};
+		Runnable dequeue = new Runnable() {
+			@Override
+			public void run() {
+				if (claimed.compareAndSet(false, true)) {
+					streams.remove(start);
+					responseHandler.onFailure(new CancellationException("API call cancelled"));
+				}
+			}
+		};
+		if (!call.setCancelAction(dequeue)) {
+			dequeue.run();
+			return;
+		}
+
+		streams.acquire(start, limit);
+	}
+
+	private void send(ApiCall call, HttpRequest request, ResponseHandler responseHandler) {
+		if (call.isStreaming()) {
+			send(call, request, HttpResponse.BodyHandlers.ofInputStream(), responseHandler);
+		} else {
+			send(call, request, HttpResponse.BodyHandlers.ofByteArray(), responseHandler);
+		}
+	}
+
+	HttpRequest buildRequest(ApiCall call) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(call.getUrl()));
+		if (call.getReadTimeoutMillis() > 0) {
+			builder.timeout(Duration.ofMillis(call.getReadTimeoutMillis()));
+		}
+		builder.header("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+		FormBody body = call.getBody();
+		if (body != null) {
+			builder.header("Content-Type", FormBody.CONTENT_TYPE);
+			if (body.getContentEncoding() != null) {
+				builder.header("Content-Encoding", body.getContentEncoding());
+			}
+			builder.method(call.getMethod(), HttpRequest.BodyPublishers.ofByteArray(body.bytes()));
+		} else {
+			builder.method(call.getMethod(), HttpRequest.BodyPublishers.noBody());
+		}
+
+		return builder.build();
+	}
+
+	private <T> void send(final ApiCall call, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler,
+			final ResponseHandler responseHandler) {
+		final CompletableFuture<HttpResponse<T>> response = client.sendAsync(request, call.isTraced() ? traced(call, bodyHandler) : bodyHandler);
+		// Body of a streamed response while it is read, closed by abort to stop the read
+		final AtomicReference<InputStream> streamedBody = new AtomicReference<InputStream>();
+		final AtomicBoolean aborted = new AtomicBoolean();
+
+		final Runnable abort = new Runnable() {
+			@Override
+			public void run() {
+				aborted.set(true);
+				response.cancel(true);
+				InputStream body = streamedBody.get();
+				if (body != null) {
+					close(body);
+				}
+			}
+		};
+		if (!call.setCancelAction(abort)) {
+			abort.run();
+		}
+		final ScheduledFuture<?> watchdog = call.getDeadline() != null ? abortAtDeadline(abort, call.getDeadline()) : null;
+
+		response.whenComplete(new BiConsumer<HttpResponse<T>, Throwable>() {
+			@Override
+			public void accept(HttpResponse<T> result, Throwable failure) {
+				InputStream body = failure == null ? bodyStream(result.body()) : null;
+				if (body != null && result.body() instanceof InputStream) {
+					// Only the headers have arrived: the deadline and cancel() still apply while the body is read
+					streamedBody.set(body);
+					if (aborted.get()) {
+						close(body);
+					}
+				} else {
+					stop(watchdog, call, abort);
+				}
+
+				if (failure != null) {
+					responseHandler.onFailure(unwrap(failure));
+					return;
+				}
+				InputStream decoded = null;
+				try {
+					if (result.statusCode() >= 400) {
+						responseHandler.onFailure(new HttpStatusException(result.statusCode(), call.getUrl()));
+						return;
+					}
+					try {
+						decoded = ContentEncoding.decode(body, result.headers().firstValue("Content-Encoding").orElse(null));
+					} catch (IOException e) {
+						responseHandler.onFailure(e);
+						return;
+					}
+					responseHandler.onResponse(decoded);
+				} finally {
+					stop(watchdog, call, abort);
+					close(body);
+					if (decoded != null && decoded != body) {
+						close(decoded);
+					}
+				}
+			}
+		});
+	}
+
+	private static void stop(ScheduledFuture<?> watchdog, ApiCall call, Runnable abort) {
+		if (watchdog != null) {
+			watchdog.cancel(false);
+		}
+		call.clearCancelAction(abort);
+	}
+
+	// Reports the arrival of the response headers, which is when HttpClient asks for the body handler.
+	private static <T> HttpResponse.BodyHandler<T> traced(final ApiCall call, final HttpResponse.BodyHandler<T> bodyHandler) {
+		return new HttpResponse.BodyHandler<T>() {
+			@Override
+			public HttpResponse.BodySubscriber<T> apply(HttpResponse.ResponseInfo responseInfo) {
+				call.trace(RequestListener.Event.RESPONSE_HEADERS);
+
+				return bodyHandler.apply(responseInfo);
+			}
+		};
+	}
+
+	private synchronized HostStreams streamsFor(String authority) {
+		HostStreams streams = streamsByHost.get(authority);
+		if (streams == null) {
+			streams = new HostStreams();
+			streamsByHost.put(authority, streams);
+		}
+
+		return streams;
+	}
+
+	private synchronized HostStreams existingStreams(String authority) {
+		return streamsByHost.get(authority);
+	}
+
+	// Aborts the request when the deadline passes, or stops reading a streamed body; the read timeout alone does not cover the response body.
+	// Aborting completes the call on the aborting thread, so it runs on a spare thread rather than the timer thread.
+	private static ScheduledFuture<?> abortAtDeadline(Runnable abort, Deadline deadline) {
+		try {
+			return APIExecutors.schedule(abort, deadline.getRemainingMillis(), TimeUnit.MILLISECONDS, null);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static InputStream bodyStream(Object body) {
+		if (body instanceof InputStream) {
+			return (InputStream) body;
+		}
+
+		return new ByteArrayInputStream(body != null ? (byte[]) body : new byte[0]);
+	}
+
+	private static Exception unwrap(Throwable failure) {
+		Throwable cause = failure;
+		while (cause instanceof CompletionException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+
+		return cause instanceof Exception ? (Exception) cause : new CompletionException(cause);
+	}
+
+	private static void close(InputStream stream) {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			// Empty
+		}
+	}
+
+	/**
+	 Calls in flight to one host, and the calls waiting for a free stream.
+	 */
+	private static class HostStreams {
+
+		private final LinkedList<Runnable> waiting = new LinkedList<Runnable>();
+		private int active;
+
+		void acquire(Runnable start, int limit) {
+			synchronized (this) {
+				if (active >= limit) {
+					waiting.add(start);
+					return;
+				}
+				active++;
+			}
+
+			start.run();
+		}
+
+		void release() {
+			Runnable next;
+			synchronized (this) {
+				next = waiting.poll();
+				if (next == null) {
+					active--;
+					return;
+				}
+			}
+
+			// The stream passes to the next call
+			next.run();
+		}
+
+		synchronized void remove(Runnable start) {
+			waiting.remove(start);
+		}
+
+		synchronized int getActive() {
+			return active;
+		}
+
+		synchronized int getWaiting() {
+			return waiting.size();
+		}
+	}
+
+}
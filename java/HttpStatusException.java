@@ -0,0 +1,32 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import java.io.IOException;
+
+/**
+ Passed to the completion handler of a call whose HTTP response had an error status, e.g. 503.
+ It is an IOException, like the error HttpURLConnection reports for such a response. Retries only
+ treat 429, 502, 503 and 504 as transient, and the circuit breaker only counts 5xx and 429 as failures.
+ */
+public class HttpStatusException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+
+	public HttpStatusException(int statusCode, String url) {
+		super("Server returned HTTP response code: " + statusCode + " for URL: " + url);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 Returns the HTTP status code of the response, e.g. 429.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+}
@@ -0,0 +1,180 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Transport sending each request on an HttpURLConnection from a ConnectionPool.
+ Works on Android and every Java version. send() blocks until the response has been handled.
+
+ See Transport
+ */
+public class HttpURLConnectionTransport implements Transport {
+
+	private final ConnectionPool pool;
+
+	/**
+	 Creates a transport using the shared ConnectionPool.getDefault() pool.
+	 */
+	public HttpURLConnectionTransport() {
+		this(ConnectionPool.getDefault());
+	}
+
+	/**
+	 - parameter pool: connection pool releasing the connections, optionally limiting their number per host.
+	 */
+	public HttpURLConnectionTransport(ConnectionPool pool) {
+		if (pool == null) {
+			throw new IllegalArgumentException("pool must not be null");
+		}
+
+		this.pool = pool;
+	}
+
+	public ConnectionPool getConnectionPool() {
+		return pool;
+	}
+
+	@Override
+	public boolean isAsynchronous() {
+		return false;
+	}
+
+	@Override
+	public void send(ApiCall call, ResponseHandler responseHandler) {
+		HttpURLConnection conn = null;
+		InputStream is = null;
+		InputStream response = null;
+		ScheduledFuture<?> watchdog = null;
+		Runnable disconnect = null;
+
+		try {
+			URL url = new URL(call.getUrl());
+			if (call.isTraced()) {
+				resolve(call, url.getHost());
+			}
+			conn = pool.open(url, call.getDeadline());
+			disconnect = disconnecting(conn);
+			if (!call.setCancelAction(disconnect)) {
+				throw new CancellationException("API call cancelled");
+			}
+			conn.setReadTimeout(call.getReadTimeoutMillis());
+			conn.setConnectTimeout(call.getConnectTimeoutMillis());
+			if (call.getDeadline() != null) {
+				watchdog = disconnectAtDeadline(conn, call.getDeadline());
+			}
+			conn.setRequestMethod(call.getMethod());
+			conn.setDoInput(true);
+			conn.setDoOutput(true);
+			// Set explicitly, so Android's connection leaves decompressing to us instead of doing it for gzip only
+			conn.setRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+
+			FormBody body = call.getBody();
+			if (body != null) {
+				// Streams the body to the socket instead of having the connection buffer a copy of it
+				conn.setFixedLengthStreamingMode(body.getContentLength());
+				conn.setRequestProperty("Content-Type", FormBody.CONTENT_TYPE);
+				if (body.getContentEncoding() != null) {
+					conn.setRequestProperty("Content-Encoding", body.getContentEncoding());
+				}
+			}
+
+			// Starts the query
+			call.trace(RequestListener.Event.CONNECT_START);
+			conn.connect();
+			call.trace(RequestListener.Event.CONNECT_END);
+
+			if (body != null) {
+				OutputStream os = conn.getOutputStream();
+				body.writeTo(os);
+				os.close();
+			}
+			call.trace(RequestListener.Event.REQUEST_SENT);
+
+			int status = conn.getResponseCode();
+			if (status >= 400) {
+				throw new HttpStatusException(status, call.getUrl());
+			}
+			is = conn.getInputStream();
+			call.trace(RequestListener.Event.RESPONSE_HEADERS);
+			response = ContentEncoding.decode(is, conn.getContentEncoding());
+		} catch (Exception e) {
+			release(call, conn, is, response, watchdog, disconnect);
+			responseHandler.onFailure(e);
+			return;
+		}
+
+		try {
+			// The raw stream is released, so the part a decompressing stream has not read is drained as well
+			responseHandler.onResponse(response);
+		} finally {
+			release(call, conn, is, response, watchdog, disconnect);
+		}
+	}
+
+	// Resolves the host name ahead of the connection, which then finds the address in the DNS cache, to time the lookup.
+	private static void resolve(ApiCall call, String host) {
+		call.trace(RequestListener.Event.DNS_START);
+		try {
+			InetAddress.getAllByName(host);
+		} catch (UnknownHostException e) {
+			// Empty, the connection reports it
+		}
+		call.trace(RequestListener.Event.DNS_END);
+	}
+
+	// The decompressing stream is closed after the raw stream is drained, freeing the native memory of its Inflater.
+	private void release(ApiCall call, HttpURLConnection conn, InputStream is, InputStream response, ScheduledFuture<?> watchdog,
+			Runnable disconnect) {
+		if (watchdog != null) {
+			watchdog.cancel(false);
+		}
+		if (disconnect != null) {
+			call.clearCancelAction(disconnect);
+		}
+		if (conn != null) {
+			// Drains both the response and the error stream so the socket goes back to the keep-alive cache
+			pool.release(conn, is);
+		}
+		if (response != null && response != is) {
+			try {
+				response.close();
+			} catch (IOException e) {
+				// Empty
+			}
+		}
+	}
+
+	// Disconnects the connection when the deadline passes, so that a slow response can't hold the thread beyond it.
+	private static ScheduledFuture<?> disconnectAtDeadline(HttpURLConnection conn, Deadline deadline) {
+		try {
+			return APIExecutors.getScheduler().schedule(disconnecting(conn), deadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+		} catch (RuntimeException e) {
+			// The timeouts are clipped to the deadline anyway
+			return null;
+		}
+	}
+
+	// Returns a task disconnecting the connection from another thread, which makes a blocked read or write fail right away.
+	private static Runnable disconnecting(final HttpURLConnection conn) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				conn.disconnect();
+			}
+		};
+	}
+
+}
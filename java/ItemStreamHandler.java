@@ -0,0 +1,25 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+
+/**
+ Completion handler that receives the users or channels of a listing one at a time.
+
+ Pass it to ZelloAPI.getUsers() or ZelloAPI.getChannels() to parse the response while it is
+ being downloaded. Each entry of the "users" or "channels" list is passed to onItem() as soon
+ as it is parsed, and the list is never kept in memory. onResult() is called last with the rest
+ of the response (the list itself is omitted).
+ The response "code" may follow the list, so items can be delivered before it is known whether the call succeeded.
+ */
+public interface ItemStreamHandler extends ResultCompletionHandler {
+  /**
+   - parameter listName: name of the list the item belongs to, "users" or "channels".
+   - parameter item:     the user or channel.
+   - returns:            false to stop reading the response; onResult() is then called with success set to false.
+   */
+  boolean onItem(String listName, JSONObject item);
+}
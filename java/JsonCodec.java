@@ -0,0 +1,41 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ Decodes the responses and encodes the JSON parameters of the API calls.
+
+ Responses are still handed to the completion handlers as org.json objects; the codec decides how the
+ bytes become one. OrgJsonCodec parses with org.json itself; StreamingJsonCodec parses the stream
+ with JsonPullParser while it is read, without the intermediate String, and is the default.
+
+ Implementations must be thread safe: one codec decodes the responses of all calls in flight.
+
+ See ZelloAPI.setJsonCodec()
+ */
+public interface JsonCodec {
+
+	/**
+	 Decodes a response body, UTF-8 encoded.
+
+	 - parameter stream: the response body. Read to the end; closed by the caller.
+	 - returns:          the response.
+	 */
+	JSONObject decode(InputStream stream) throws IOException, JSONException;
+
+	/**
+	 Encodes an object, e.g. the settings of saveChannelRole(). Values may be strings, numbers, booleans,
+	 null, maps, collections, arrays, JSONObjects and JSONArrays.
+	 */
+	String encode(Map<String, ?> object);
+
+}
@@ -0,0 +1,194 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Merges addToChannel() and removeFromChannel() calls made within a short time window.
+
+ Users added to (or removed from) the same channel are merged into one call. Channels that end up
+ with the same set of users are then merged into a single user/addtochannels (or
+ user/removefromchannels) call. Every original completion handler receives the result of the call
+ its users were sent with.
+
+ A call that reverses a buffered one, e.g. removing a user from a channel the user is still waiting to be
+ added to, first sends everything buffered, so the calls for a user are sent in the order they were made.
+ A handler that throws does not keep the other handlers of the merged call from completing; the first
+ exception is rethrown once they have.
+
+ See ZelloAPI.setMembershipCoalescing()
+ */
+class MembershipCoalescer {
+
+	/**
+	 Sends the merged calls.
+	 */
+	interface Sender {
+		void send(boolean add, ArrayList<String> channelNames, ArrayList<String> users, ResultCompletionHandler completionHandler);
+	}
+
+	private final Sender sender;
+	/// Runs the flush at the end of a window, off the timer thread.
+	private final Executor executor;
+	private final long windowMillis;
+	private final int maxUsersPerChannel;
+
+	private Map<String, Pending> additions = new LinkedHashMap<String, Pending>();
+	private Map<String, Pending> removals = new LinkedHashMap<String, Pending>();
+	private boolean flushScheduled;
+
+	MembershipCoalescer(Sender sender, Executor executor, long windowMillis, int maxUsersPerChannel) {
+		this.sender = sender;
+		this.executor = executor;
+		this.windowMillis = windowMillis;
+		this.maxUsersPerChannel = maxUsersPerChannel;
+	}
+
+	/**
+	 Buffers the call until the end of the current window.
+
+	 - parameter add:               true for addToChannel(), false for removeFromChannel().
+	 - parameter channelName:       channel name.
+	 - parameter users:             usernames.
+	 - parameter completionHandler: handler to complete with the result of the merged call.
+	 */
+	void enqueue(boolean add, String channelName, ArrayList<String> users, ResultCompletionHandler completionHandler) {
+		boolean flushNow = false;
+
+		synchronized (this) {
+			if (reverses(add, channelName, users)) {
+				flushNow = true;
+			}
+		}
+		if (flushNow) {
+			// Send the opposite change first, keeping the order of the calls for these users
+			flush();
+			enqueue(add, channelName, users, completionHandler);
+			return;
+		}
+
+		synchronized (this) {
+			Map<String, Pending> buffer = add ? additions : removals;
+			Pending pending = buffer.get(channelName);
+			if (pending == null) {
+				pending = new Pending();
+				buffer.put(channelName, pending);
+			}
+			pending.users.addAll(users);
+			pending.handlers.add(completionHandler);
+
+			if (pending.users.size() >= maxUsersPerChannel) {
+				flushNow = true;
+			} else if (!flushScheduled) {
+				flushScheduled = true;
+				try {
+					APIExecutors.schedule(new Runnable() {
+						@Override
+						public void run() {
+							flush();
+						}
+					}, windowMillis, TimeUnit.MILLISECONDS, executor);
+				} catch (RuntimeException e) {
+					// The scheduler is shut down; send right away
+					flushNow = true;
+				}
+			}
+		}
+
+		if (flushNow) {
+			flush();
+		}
+	}
+
+	// Returns true if the opposite change is buffered for any of the users of the channel.
+	private boolean reverses(boolean add, String channelName, ArrayList<String> users) {
+		Pending opposite = (add ? removals : additions).get(channelName);
+		if (opposite == null) {
+			return false;
+		}
+		for (String user : users) {
+			if (opposite.users.contains(user)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 Sends all buffered calls.
+	 */
+	void flush() {
+		Map<String, Pending> toAdd;
+		Map<String, Pending> toRemove;
+		synchronized (this) {
+			toAdd = additions;
+			toRemove = removals;
+			additions = new LinkedHashMap<String, Pending>();
+			removals = new LinkedHashMap<String, Pending>();
+			flushScheduled = false;
+		}
+
+		send(true, toAdd);
+		send(false, toRemove);
+	}
+
+	private void send(boolean add, Map<String, Pending> buffer) {
+		// Channels with identical user sets share one call
+		Map<Set<String>, List<String>> channelsByUsers = new LinkedHashMap<Set<String>, List<String>>();
+		for (Map.Entry<String, Pending> entry : buffer.entrySet()) {
+			Set<String> users = entry.getValue().users;
+			List<String> channelNames = channelsByUsers.get(users);
+			if (channelNames == null) {
+				channelNames = new ArrayList<String>();
+				channelsByUsers.put(users, channelNames);
+			}
+			channelNames.add(entry.getKey());
+		}
+
+		for (Map.Entry<Set<String>, List<String>> entry : channelsByUsers.entrySet()) {
+			final List<ResultCompletionHandler> handlers = new ArrayList<ResultCompletionHandler>();
+			for (String channelName : entry.getValue()) {
+				handlers.addAll(buffer.get(channelName).handlers);
+			}
+
+			sender.send(add, new ArrayList<String>(entry.getValue()), new ArrayList<String>(entry.getKey()), new ResultCompletionHandler() {
+				@Override
+				public void onResult(boolean success, JSONObject response, Exception exception) {
+					RuntimeException thrown = null;
+					for (ResultCompletionHandler handler : handlers) {
+						try {
+							handler.onResult(success, response, exception);
+						} catch (RuntimeException e) {
+							// Complete the remaining handlers first
+							if (thrown == null) {
+								thrown = e;
+							}
+						}
+					}
+					if (thrown != null) {
+						throw thrown;
+					}
+				}
+			});
+		}
+	}
+
+	private static class Pending {
+		final Set<String> users = new LinkedHashSet<String>();
+		final List<ResultCompletionHandler> handlers = new ArrayList<ResultCompletionHandler>();
+	}
+
+}
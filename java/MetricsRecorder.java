@@ -0,0 +1,127 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ ApiMetrics keeping per-endpoint counters and latency histograms in memory.
+
+ Recording is lock-free. The counters are cumulative from the creation of the recorder, which suits
+ exporters that compute rates themselves; subtract two snapshots for the activity in between.
+
+ Example:
+
+	MetricsRecorder metrics = new MetricsRecorder();
+	api.setMetrics(metrics);
+	...
+	for (MetricsSnapshot.Endpoint endpoint : metrics.snapshot().getEndpoints()) {
+		System.out.println(endpoint);
+	}
+ */
+public class MetricsRecorder implements ApiMetrics {
+
+	private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<String, EndpointMetrics>();
+
+	@Override
+	public void onCallStarted(String endpoint) {
+		metricsOf(endpoint).inFlight.incrementAndGet();
+	}
+
+	@Override
+	public void onRetry(String endpoint, int attempt) {
+		metricsOf(endpoint).retries.incrementAndGet();
+	}
+
+	@Override
+	public void onCallCompleted(String endpoint, boolean success, String code, Exception exception,
+			long latencyNanos, long bytesSent, long bytesReceived) {
+		EndpointMetrics metrics = metricsOf(endpoint);
+		metrics.inFlight.decrementAndGet();
+		metrics.calls.incrementAndGet();
+		if (!success) {
+			metrics.failures.incrementAndGet();
+		}
+		if (code != null) {
+			metrics.countOf(code).incrementAndGet();
+		} else if (exception != null) {
+			metrics.clientErrors.incrementAndGet();
+		}
+		metrics.bytesSent.addAndGet(bytesSent);
+		metrics.bytesReceived.addAndGet(bytesReceived);
+		metrics.latency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+	}
+
+	/**
+	 Returns the measurements so far, per endpoint.
+	 */
+	public MetricsSnapshot snapshot() {
+		Map<String, MetricsSnapshot.Endpoint> snapshots = new TreeMap<String, MetricsSnapshot.Endpoint>();
+		for (Map.Entry<String, EndpointMetrics> entry : endpoints.entrySet()) {
+			snapshots.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+		}
+
+		return new MetricsSnapshot(System.currentTimeMillis(), snapshots);
+	}
+
+	private EndpointMetrics metricsOf(String endpoint) {
+		EndpointMetrics metrics = endpoints.get(endpoint);
+		if (metrics == null) {
+			EndpointMetrics created = new EndpointMetrics();
+			metrics = endpoints.putIfAbsent(endpoint, created);
+			if (metrics == null) {
+				metrics = created;
+			}
+		}
+
+		return metrics;
+	}
+
+	private static class EndpointMetrics {
+
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		final AtomicLong clientErrors = new AtomicLong();
+		final AtomicLong retries = new AtomicLong();
+		final AtomicLong inFlight = new AtomicLong();
+		final AtomicLong bytesSent = new AtomicLong();
+		final AtomicLong bytesReceived = new AtomicLong();
+		/// Number of responses by their "code" field.
+		final ConcurrentMap<String, AtomicLong> codes = new ConcurrentHashMap<String, AtomicLong>();
+		final LatencyHistogram latency = new LatencyHistogram();
+
+		AtomicLong countOf(String code) {
+			AtomicLong count = codes.get(code);
+			if (count == null) {
+				AtomicLong created = new AtomicLong();
+				count = codes.putIfAbsent(code, created);
+				if (count == null) {
+					count = created;
+				}
+			}
+
+			return count;
+		}
+
+		MetricsSnapshot.Endpoint snapshot(String endpoint) {
+			Map<String, Long> codeCounts = new TreeMap<String, Long>();
+			for (Map.Entry<String, AtomicLong> entry : codes.entrySet()) {
+				codeCounts.put(entry.getKey(), entry.getValue().get());
+			}
+			long[] latencyCounts = new long[LatencyHistogram.BUCKETS];
+			latency.copyCounts(latencyCounts);
+
+			return new MetricsSnapshot.Endpoint(endpoint, calls.get(), failures.get(), clientErrors.get(), retries.get(),
+					inFlight.get(), bytesSent.get(), bytesReceived.get(), codeCounts, latencyCounts,
+					latency.getTotalMicros(), latency.getMaxMicros());
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ JsonCodec using org.json: the response is read into a String and parsed with new JSONObject(String).
+ */
+public class OrgJsonCodec implements JsonCodec {
+
+	@Override
+	public JSONObject decode(InputStream stream) throws IOException, JSONException {
+		return new JSONObject(ZelloAPI.readIt(stream));
+	}
+
+	@Override
+	public String encode(Map<String, ?> object) {
+		return new JSONObject(object).toString();
+	}
+
+}
@@ -0,0 +1,262 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Lazy iterator over a paginated users or channels listing.
+
+ Pages are requested with the "max" and "start" parameters of the listing command.
+ While the current page is consumed, up to prefetchPages following pages are already
+ being downloaded, so a full scan runs at network speed while only a few pages are kept in memory.
+ The next page starts after the entries actually returned: if the server returns fewer entries than
+ requested, e.g. because it caps "max", the pages prefetched past them are dropped and requested again
+ from there with the smaller size. The iteration ends at the first empty page.
+
+ hasNext() and next() block while waiting for a page, so do not use the iterator on the
+ main thread or on a thread of the executor running the API requests. They wait without holding
+ the iterator's lock, so close() can be called from another thread at any time and never blocks.
+ Failed requests are reported by throwing ZelloAPIException from hasNext() or next(),
+ as is the expiry of the deadline of the scan, if it has one. A page that failed is requested
+ again by the next call to hasNext() or next(), so the iteration can be resumed without losing entries.
+
+ See ZelloAPI.streamUsers(), ZelloAPI.streamChannels()
+ */
+public class PagedIterator implements Iterator<JSONObject> {
+
+	/**
+	 Requests one page of the listing.
+	 */
+	interface PageLoader {
+		ApiRequest loadPage(int start, int max, ResultCompletionHandler completionHandler);
+	}
+
+	private final PageLoader loader;
+	private final String listName;
+	/// Number of entries requested per page. Lowered to the number the server returns if it returns fewer.
+	private int pageSize;
+	private final int prefetchPages;
+	/// Deadline of the whole scan, or null.
+	private final Deadline deadline;
+
+	/// Requested pages in listing order. The first one is the next page to consume.
+	private final LinkedList<Page> pages = new LinkedList<Page>();
+	private int nextStart;
+	private boolean lastPageReached;
+	/// Set by close() without taking the lock, so it is read again after every wait.
+	private volatile boolean closed;
+	/// Requests sent and maybe not completed yet, cancelled by close() without taking the lock.
+	private final ConcurrentLinkedQueue<ApiRequest> requests = new ConcurrentLinkedQueue<ApiRequest>();
+
+	private JSONArray items;
+	private int index;
+
+	PagedIterator(PageLoader loader, String listName, int pageSize, int prefetchPages, Deadline deadline) {
+		if (pageSize < 1 || prefetchPages < 1) {
+			throw new IllegalArgumentException("pageSize and prefetchPages must be positive");
+		}
+
+		this.loader = loader;
+		this.listName = listName;
+		this.pageSize = pageSize;
+		this.prefetchPages = prefetchPages;
+		this.deadline = deadline;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (true) {
+			Page page;
+			synchronized (this) {
+				if (closed) {
+					return false;
+				}
+				if (items != null && index < items.length()) {
+					return true;
+				}
+				if (lastPageReached) {
+					return false;
+				}
+
+				requestPages();
+				page = pages.getFirst();
+				if (page.request == null) {
+					page.send();
+				}
+			}
+
+			JSONArray loaded;
+			try {
+				loaded = page.await();
+			} catch (ZelloAPIException e) {
+				if (closed) {
+					return false;
+				}
+				synchronized (this) {
+					if (page.isFailed() && !pages.isEmpty() && pages.getFirst() == page) {
+						// Kept at the head of the queue, so the next call requests the page again
+						pages.set(0, new Page(page.start, page.max));
+					}
+				}
+				throw e;
+			}
+
+			synchronized (this) {
+				if (closed) {
+					return false;
+				}
+				if (pages.isEmpty() || pages.getFirst() != page) {
+					// Consumed by another thread meanwhile
+					continue;
+				}
+
+				pages.removeFirst();
+				items = loaded;
+				index = 0;
+				if (loaded.length() == 0) {
+					lastPageReached = true;
+					cancelPages();
+				} else if (loaded.length() < page.max) {
+					// Short page: the end of the listing or a server-side cap. The prefetched pages left a gap.
+					cancelPages();
+					pageSize = loaded.length();
+					nextStart = page.start + loaded.length();
+				}
+			}
+		}
+	}
+
+	@Override
+	public JSONObject next() {
+		while (true) {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			synchronized (this) {
+				// Another thread may have taken the last entry since hasNext() returned
+				if (items != null && index < items.length()) {
+					return items.optJSONObject(index++);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 Stops the iteration. Requests of pages that are still being downloaded are cancelled,
+	 and a hasNext() or next() waiting for a page returns false or throws NoSuchElementException.
+	 Does not block, so it may be called from any thread.
+	 */
+	public void close() {
+		closed = true;
+		ApiRequest request;
+		while ((request = requests.poll()) != null) {
+			request.cancel();
+		}
+	}
+
+	// Cancels the requests of the pages not consumed yet, e.g. pages past the end of the listing.
+	private void cancelPages() {
+		for (Page page : pages) {
+			if (page.request != null) {
+				page.request.cancel();
+			}
+		}
+		pages.clear();
+	}
+
+	private void requestPages() {
+		while (pages.size() < prefetchPages) {
+			Page page = new Page(nextStart, pageSize);
+			pages.add(page);
+			page.send();
+			nextStart += pageSize;
+		}
+	}
+
+	private class Page implements ResultCompletionHandler {
+
+		final int start;
+		final int max;
+		private final CountDownLatch done = new CountDownLatch(1);
+		/// Request of the page, null until sent. Cancelled if the iteration is closed before the page is consumed.
+		ApiRequest request;
+		private JSONArray items;
+		private JSONObject response;
+		private Exception exception;
+		private boolean success;
+
+		Page(int start, int max) {
+			this.start = start;
+			this.max = max;
+		}
+
+		void send() {
+			// Drops the requests that completed, so the queue only holds the few pages in flight
+			for (Iterator<ApiRequest> iterator = requests.iterator(); iterator.hasNext(); ) {
+				if (iterator.next().isDone()) {
+					iterator.remove();
+				}
+			}
+
+			request = loader.loadPage(start, max, this);
+			requests.add(request);
+			if (closed) {
+				// close() may have run before the request was added
+				request.cancel();
+			}
+		}
+
+		// True if the request completed without success, as opposed to the wait being interrupted or timing out.
+		boolean isFailed() {
+			return done.getCount() == 0 && !success;
+		}
+
+		@Override
+		public void onResult(boolean success, JSONObject response, Exception exception) {
+			this.success = success;
+			this.response = response;
+			this.exception = exception;
+			if (success && response != null) {
+				items = response.optJSONArray(listName);
+			}
+			done.countDown();
+		}
+
+		JSONArray await() {
+			try {
+				if (deadline == null) {
+					done.await();
+				} else if (!done.await(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS)) {
+					throw new ZelloAPIException("Deadline exceeded while waiting for " + listName, null, deadline.exceeded());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ZelloAPIException("Interrupted while waiting for " + listName, null, e);
+			}
+
+			if (!success) {
+				String status = response != null ? response.optString("status", "") : "";
+				throw new ZelloAPIException("Failed to load " + listName + " " + status, response, exception);
+			}
+
+			return items != null ? items : new JSONArray();
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+/**
+ Receives the phases of every request with System.nanoTime() timestamps, to see where the time of slow calls goes.
+
+ The events of a call, in order:
+
+ - CALL_START - the call is made.
+ - ATTEMPT_START - an attempt is handed to the transport, after waiting for the executor, the limiters
+   and any retry delay. Repeated for every retry, followed by the events of the attempt.
+ - DNS_START, DNS_END - the host name is resolved.
+ - CONNECT_START, CONNECT_END - a connection is opened, including the TLS handshake for https,
+   or taken from the keep-alive pool.
+ - REQUEST_SENT - the request body has been written. Requests without a body may only be written
+   while waiting for the response.
+ - RESPONSE_HEADERS - the status line and headers have been received (time to first byte).
+ - RESPONSE_BODY_END - the response body has been read.
+ - PARSE_END - the response has been parsed into a JSONObject.
+ - CALL_END - the completion handler is about to be called.
+
+ Transports report the phases they can observe: HttpClientTransport reports none of DNS, CONNECT and
+ REQUEST_SENT. Streamed responses (calls with an ItemStreamHandler) are parsed while they are read and
+ have no RESPONSE_BODY_END and PARSE_END. Calls completed from the response cache or joining an identical
+ request in flight are not reported.
+
+ Events are delivered on the threads making the calls, so implementations must be thread safe and return quickly.
+ Events of concurrent calls interleave; use the ApiCall to tell them apart.
+
+ See ZelloAPI.setRequestListener()
+ */
+public interface RequestListener {
+
+	enum Event {
+		CALL_START,
+		ATTEMPT_START,
+		DNS_START,
+		DNS_END,
+		CONNECT_START,
+		CONNECT_END,
+		REQUEST_SENT,
+		RESPONSE_HEADERS,
+		RESPONSE_BODY_END,
+		PARSE_END,
+		CALL_END
+	}
+
+	/**
+	 - parameter call:     call the event belongs to. ApiCall.getCommand() returns its command.
+	 - parameter event:    phase of the request.
+	 - parameter nanoTime: System.nanoTime() when the phase was reached.
+	 */
+	void onEvent(ApiCall call, Event event, long nanoTime);
+
+}
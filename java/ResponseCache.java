@@ -0,0 +1,230 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ In-memory cache of successful user/get, channel/get and channel/roleslist responses.
+
+ Entries are kept in least-recently-used order and the oldest entry is evicted once the cache is full.
+ Each endpoint has its own time to live. Calls that modify users, channels or roles invalidate
+ all cached responses of the endpoints they can affect, and responses of reads that were in flight
+ while an invalidation happened are not stored.
+
+ Cached responses are shared by all callers reading the same key, so treat them as read-only.
+
+ See ZelloAPI.setResponseCache()
+ */
+public class ResponseCache {
+
+	/// Default maximum number of cached responses.
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+	/// Default time to live of cached responses in milliseconds.
+	public static final long DEFAULT_TTL_MILLIS = 30000;
+
+	/// Endpoints whose responses are cached.
+	static final String[] CACHEABLE_ENDPOINTS = { "user/get", "channel/get", "channel/roleslist" };
+
+	private static final String[] NONE = {};
+	private static final String[] USERS = { "user/get" };
+	private static final String[] USERS_AND_CHANNELS = { "user/get", "channel/get" };
+	private static final String[] ALL = CACHEABLE_ENDPOINTS;
+	private static final String[] ROLES = { "user/get", "channel/roleslist" };
+
+	private final int maxEntries;
+	private final Map<String, Long> ttlByEndpoint = new HashMap<String, Long>();
+	private final LinkedHashMap<String, CachedResponse> entries;
+
+	private long generation;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	public ResponseCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 - parameter maxEntries: maximum number of cached responses.
+	 */
+	public ResponseCache(final int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+
+		this.maxEntries = maxEntries;
+		entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+				if (size() > ResponseCache.this.maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+		for (String endpoint : CACHEABLE_ENDPOINTS) {
+			ttlByEndpoint.put(endpoint, DEFAULT_TTL_MILLIS);
+		}
+	}
+
+	/**
+	 Sets the time to live of the responses of an endpoint.
+
+	 - parameter endpoint:  "user/get", "channel/get" or "channel/roleslist".
+	 - parameter ttlMillis: time to live in milliseconds. 0 disables caching of the endpoint.
+	 */
+	public synchronized void setTtl(String endpoint, long ttlMillis) {
+		if (!ttlByEndpoint.containsKey(endpoint)) {
+			throw new IllegalArgumentException("Responses of " + endpoint + " are not cached");
+		}
+
+		ttlByEndpoint.put(endpoint, ttlMillis);
+	}
+
+	/**
+	 Returns true if responses of the endpoint are cached.
+	 */
+	public synchronized boolean isCacheable(String endpoint) {
+		Long ttl = ttlByEndpoint.get(endpoint);
+
+		return ttl != null && ttl > 0;
+	}
+
+	/**
+	 Removes all cached responses.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		generation++;
+	}
+
+	/**
+	 Returns a snapshot of the cache statistics.
+	 */
+	public synchronized Stats getStats() {
+		return new Stats(entries.size(), hits, misses, evictions, invalidations);
+	}
+
+	synchronized JSONObject get(String key) {
+		CachedResponse entry = entries.get(key);
+		if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+			entries.remove(key);
+			entry = null;
+		}
+
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+
+		return entry.response;
+	}
+
+	/**
+	 Returns the invalidation counter. Pass it to put() to discard responses that may predate an invalidation.
+	 */
+	synchronized long getGeneration() {
+		return generation;
+	}
+
+	synchronized void put(String key, String endpoint, JSONObject response, long readGeneration) {
+		Long ttl = ttlByEndpoint.get(endpoint);
+		if (ttl == null || ttl <= 0 || readGeneration != generation) {
+			return;
+		}
+
+		entries.put(key, new CachedResponse(response, System.currentTimeMillis() + ttl));
+	}
+
+	/**
+	 Removes the cached responses of an endpoint.
+	 */
+	synchronized void invalidate(String endpoint) {
+		generation++;
+		invalidations++;
+
+		Iterator<String> iterator = entries.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().startsWith(endpoint)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 Returns the cached endpoints whose responses may change when the endpoint is called.
+	 */
+	static String[] endpointsAffectedBy(String endpoint) {
+		if (endpoint.equals("user/save")) {
+			return USERS;
+		}
+		if (endpoint.equals("user/delete") || endpoint.equals("user/addto") || endpoint.equals("user/removefrom")
+				|| endpoint.equals("user/addtochannels") || endpoint.equals("user/removefromchannels")) {
+			return USERS_AND_CHANNELS;
+		}
+		if (endpoint.equals("channel/add") || endpoint.equals("channel/delete")) {
+			return ALL;
+		}
+		if (endpoint.equals("channel/saverole") || endpoint.equals("channel/deleterole") || endpoint.equals("channel/addtorole")) {
+			return ROLES;
+		}
+
+		return NONE;
+	}
+
+	private static class CachedResponse {
+
+		final JSONObject response;
+		final long expiresAt;
+
+		CachedResponse(JSONObject response, long expiresAt) {
+			this.response = response;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 Cache statistics.
+	 */
+	public static class Stats {
+
+		public final int size;
+		public final long hits;
+		public final long misses;
+		public final long evictions;
+		public final long invalidations;
+
+		Stats(int size, long hits, long misses, long evictions, long invalidations) {
+			this.size = size;
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.invalidations = invalidations;
+		}
+
+		public double getHitRatio() {
+			long total = hits + misses;
+
+			return total == 0 ? 0 : (double) hits / total;
+		}
+
+		@Override
+		public String toString() {
+			return "size=" + size + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+					+ ", invalidations=" + invalidations;
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Reading one attribute of every user of a user/get response: decoded into a JSONObject, as a
+ ResultCompletionHandler receives it, and decoded on demand, as an ApiResultHandler receives it.
+ Run with -Pprofilers=gc to compare the allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ApiResultBenchmark {
+
+	/// Number of users in the response.
+	@Param({"1000", "50000"})
+	public int users;
+
+	private byte[] response;
+
+	@Setup
+	public void setUp() throws Exception {
+		response = StubServer.usersResponse(0, users).getBytes("UTF-8");
+	}
+
+	@Benchmark
+	public long jsonObject() throws Exception {
+		JSONObject result = new JSONObject(ZelloAPI.readIt(new ByteArrayInputStream(response)));
+		JSONArray list = result.getJSONArray("users");
+		long length = 0;
+		for (int i = 0; i < list.length(); i++) {
+			length += list.getJSONObject(i).getString("full_name").length();
+		}
+
+		return length;
+	}
+
+	@Benchmark
+	public long apiResult() throws Exception {
+		ApiResult result = new ApiResult(ZelloAPI.readBytes(new ByteArrayInputStream(response)));
+		result.getScalarFields();
+		List<User> list = result.getUsers();
+		long length = 0;
+		for (int i = 0; i < list.size(); i++) {
+			length += list.get(i).getFullName().length();
+		}
+
+		return length;
+	}
+
+}
@@ -0,0 +1,114 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Building and writing the form body of deleteUsers() with FormBody, versus the string concatenation
+ (implode() and a BufferedWriter) it replaced. Run with -Pprofilers='gc' to compare the bytes
+ allocated per call (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormBodyBenchmark {
+
+	@Param({"10", "1000", "10000"})
+	public int users;
+
+	private ArrayList<String> logins;
+	private final CountingOutputStream connection = new CountingOutputStream();
+
+	@Setup
+	public void setUp() {
+		logins = new ArrayList<String>();
+		for (int i = 0; i < users; i++) {
+			// Some characters need escaping, as in real logins
+			logins.add("dispatcher " + i + "@north-east");
+		}
+	}
+
+	@Benchmark
+	public long formBody() throws IOException {
+		FormBody body = new FormBody.Builder().addAll("login[]", logins).build();
+		body.writeTo(connection);
+
+		return connection.count;
+	}
+
+	@Benchmark
+	public long stringConcatenation() throws IOException {
+		String parameters = implode("login[]=", "&login[]=", logins);
+
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(connection, "UTF-8"));
+		writer.write(parameters);
+		writer.flush();
+
+		return connection.count;
+	}
+
+	// The former ZelloAPI.implode()
+	private static String implode(String string, String glue, ArrayList<String> pieces) {
+		for (int i = 0; i < pieces.size(); i++) {
+			string += urlEncode(pieces.get(i));
+
+			if (i < pieces.size() - 1) {
+				string += glue;
+			}
+		}
+
+		return string;
+	}
+
+	private static String urlEncode(String string) {
+		try {
+			return URLEncoder.encode(string, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return string;
+		}
+	}
+
+	/**
+	 Stands in for the connection, so that only building and encoding the body is measured.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+}
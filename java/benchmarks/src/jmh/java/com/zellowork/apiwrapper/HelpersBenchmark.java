@@ -0,0 +1,81 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ The helpers on the path of every call: the login hash, encoding of path parameters and parsing of responses.
+ Building form bodies is measured by FormBodyBenchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HelpersBenchmark {
+
+	/// Number of users in the parsed user/get response.
+	@Param({"10", "1000"})
+	public int users;
+
+	private byte[] response;
+
+	@Setup
+	public void setUp() throws Exception {
+		response = StubServer.usersResponse(0, users).getBytes("UTF-8");
+	}
+
+	@Benchmark
+	public String md5() {
+		return ZelloAPI.MD5(ZelloAPI.MD5("password") + "token" + "key");
+	}
+
+	@Benchmark
+	public String urlEncode() {
+		return ZelloAPI.urlEncode("Dispatch & Support / North-East");
+	}
+
+	@Benchmark
+	public JSONObject parseResponse() throws Exception {
+		return new JSONObject(ZelloAPI.readIt(new ByteArrayInputStream(response)));
+	}
+
+	@Benchmark
+	public int streamResponse() throws Exception {
+		final int[] items = new int[1];
+		ZelloAPI.streamResponse(new ByteArrayInputStream(response), new ItemStreamHandler() {
+			@Override
+			public boolean onItem(String listName, JSONObject item) {
+				items[0]++;
+
+				return true;
+			}
+
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				// Empty
+			}
+		});
+
+		return items[0];
+	}
+
+}
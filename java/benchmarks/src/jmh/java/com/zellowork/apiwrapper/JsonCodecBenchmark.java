@@ -0,0 +1,83 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Decoding user/get responses and encoding channel role settings with each JsonCodec.
+ Run with -Pprofilers=gc to compare the allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonCodecBenchmark {
+
+	@Param({"org.json", "streaming"})
+	public String codec;
+
+	private JsonCodec jsonCodec;
+	private Map<String, Object> settings;
+
+	/**
+	 The decoded user/get response, in a state of its own so that encode() does not run for every size.
+	 */
+	@State(Scope.Thread)
+	public static class Response {
+
+		/// Number of users in the response.
+		@Param({"10", "1000", "10000"})
+		public int users;
+
+		byte[] bytes;
+
+		@Setup
+		public void setUp() throws Exception {
+			bytes = StubServer.usersResponse(0, users).getBytes("UTF-8");
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		jsonCodec = codec.equals("org.json") ? new OrgJsonCodec() : new StreamingJsonCodec();
+
+		settings = new LinkedHashMap<String, Object>();
+		settings.put("listen_only", false);
+		settings.put("no_disconnect", true);
+		settings.put("allow_alerts", false);
+		settings.put("to", Arrays.asList("Dispatchers", "Field \"North\""));
+	}
+
+	@Benchmark
+	public JSONObject decode(Response response) throws Exception {
+		return jsonCodec.decode(new ByteArrayInputStream(response.bytes));
+	}
+
+	@Benchmark
+	public String encode() {
+		return jsonCodec.encode(settings);
+	}
+
+}
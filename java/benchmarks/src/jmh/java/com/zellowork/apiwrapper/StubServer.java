@@ -0,0 +1,178 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ Local HTTP server answering like the Zello API, so that benchmarks measure the client and not the network.
+
+ Knows user/gettoken, user/login, user/get and channel/get (honoring the "max" and "start" path parameters),
+ and answers any other command with success. Request bodies are read and discarded.
+ Responses can be compressed with gzip for clients asking for it, like a server behind a compressing proxy.
+ */
+class StubServer {
+
+	private static final byte[] OK = bytes("{\"code\":\"200\",\"status\":\"OK\"}");
+	private static final byte[] TOKEN = bytes("{\"code\":\"200\",\"status\":\"OK\",\"token\":\"token\",\"sid\":\"session\"}");
+	private static final byte[] LOGIN = bytes("{\"code\":\"200\",\"status\":\"OK\",\"sid\":\"session\"}");
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final int users;
+	private final int channels;
+	private final boolean compress;
+
+	/**
+	 - parameter users:    number of users listed by user/get.
+	 - parameter channels: number of channels listed by channel/get.
+	 */
+	StubServer(int users, int channels) throws IOException {
+		this(users, channels, false);
+	}
+
+	/**
+	 - parameter users:    number of users listed by user/get.
+	 - parameter channels: number of channels listed by channel/get.
+	 - parameter compress: true to compress the responses to requests accepting gzip.
+	 */
+	StubServer(int users, int channels, boolean compress) throws IOException {
+		this.users = users;
+		this.channels = channels;
+		this.compress = compress;
+
+		// Without it, responses written in two parts wait for the delayed ACK of the client
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+		});
+		executor = Executors.newFixedThreadPool(16);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 Returns the host to pass to ZelloAPI, e.g. "127.0.0.1:51234".
+	 */
+	String getHost() {
+		return "127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 Returns a user/get response listing the given number of users, as the server sends it.
+	 */
+	static String usersResponse(int start, int count) {
+		StringBuilder builder = new StringBuilder("{\"code\":\"200\",\"status\":\"OK\",\"users\":[");
+		for (int i = start; i < start + count; i++) {
+			if (i > start) {
+				builder.append(',');
+			}
+			builder.append("{\"name\":\"user").append(i)
+					.append("\",\"full_name\":\"User ").append(i)
+					.append("\",\"job\":\"Dispatcher\",\"email\":\"user").append(i)
+					.append("@example.com\",\"limited_access\":false,\"gateway\":false,\"channels\":[\"Dispatch\",\"Team ")
+					.append(i % 10).append("\"]}");
+		}
+
+		return builder.append("]}").toString();
+	}
+
+	/**
+	 Returns a channel/get response listing the given number of channels.
+	 */
+	static String channelsResponse(int start, int count) {
+		StringBuilder builder = new StringBuilder("{\"code\":\"200\",\"status\":\"OK\",\"channels\":[");
+		for (int i = start; i < start + count; i++) {
+			if (i > start) {
+				builder.append(',');
+			}
+			builder.append("{\"name\":\"Team ").append(i)
+					.append("\",\"count\":").append(i % 50)
+					.append(",\"is_shared\":true,\"is_group\":false}");
+		}
+
+		return builder.append("]}").toString();
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		drain(exchange.getRequestBody());
+
+		String path = exchange.getRequestURI().getPath();
+		byte[] body;
+		if (path.startsWith("/user/gettoken")) {
+			body = TOKEN;
+		} else if (path.startsWith("/user/login")) {
+			body = LOGIN;
+		} else if (path.startsWith("/user/get")) {
+			int start = pathParameter(path, "start", 0);
+			int count = Math.max(0, Math.min(users, start + pathParameter(path, "max", users)) - start);
+			body = bytes(usersResponse(start, count));
+		} else if (path.startsWith("/channel/get")) {
+			int start = pathParameter(path, "start", 0);
+			int count = Math.max(0, Math.min(channels, start + pathParameter(path, "max", channels)) - start);
+			body = bytes(channelsResponse(start, count));
+		} else {
+			body = OK;
+		}
+
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (compress && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			body = ContentEncoding.gzip(body);
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+		}
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	// Returns the value following the name in the path, e.g. 100 for "max" in "/user/get/max/100".
+	private static int pathParameter(String path, String name, int defaultValue) {
+		String[] segments = path.split("/");
+		for (int i = 0; i < segments.length - 1; i++) {
+			if (segments[i].equals(name)) {
+				return Integer.parseInt(segments[i + 1]);
+			}
+		}
+
+		return defaultValue;
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[4096];
+		while (in.read(buffer) != -1) {
+			// Empty
+		}
+		in.close();
+	}
+
+	private static byte[] bytes(String string) {
+		try {
+			return string.getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
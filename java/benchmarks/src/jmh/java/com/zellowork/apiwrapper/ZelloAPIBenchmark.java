@@ -0,0 +1,124 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ API calls end to end, from the ZelloAPI method to the parsed response, against a StubServer on localhost.
+ Each operation waits for the result of its call; run with -t to make calls from several threads at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ZelloAPIBenchmark {
+
+	/// Number of users listed by user/get.
+	@Param({"100"})
+	public int users;
+
+	@Param({"HttpURLConnection", "HttpClient"})
+	public String transport;
+
+	/// True to have the server compress responses and the client compress request bodies of 1 KB or more.
+	@Param({"false", "true"})
+	public boolean compression;
+
+	private StubServer server;
+	private ZelloAPI api;
+	private Map<String, String> user;
+	private ArrayList<String> logins;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		server = new StubServer(users, 50, compression);
+		api = new ZelloAPI(server.getHost(), "key");
+		if (compression) {
+			api.setRequestCompressionThreshold(1024);
+		}
+		if (transport.equals("HttpClient")) {
+			api.setTransport(new HttpClientTransport());
+		}
+		check(api.authenticate("admin", "password").get());
+
+		user = new HashMap<String, String>();
+		user.put("name", "dispatcher 1");
+		user.put("full_name", "Dispatcher One");
+		user.put("job", "Dispatcher");
+		user.put("password", "5f4dcc3b5aa765d61d8327deb882cf99");
+
+		logins = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			logins.add("user" + i);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Benchmark
+	public ApiResponse getUsers() throws Exception {
+		return check(api.getUsers(null, null, null, null, null).get());
+	}
+
+	@Benchmark
+	public ApiResponse getChannels() throws Exception {
+		return check(api.getChannels(null, null, null).get());
+	}
+
+	@Benchmark
+	public ApiResponse saveUser() throws Exception {
+		return check(api.saveUser(user).get());
+	}
+
+	@Benchmark
+	public ApiResponse deleteUsers() throws Exception {
+		return check(api.deleteUsers(logins).get());
+	}
+
+	@Benchmark
+	public int streamUsers() {
+		PagedIterator iterator = api.streamUsers(null, null, 25, 2, null);
+		int count = 0;
+		while (iterator.hasNext()) {
+			iterator.next();
+			count++;
+		}
+
+		return count;
+	}
+
+	// Fails the benchmark instead of measuring failed calls.
+	private static ApiResponse check(ApiResponse response) {
+		if (!response.isSuccess()) {
+			throw new IllegalStateException("Call failed: " + response.getResponse(), response.getException());
+		}
+
+		return response;
+	}
+
+}
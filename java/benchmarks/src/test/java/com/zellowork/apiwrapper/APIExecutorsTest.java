@@ -0,0 +1,115 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class APIExecutorsTest {
+
+	private static final Executor REJECTING = new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			throw new RejectedExecutionException("full");
+		}
+	};
+
+	private static Thread handOffAndWait(Executor executor) throws InterruptedException {
+		final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+		final CountDownLatch done = new CountDownLatch(1);
+		APIExecutors.handOff(new Runnable() {
+			@Override
+			public void run() {
+				ranOn.set(Thread.currentThread());
+				done.countDown();
+			}
+		}, executor);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		return ranOn.get();
+	}
+
+	@Test
+	public void rejectedTaskRunsOnSpareThread() throws Exception {
+		Thread thread = handOffAndWait(REJECTING);
+
+		assertNotSame(Thread.currentThread(), thread);
+		assertTrue(thread.getName().startsWith("ZelloAPI-spare-"));
+	}
+
+	@Test
+	public void taskRunByTheCallerRunsOnSpareThread() throws Exception {
+		Executor callerRuns = new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				task.run();
+			}
+		};
+
+		assertTrue(handOffAndWait(callerRuns).getName().startsWith("ZelloAPI-spare-"));
+	}
+
+	@Test
+	public void taskRunsOnTheExecutorThatAcceptsIt() throws Exception {
+		ThreadPoolExecutor executor = APIExecutors.newBoundedExecutor(1, 1, new ThreadPoolExecutor.AbortPolicy());
+		try {
+			String name = handOffAndWait(executor).getName();
+			assertTrue(name.startsWith("ZelloAPI-"));
+			assertFalse(name.startsWith("ZelloAPI-spare-"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void spareThreadsAreBoundedUnderOverload() throws Exception {
+		final Thread caller = Thread.currentThread();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+		final AtomicInteger ranOnCaller = new AtomicInteger();
+		final int tasks = APIExecutors.SPARE_THREADS + APIExecutors.SPARE_QUEUE_CAPACITY + 10;
+		final CountDownLatch done = new CountDownLatch(tasks);
+
+		for (int i = 0; i < tasks; i++) {
+			APIExecutors.handOff(new Runnable() {
+				@Override
+				public void run() {
+					if (Thread.currentThread() == caller) {
+						ranOnCaller.incrementAndGet();
+					} else {
+						threads.add(Thread.currentThread());
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					done.countDown();
+				}
+			}, REJECTING);
+		}
+		release.countDown();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(threads.size() <= APIExecutors.SPARE_THREADS);
+		// Nothing is dropped: what does not fit runs on the caller
+		assertTrue(ranOnCaller.get() >= 10);
+	}
+
+}
@@ -0,0 +1,145 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	/// Counts the requests started by the limiter.
+	private static class Request implements Runnable {
+
+		final AtomicInteger started = new AtomicInteger();
+
+		@Override
+		public void run() {
+			started.incrementAndGet();
+		}
+	}
+
+	private static JSONObject response(String code) throws Exception {
+		return new JSONObject().put("code", code);
+	}
+
+	private static long millis(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	@Test
+	public void requestsAboveTheLimitWaitForAFreeSlot() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10).setLatencyTolerance(0);
+		Request request = new Request();
+
+		for (int i = 0; i < 3; i++) {
+			limiter.acquire(request);
+		}
+		assertEquals(2, request.started.get());
+		assertEquals(1, limiter.getWaiting());
+
+		limiter.release(millis(1), response("200"), null);
+		assertEquals(3, request.started.get());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(0, limiter.getWaiting());
+	}
+
+	@Test
+	public void removedRequestIsNotStarted() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 10);
+		Request first = new Request();
+		Request second = new Request();
+		limiter.acquire(first);
+		limiter.acquire(second);
+
+		assertTrue(limiter.remove(second));
+		limiter.release(millis(1), response("200"), null);
+
+		assertEquals(0, second.started.get());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void overloadLowersTheLimitDownToTheMinimum() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 2, 10).setBackoffRatio(0.5);
+		Request request = new Request();
+
+		limiter.acquire(request);
+		limiter.release(millis(1), response("503"), null);
+		assertEquals(4, limiter.getLimit());
+
+		limiter.acquire(request);
+		limiter.release(millis(1), null, new HttpStatusException(429, "url"));
+		assertEquals(2, limiter.getLimit());
+
+		limiter.acquire(request);
+		limiter.release(millis(1), null, new SocketTimeoutException());
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void otherErrorsDoNotLowerTheLimit() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 10).setBackoffRatio(0.5);
+		limiter.acquire(new Request());
+
+		limiter.release(millis(1), null, new HttpStatusException(500, "url"));
+
+		assertEquals(8, limiter.getLimit());
+	}
+
+	@Test
+	public void onlyASaturatedLimitGrows() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10).setLatencyTolerance(0);
+		Request request = new Request();
+
+		limiter.acquire(request);
+		limiter.release(millis(1), response("200"), null);
+		assertEquals(2, limiter.getLimit());
+
+		// About one more slot per round trip while every slot is in use
+		for (int i = 0; i < 4; i++) {
+			limiter.acquire(request);
+			limiter.acquire(request);
+			limiter.release(millis(1), response("200"), null);
+			limiter.release(millis(1), response("200"), null);
+		}
+		assertEquals(3, limiter.getLimit());
+	}
+
+	@Test
+	public void slowResponsesLowerTheLimit() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 10).setBackoffRatio(0.5);
+		Request request = new Request();
+
+		limiter.acquire(request);
+		limiter.release(millis(10), response("200"), null);
+		assertEquals(8, limiter.getLimit());
+
+		// Ten times slower than the baseline, beyond the default tolerance of 2
+		limiter.acquire(request);
+		limiter.release(millis(100), response("200"), null);
+		assertTrue(limiter.getLimit() < 8);
+	}
+
+	@Test
+	public void latencyThresholdLowersTheLimit() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 10)
+				.setBackoffRatio(0.5)
+				.setLatencyTolerance(0)
+				.setLatencyThreshold(50);
+		limiter.acquire(new Request());
+
+		limiter.release(millis(60), response("200"), null);
+
+		assertEquals(4, limiter.getLimit());
+	}
+
+}
@@ -0,0 +1,155 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApiFutureTest {
+
+	@Test
+	public void failedCallIsReturnedNotThrown() throws Exception {
+		ApiFuture future = new ApiFuture();
+		Exception error = new IOException();
+		future.onResult(false, null, error);
+
+		assertFalse(future.get().isSuccess());
+		assertSame(error, future.get(1, TimeUnit.SECONDS).getException());
+	}
+
+	@Test
+	public void onlyTheFirstResultIsKept() throws Exception {
+		ApiFuture future = new ApiFuture();
+		JSONObject first = new JSONObject();
+		future.onResult(true, first, null);
+		future.onResult(false, null, null);
+
+		assertSame(first, future.get().getResponse());
+	}
+
+	@Test
+	public void cancelledFutureThrowsFromGet() throws Exception {
+		ApiFuture future = new ApiFuture();
+		assertTrue(future.cancel(true));
+		future.onResult(true, new JSONObject(), null);
+
+		assertTrue(future.isCancelled());
+		assertTrue(future.isDone());
+		try {
+			future.get();
+			fail();
+		} catch (CancellationException e) {
+			// Expected
+		}
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			fail();
+		} catch (CancellationException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void cancelStopsTheCallAndNotifiesHandlers() throws Exception {
+		ApiFuture future = new ApiFuture();
+		ApiRequest request = new ApiRequest();
+		future.setRequest(request);
+		final AtomicReference<Exception> notified = new AtomicReference<Exception>();
+		future.addCompletionHandler(new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				notified.set(exception);
+			}
+		});
+
+		future.cancel(false);
+
+		assertTrue(request.isCancelled());
+		assertTrue(notified.get() instanceof CancellationException);
+		assertFalse(future.cancel(false));
+	}
+
+	@Test
+	public void completedFutureCannotBeCancelled() throws Exception {
+		ApiFuture future = new ApiFuture();
+		future.onResult(true, null, null);
+
+		assertFalse(future.cancel(true));
+		assertFalse(future.isCancelled());
+		assertTrue(future.get().isSuccess());
+	}
+
+	@Test(expected = TimeoutException.class)
+	public void getTimesOut() throws Exception {
+		new ApiFuture().get(10, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void thenComposeStartsTheNextCallWithThePreviousResult() throws Exception {
+		ApiFuture first = new ApiFuture();
+		final ApiFuture second = new ApiFuture();
+		final AtomicReference<ApiResponse> previous = new AtomicReference<ApiResponse>();
+		ApiFuture composed = first.thenCompose(new ApiFuture.Continuation() {
+			@Override
+			public ApiFuture then(ApiResponse response) {
+				previous.set(response);
+				return second;
+			}
+		});
+
+		first.onResult(false, null, null);
+		assertFalse(previous.get().isSuccess());
+		assertFalse(composed.isDone());
+
+		second.onResult(true, null, null);
+		assertTrue(composed.get().isSuccess());
+	}
+
+	@Test
+	public void cancellingComposedFutureCancelsTheNextCall() throws Exception {
+		ApiFuture first = new ApiFuture();
+		final ApiFuture second = new ApiFuture();
+		ApiFuture composed = first.thenCompose(new ApiFuture.Continuation() {
+			@Override
+			public ApiFuture then(ApiResponse response) {
+				return second;
+			}
+		});
+		first.onResult(true, null, null);
+
+		composed.cancel(true);
+
+		assertTrue(second.isCancelled());
+	}
+
+	@Test
+	public void allOfWaitsForEveryCall() throws Exception {
+		ApiFuture a = new ApiFuture();
+		ApiFuture b = new ApiFuture();
+		ApiFuture all = ApiFuture.allOf(a, b);
+		Exception error = new IOException();
+
+		a.onResult(true, null, null);
+		assertFalse(all.isDone());
+		b.onResult(false, null, error);
+
+		assertFalse(all.get().isSuccess());
+		assertSame(error, all.get().getException());
+		assertNull(all.get().getResponse());
+	}
+
+}
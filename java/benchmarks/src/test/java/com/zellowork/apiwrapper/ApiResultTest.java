@@ -0,0 +1,152 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApiResultTest {
+
+	private static final String USERS = "{\"code\":\"200\",\"status\":\"OK\",\"total\":3,\"users\":["
+			+ "{\"name\":\"bob\",\"full_name\":\"Bob \\\"B\\\" Smith\",\"admin\":true,\"limited_access\":\"1\",\"channels\":[\"A\",\"B\"]},"
+			+ "{\"name\":\"caf\\u00e9\",\"email\":null,\"gateway\":false,\"channels\":[]},"
+			+ "{\"name\":\"amy\",\"job\":\"ops\",\"extra\":{\"nested\":[1,{\"name\":\"not amy\"}]}}"
+			+ "]}";
+
+	private static ApiResult result(String json) throws JSONException {
+		char[] chars = json.toCharArray();
+
+		return new ApiResult(chars, 0, chars.length);
+	}
+
+	@Test
+	public void usersMatchOrgJson() throws Exception {
+		ApiResult result = result(USERS);
+		JSONArray expected = new JSONObject(USERS).getJSONArray("users");
+
+		List<User> users = result.getUsers();
+		assertEquals(expected.length(), users.size());
+		for (int i = 0; i < users.size(); i++) {
+			JSONObject user = expected.getJSONObject(i);
+			assertEquals(user.optString("name", null), users.get(i).getName());
+			assertEquals(user.optString("full_name", null), users.get(i).getFullName());
+			assertEquals(user.optString("job", null), users.get(i).getJob());
+		}
+		assertEquals("Bob \"B\" Smith", users.get(0).getFullName());
+		assertEquals("café", users.get(1).getName());
+		assertNull(users.get(1).getEmail());
+		assertTrue(users.get(1).has("email"));
+		assertFalse(users.get(1).has("job"));
+
+		assertTrue(users.get(0).isAdmin());
+		assertTrue(users.get(0).isLimitedAccess());
+		assertFalse(users.get(1).isGateway());
+		assertEquals(Arrays.asList("A", "B"), users.get(0).getChannels());
+		assertEquals(Collections.<String>emptyList(), users.get(1).getChannels());
+		assertEquals(Collections.<String>emptyList(), users.get(2).getChannels());
+	}
+
+	@Test
+	public void nestedFieldsAreNotMistakenForTopLevelOnes() throws Exception {
+		User amy = result(USERS).getUsers().get(2);
+
+		assertEquals("amy", amy.getName());
+		assertEquals("{\"nested\":[1,{\"name\":\"not amy\"}]}", amy.getString("extra"));
+		assertEquals("not amy", amy.getObject("extra").toJSONObject().getJSONArray("nested").getJSONObject(1).getString("name"));
+	}
+
+	@Test
+	public void topLevelFields() throws Exception {
+		ApiResult result = result(USERS);
+
+		assertTrue(result.isSuccess());
+		assertEquals("OK", result.getStatus());
+		assertEquals(3, result.getLong("total", -1));
+		assertEquals(USERS.length(), result.getContentLength());
+		assertEquals(0, result.getChannels().size());
+
+		JSONObject scalars = result.getScalarFields();
+		assertEquals(3, scalars.length());
+		assertEquals("200", scalars.getString("code"));
+		assertEquals(3, scalars.getInt("total"));
+		assertFalse(scalars.has("users"));
+	}
+
+	@Test
+	public void toJSONObjectMatchesOrgJson() throws Exception {
+		JSONObject expected = new JSONObject(USERS);
+		JSONObject actual = result(USERS).toJSONObject();
+
+		assertEquals(expected.length(), actual.length());
+		assertEquals(expected.getJSONArray("users").length(), actual.getJSONArray("users").length());
+		assertEquals(expected.getJSONArray("users").getJSONObject(0).getString("full_name"),
+				actual.getJSONArray("users").getJSONObject(0).getString("full_name"));
+	}
+
+	@Test
+	public void decodedFromUtf8() throws Exception {
+		ApiResult result = new ApiResult("{\"channels\":[{\"name\":\"Kanal ü €\",\"count\":\"12\",\"is_shared\":1}]}".getBytes("UTF-8"));
+
+		Channel channel = result.getChannels().get(0);
+		assertEquals("Kanal ü €", channel.getName());
+		assertEquals(12, channel.getCount());
+		assertTrue(channel.isShared());
+	}
+
+	@Test
+	public void rolesAndTheirSettings() throws Exception {
+		ApiResult result = result("{\"roles\":[{\"name\":\"dispatcher\",\"settings\":{\"listen_only\":false,\"allow_alerts\":true,\"to\":[\"drivers\"]}},{\"name\":\"guest\"}]}");
+
+		ChannelRole dispatcher = result.getRoles().get(0);
+		assertFalse(dispatcher.isListenOnly());
+		assertTrue(dispatcher.isAllowAlerts());
+		assertEquals(Arrays.asList("drivers"), dispatcher.getTo());
+		ChannelRole guest = result.getRoles().get(1);
+		assertNull(guest.getSettings());
+		assertEquals(Collections.<String>emptyList(), guest.getTo());
+	}
+
+	@Test
+	public void reEncodedResponse() throws Exception {
+		JSONObject response = new JSONObject().put("code", "200").put("users", new JSONArray().put(new JSONObject().put("name", "bob")));
+
+		ApiResult result = ApiResult.of(response);
+
+		assertEquals("bob", result.getUsers().get(0).getName());
+		assertNull(ApiResult.of(null));
+	}
+
+	@Test
+	public void malformedResponsesAreRejected() {
+		String[] malformed = {
+			"",
+			"[1]",
+			"{\"users\":[{\"name\":}]}",
+			"{\"code\":\"200\"} trailing",
+			"{\"code\":\"200\"",
+		};
+		for (String json : malformed) {
+			try {
+				result(json);
+				fail("accepted " + json);
+			} catch (JSONException e) {
+				// Expected
+			}
+		}
+	}
+
+}
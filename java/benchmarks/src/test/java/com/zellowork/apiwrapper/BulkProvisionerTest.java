@@ -0,0 +1,92 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkProvisionerTest {
+
+	private static List<Map<String, String>> users(String... names) {
+		List<Map<String, String>> users = new ArrayList<Map<String, String>>();
+		for (String name : names) {
+			Map<String, String> user = new HashMap<String, String>();
+			user.put("name", name);
+			users.add(user);
+		}
+
+		return users;
+	}
+
+	@Test
+	public void cancelBeforeRunIsKept() throws Exception {
+		FakeTransport transport = new FakeTransport();
+		BulkProvisioner provisioner = new BulkProvisioner(transport.newApi());
+		provisioner.cancel();
+
+		Map<String, Collection<String>> channels = new HashMap<String, Collection<String>>();
+		channels.put("alice", Arrays.asList("ops"));
+		BulkProvisioner.Report report = provisioner.run(users("alice").iterator(), channels);
+
+		assertTrue(report.cancelled);
+		assertTrue(transport.urls.isEmpty());
+	}
+
+	@Test
+	public void existingUsersAreAddedToTheirChannels() throws Exception {
+		FakeTransport transport = new FakeTransport();
+		BulkProvisioner provisioner = new BulkProvisioner(transport.newApi());
+
+		Map<String, Collection<String>> channels = new LinkedHashMap<String, Collection<String>>();
+		channels.put("alice", Arrays.asList("ops"));
+		channels.put("bob", Arrays.asList("ops"));
+		BulkProvisioner.Report report = provisioner.run(users("alice").iterator(), channels);
+
+		assertTrue(report.isSuccess());
+		assertEquals(1, report.usersSaved);
+		assertEquals(1, transport.count("user/save"));
+		assertEquals(1, transport.count("user/addto/ops"));
+		assertTrue(transport.bodies.contains("login[]=alice&login[]=bob"));
+	}
+
+	@Test
+	public void membershipsOfUsersThatFailedToSaveAreSkipped() throws Exception {
+		FakeTransport transport = new FakeTransport(new FakeTransport.Server() {
+			@Override
+			public String respond(ApiCall call, String body) {
+				if (body != null && body.contains("name=bob")) {
+					return "{\"code\":\"400\",\"status\":\"Bad request\"}";
+				}
+
+				return FakeTransport.OK;
+			}
+		});
+		BulkProvisioner provisioner = new BulkProvisioner(transport.newApi());
+
+		Map<String, Collection<String>> channels = new LinkedHashMap<String, Collection<String>>();
+		channels.put("alice", Arrays.asList("ops", "dev"));
+		channels.put("bob", Arrays.asList("ops", "dev"));
+		BulkProvisioner.Report report = provisioner.run(users("alice", "bob").iterator(), channels);
+
+		assertFalse(report.isSuccess());
+		assertEquals(1, report.usersFailed);
+		assertEquals(Arrays.asList("bob"), report.skippedUsers);
+		assertEquals(1, report.membershipCalls);
+		assertEquals(1, transport.count("user/addtochannels"));
+		assertTrue(transport.bodies.contains("users[]=alice&channels[]=dev&channels[]=ops"));
+	}
+
+}
@@ -0,0 +1,174 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedCallTest {
+
+	/// Holds the chunk calls until the test completes them.
+	private static class RecordingSender implements ChunkedCall.Sender {
+
+		final List<List<String>> chunks = new ArrayList<List<String>>();
+		final List<ResultCompletionHandler> handlers = new ArrayList<ResultCompletionHandler>();
+		final List<ApiRequest> requests = new ArrayList<ApiRequest>();
+
+		@Override
+		public ApiRequest send(List<String> chunk, ResultCompletionHandler completionHandler) {
+			ApiRequest request = new ApiRequest();
+			chunks.add(chunk);
+			handlers.add(request.wrap(completionHandler));
+			requests.add(request);
+
+			return request;
+		}
+
+		void complete(int index, boolean success, JSONObject response, Exception exception) {
+			handlers.get(index).onResult(success, response, exception);
+		}
+	}
+
+	private static class Result implements ResultCompletionHandler {
+
+		int calls;
+		boolean success;
+		JSONObject response;
+		Exception exception;
+
+		@Override
+		public void onResult(boolean success, JSONObject response, Exception exception) {
+			calls++;
+			this.success = success;
+			this.response = response;
+			this.exception = exception;
+		}
+	}
+
+	private static final List<String> USERS = Arrays.asList("u1", "u2", "u3", "u4", "u5");
+
+	private static JSONObject code(String code) throws Exception {
+		return new JSONObject().put("code", code);
+	}
+
+	@Test
+	public void listIsSplitIntoChunksSentAtMostConcurrencyAtATime() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		Result result = new Result();
+
+		ChunkedCall.send(USERS, 2, 2, sender, result);
+		assertEquals(2, sender.chunks.size());
+		assertEquals(Arrays.asList("u1", "u2"), sender.chunks.get(0));
+		assertEquals(Arrays.asList("u3", "u4"), sender.chunks.get(1));
+
+		sender.complete(1, true, code("200"), null);
+		assertEquals(3, sender.chunks.size());
+		assertEquals(Arrays.asList("u5"), sender.chunks.get(2));
+		assertEquals(0, result.calls);
+
+		sender.complete(0, true, code("200").put("first", true), null);
+		sender.complete(2, true, code("200"), null);
+
+		assertEquals(1, result.calls);
+		assertTrue(result.success);
+		assertEquals("200", result.response.getString("code"));
+		assertEquals(3, result.response.getInt("chunks"));
+		assertEquals(0, result.response.getInt("failed_chunks"));
+		assertFalse(result.response.has("failed"));
+	}
+
+	@Test
+	public void failedChunksAreReportedWithTheirValues() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		Result result = new Result();
+		Exception timeout = new SocketTimeoutException();
+
+		ChunkedCall.send(USERS, 2, 3, sender, result);
+		sender.complete(0, true, code("200"), null);
+		sender.complete(2, false, null, timeout);
+		sender.complete(1, false, code("400"), null);
+
+		assertFalse(result.success);
+		assertSame(timeout, result.exception);
+		// The first failed chunk got no response, so the code comes from the next one that did
+		assertEquals("400", result.response.getString("code"));
+		assertEquals(3, result.response.getInt("chunks"));
+		assertEquals(2, result.response.getInt("failed_chunks"));
+		JSONArray failed = result.response.getJSONArray("failed");
+		assertEquals(3, failed.length());
+		assertEquals("u5", failed.getString(0));
+		assertEquals("u3", failed.getString(1));
+		assertEquals("u4", failed.getString(2));
+	}
+
+	@Test
+	public void failureWithoutAnyResponseHasClientErrorCode() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		Result result = new Result();
+
+		ChunkedCall.send(USERS, 5, 1, sender, result);
+		sender.complete(0, false, null, new IOException());
+
+		assertFalse(result.success);
+		assertEquals(ChunkedCall.CLIENT_ERROR_CODE, result.response.getString("code"));
+		assertEquals(1, result.response.getInt("failed_chunks"));
+	}
+
+	@Test
+	public void chunkCompletedWhileBeingSentIsNotLost() throws Exception {
+		final Result result = new Result();
+		ChunkedCall.Sender sender = new ChunkedCall.Sender() {
+			@Override
+			public ApiRequest send(List<String> chunk, ResultCompletionHandler completionHandler) {
+				// Completes synchronously, as a cached read or an open circuit breaker does
+				ApiRequest request = new ApiRequest();
+				try {
+					request.wrap(completionHandler).onResult(true, code("200"), null);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+
+				return request;
+			}
+		};
+
+		ChunkedCall.send(USERS, 1, 2, sender, result);
+
+		assertEquals(1, result.calls);
+		assertTrue(result.success);
+		assertEquals(5, result.response.getInt("chunks"));
+	}
+
+	@Test
+	public void cancelStopsTheChunksInFlightAndSendsNoMore() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		Result result = new Result();
+
+		ApiRequest request = ChunkedCall.send(USERS, 2, 1, sender, result);
+		assertTrue(request.cancel());
+
+		assertTrue(sender.requests.get(0).isCancelled());
+		assertEquals(1, sender.chunks.size());
+		assertEquals(1, result.calls);
+		assertFalse(result.success);
+		assertNull(result.response);
+		assertTrue(result.exception instanceof CancellationException);
+	}
+
+}
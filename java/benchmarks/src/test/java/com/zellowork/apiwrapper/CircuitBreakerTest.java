@@ -0,0 +1,120 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+	private static void record(CircuitBreaker breaker, Exception exception) {
+		assertNull(breaker.tryAcquire());
+		breaker.onResult(exception);
+	}
+
+	@Test
+	public void opensWhenTheFailureRateReachesTheThreshold() {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 4, 60000);
+
+		record(breaker, null);
+		record(breaker, null);
+		record(breaker, new IOException());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		record(breaker, new HttpStatusException(503, "url"));
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		CircuitBreakerOpenException rejected = breaker.tryAcquire();
+		assertNotNull(rejected);
+		assertTrue(rejected.getRetryAfterMillis() > 0);
+	}
+
+	@Test
+	public void tooManyRequestsCountsAsFailure() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 2, 2, 60000);
+
+		record(breaker, new HttpStatusException(429, "url"));
+		record(breaker, new HttpStatusException(500, "url"));
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void clientErrorsDoNotCountAsFailures() {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 4, 60000);
+
+		for (int status : new int[] { 400, 401, 403, 404 }) {
+			record(breaker, new HttpStatusException(status, "url"));
+		}
+		record(breaker, new IOException());
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void unrelatedErrorsAreNotRecorded() {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 2, 60000);
+
+		record(breaker, new IOException());
+		record(breaker, new CancellationException());
+		record(breaker, new IllegalStateException());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		record(breaker, new IOException());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void halfOpenBreakerLetsOneProbeThroughAndClosesIfItSucceeds() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1, 1, 0);
+		record(breaker, new IOException());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		assertNull(breaker.tryAcquire());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertNotNull(breaker.tryAcquire());
+
+		breaker.onResult(null);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertNull(breaker.tryAcquire());
+	}
+
+	@Test
+	public void failedProbeOpensTheBreakerAgain() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1, 1, 0);
+		record(breaker, new IOException());
+
+		assertNull(breaker.tryAcquire());
+		breaker.onResult(new IOException());
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void openBreakerFailsCallsWithoutSendingThem() throws Exception {
+		FakeTransport transport = new FakeTransport(new FakeTransport.Server() {
+			@Override
+			public String respond(ApiCall call, String body) throws Exception {
+				throw new IOException("unreachable");
+			}
+		});
+		ZelloAPI api = transport.newApi();
+		api.setCircuitBreaker(new CircuitBreaker(1, 2, 2, 60000));
+
+		for (int i = 0; i < 5; i++) {
+			api.getUsers(null, null, null, null, null).get();
+		}
+
+		assertEquals(2, transport.count("user/get"));
+		assertTrue(api.getUsers(null, null, null, null, null).get().getException() instanceof CircuitBreakerOpenException);
+	}
+
+}
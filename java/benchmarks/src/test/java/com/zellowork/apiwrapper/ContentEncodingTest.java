@@ -0,0 +1,220 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ContentEncodingTest {
+
+	private static final byte[] TEXT = repeat("{\"code\":\"200\",\"users\":[{\"name\":\"alice\"}]}", 50);
+
+	private HttpServer server;
+	/// Content-Encoding and body of the request received by the server.
+	private final AtomicReference<String> requestEncoding = new AtomicReference<String>();
+	private final AtomicReference<byte[]> requestBody = new AtomicReference<byte[]>();
+
+	private static byte[] repeat(String text, int times) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			builder.append(text);
+		}
+		try {
+			return builder.toString().getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] deflate(byte[] bytes, boolean zlib) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		DeflaterOutputStream deflater = new DeflaterOutputStream(output, new Deflater(Deflater.DEFAULT_COMPRESSION, !zlib));
+		deflater.write(bytes);
+		deflater.close();
+
+		return output.toByteArray();
+	}
+
+	private static byte[] decode(byte[] bytes, String contentEncoding) throws IOException {
+		return FakeTransport.readAll(ContentEncoding.decode(new ByteArrayInputStream(bytes), contentEncoding));
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		// Responds with the body compressed as the path says, e.g. "/deflate", and to API calls with OK
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestEncoding.set(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+				requestBody.set(FakeTransport.readAll(exchange.getRequestBody()));
+
+				String encoding = exchange.getRequestURI().getPath().substring(1);
+				byte[] body;
+				if (encoding.equals("gzip")) {
+					body = ContentEncoding.gzip(TEXT);
+				} else if (encoding.equals("deflate")) {
+					body = deflate(TEXT, true);
+				} else {
+					body = FakeTransport.OK.getBytes("UTF-8");
+					encoding = "identity";
+				}
+				exchange.getResponseHeaders().set("Content-Encoding", encoding);
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream output = exchange.getResponseBody();
+				output.write(body);
+				exchange.close();
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void compressedBodiesAreDecoded() throws Exception {
+		assertArrayEquals(TEXT, decode(ContentEncoding.gzip(TEXT), "gzip"));
+		assertArrayEquals(TEXT, decode(ContentEncoding.gzip(TEXT), " X-GZIP "));
+		assertArrayEquals(TEXT, decode(deflate(TEXT, true), "deflate"));
+		// Raw deflate data, as some servers send
+		assertArrayEquals(TEXT, decode(deflate(TEXT, false), "deflate"));
+		assertArrayEquals(new byte[0], decode(new byte[0], "deflate"));
+	}
+
+	@Test
+	public void uncompressedBodyIsReturnedAsIs() throws Exception {
+		InputStream stream = new ByteArrayInputStream(TEXT);
+
+		assertSame(stream, ContentEncoding.decode(stream, null));
+		assertSame(stream, ContentEncoding.decode(stream, "identity"));
+	}
+
+	@Test(expected = IOException.class)
+	public void unsupportedEncodingFails() throws Exception {
+		ContentEncoding.decode(new ByteArrayInputStream(TEXT), "br");
+	}
+
+	@Test
+	public void closingTheInflatingStreamClosesTheBody() throws Exception {
+		final List<String> closed = new ArrayList<String>();
+		InputStream body = new ByteArrayInputStream(deflate(TEXT, true)) {
+			@Override
+			public void close() {
+				closed.add("body");
+			}
+		};
+		InputStream decoded = ContentEncoding.decode(body, "deflate");
+		assertArrayEquals(TEXT, FakeTransport.readAll(decoded));
+		decoded.close();
+
+		assertEquals(1, closed.size());
+		try {
+			decoded.available();
+			fail();
+		} catch (IOException e) {
+			// Closed
+		}
+	}
+
+	@Test
+	public void transportClosesTheDecompressingStream() throws Exception {
+		for (String encoding : new String[] { "gzip", "deflate" }) {
+			String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/" + encoding;
+			ApiCall call = new ApiCall("user/get", url, ZelloAPI.HTTPMethod.GET, null, null, new ApiRequest(), false, null, 5000, 5000, null);
+			final AtomicReference<InputStream> received = new AtomicReference<InputStream>();
+			final AtomicReference<byte[]> read = new AtomicReference<byte[]>();
+
+			new HttpURLConnectionTransport(new ConnectionPool()).send(call, new Transport.ResponseHandler() {
+				@Override
+				public void onResponse(InputStream body) {
+					received.set(body);
+					try {
+						ByteArrayOutputStream output = new ByteArrayOutputStream();
+						byte[] buffer = new byte[4096];
+						int count;
+						while ((count = body.read(buffer)) != -1) {
+							output.write(buffer, 0, count);
+						}
+						read.set(output.toByteArray());
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+
+				@Override
+				public void onFailure(Exception exception) {
+					throw new IllegalStateException(exception);
+				}
+			});
+
+			assertArrayEquals(TEXT, read.get());
+			try {
+				// Only a closed decompressing stream throws here
+				received.get().available();
+				fail(encoding);
+			} catch (IOException e) {
+				// Closed
+			}
+		}
+	}
+
+	@Test
+	public void largeRequestBodyIsSentCompressed() throws Exception {
+		ZelloAPI api = new ZelloAPI("http://127.0.0.1:" + server.getAddress().getPort(), "key");
+		api.setRequestCompressionThreshold(100);
+		List<String> users = new ArrayList<String>();
+		for (int i = 0; i < 200; i++) {
+			users.add("user" + i);
+		}
+
+		assertTrue(api.deleteUsers(new ArrayList<String>(users)).get().isSuccess());
+
+		assertEquals("gzip", requestEncoding.get());
+		String body = new String(FakeTransport.readAll(new GZIPInputStream(new ByteArrayInputStream(requestBody.get()))), "UTF-8");
+		assertTrue(body.startsWith("login[]=user0&login[]=user1&"));
+		assertTrue(body.endsWith("&login[]=user199"));
+	}
+
+	@Test
+	public void smallRequestBodyIsSentAsIs() throws Exception {
+		FakeTransport transport = new FakeTransport();
+		ZelloAPI api = transport.newApi();
+		api.setRequestCompressionThreshold(1000);
+		List<String> users = new ArrayList<String>();
+		users.add("alice");
+
+		api.deleteUsers(new ArrayList<String>(users)).get();
+
+		assertEquals("login[]=alice", transport.bodies.get(0));
+	}
+
+}
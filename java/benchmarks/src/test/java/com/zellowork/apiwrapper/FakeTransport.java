@@ -0,0 +1,136 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ Transport answering the calls from the test instead of a server.
+ It is asynchronous to ZelloAPI but answers right away, so calls complete on the calling thread.
+ */
+class FakeTransport implements Transport {
+
+	/**
+	 Answers one call.
+	 */
+	interface Server {
+		/**
+		 - parameter call: the call, e.g. to read its endpoint.
+		 - parameter body: the decoded POST body, e.g. "login[]=alice&login[]=bob", or null.
+		 - returns:        the response text. Throw to fail the call as the network would.
+		 */
+		String respond(ApiCall call, String body) throws Exception;
+	}
+
+	static final String OK = "{\"code\":\"200\",\"status\":\"OK\"}";
+
+	/// URLs of the calls sent, in order.
+	final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+	/// Decoded POST bodies of the calls sent, null for GET calls.
+	final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+	private volatile Server server;
+
+	FakeTransport() {
+		this(new Server() {
+			@Override
+			public String respond(ApiCall call, String body) {
+				return OK;
+			}
+		});
+	}
+
+	FakeTransport(Server server) {
+		this.server = server;
+	}
+
+	void setServer(Server server) {
+		this.server = server;
+	}
+
+	/**
+	 Creates an API instance sending its calls to the transport.
+	 */
+	ZelloAPI newApi() {
+		ZelloAPI api = new ZelloAPI("localhost", "key");
+		api.setTransport(this);
+
+		return api;
+	}
+
+	/**
+	 Returns the number of calls sent to the endpoint, e.g. "user/get" counts "user/get/login/admin" but not "user/gettoken".
+	 */
+	int count(String endpoint) {
+		String pattern = ".*/" + Pattern.quote(endpoint) + "([/?].*)?";
+		int count = 0;
+		synchronized (urls) {
+			for (String url : urls) {
+				if (url.matches(pattern)) {
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	@Override
+	public boolean isAsynchronous() {
+		return true;
+	}
+
+	@Override
+	public void send(ApiCall call, ResponseHandler responseHandler) {
+		String response;
+		try {
+			String body = call.getBody() != null ? decode(call.getBody()) : null;
+			urls.add(call.getUrl());
+			bodies.add(body);
+			response = server.respond(call, body);
+		} catch (Exception e) {
+			responseHandler.onFailure(e);
+			return;
+		}
+
+		try {
+			responseHandler.onResponse(new ByteArrayInputStream(response.getBytes("UTF-8")));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String decode(FormBody body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		body.writeTo(out);
+		byte[] bytes = out.toByteArray();
+		if (ContentEncoding.GZIP.equals(body.getContentEncoding())) {
+			bytes = readAll(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+		}
+
+		return URLDecoder.decode(new String(bytes, "UTF-8"), "UTF-8");
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+
+		return out.toByteArray();
+	}
+
+}
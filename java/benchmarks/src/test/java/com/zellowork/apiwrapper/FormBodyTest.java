@@ -0,0 +1,74 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FormBodyTest {
+
+	private static final String[] VALUES = {
+			"", "alice", "a b+c&d=e", "~!@#$%^()[]{}|\\:;\"'<>,?/`", "Zo\u00EB", "\u03A9 \u2248 \u00E7", "\u65E5\u672C\u8A9E", "\uD83D\uDE00 smile",
+			"lone \uD800 surrogate", "trailing \uDC00"
+	};
+
+	@Test
+	public void valuesAreEncodedLikeUrlEncoder() throws Exception {
+		for (String value : VALUES) {
+			FormBody body = new FormBody.Builder().add("v", value).build();
+
+			assertEquals(value, "v=" + URLEncoder.encode(value, "UTF-8"), body.toString());
+		}
+	}
+
+	@Test
+	public void parametersAreJoined() {
+		Map<String, String> user = new LinkedHashMap<String, String>();
+		user.put("name", "alice");
+		user.put("full_name", "Alice Smith");
+		FormBody body = new FormBody.Builder()
+				.addAll(user)
+				.addAll("users[]", Arrays.asList("bob", "carol"))
+				.add("empty", null)
+				.build();
+
+		assertEquals("name=alice&full_name=Alice+Smith&users[]=bob&users[]=carol&empty=", body.toString());
+	}
+
+	@Test
+	public void reusedBufferDoesNotChangeEarlierBodies() {
+		FormBody first = new FormBody.Builder().add("a", "first").build();
+		FormBody second = new FormBody.Builder().add("b", "2").build();
+
+		assertEquals("a=first", first.toString());
+		assertEquals("b=2", second.toString());
+	}
+
+	@Test
+	public void largeBodyGrowsTheBuffer() throws Exception {
+		StringBuilder expected = new StringBuilder();
+		FormBody.Builder builder = new FormBody.Builder();
+		for (int i = 0; i < 10000; i++) {
+			builder.add("login[]", "user " + i);
+			expected.append(i == 0 ? "" : "&").append("login[]=user+").append(i);
+		}
+		FormBody body = builder.build();
+
+		assertEquals(expected.toString(), body.toString());
+		assertEquals(expected.length(), body.getContentLength());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		body.writeTo(out);
+		assertArrayEquals(expected.toString().getBytes("US-ASCII"), out.toByteArray());
+	}
+
+}
@@ -0,0 +1,139 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpClientTransportTest {
+
+	private HttpServer server;
+	/// Released at the end of each test, so the stalled exchanges end.
+	private final CountDownLatch stall = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		// Sends the headers and the start of the body, then stalls
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream body = exchange.getResponseBody();
+				body.write("{\"users\":[{\"name\":\"a\"},".getBytes("UTF-8"));
+				body.flush();
+				try {
+					stall.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				exchange.close();
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		stall.countDown();
+		server.stop(0);
+	}
+
+	private ApiCall streamedCall(Deadline deadline, ApiRequest request) {
+		String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/user/get";
+
+		return new ApiCall("user/get", url, ZelloAPI.HTTPMethod.GET, null, deadline, request, true, null, 0, 0, null);
+	}
+
+	/// Reads the body until it ends or fails, recording the failure.
+	private static class Reader implements Transport.ResponseHandler {
+
+		final CountDownLatch done = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+		@Override
+		public void onResponse(InputStream body) {
+			try {
+				started.countDown();
+				byte[] buffer = new byte[256];
+				while (body.read(buffer) != -1) {
+					// Discard
+				}
+			} catch (IOException e) {
+				failure.set(e);
+			}
+			done.countDown();
+		}
+
+		@Override
+		public void onFailure(Exception exception) {
+			failure.set(exception);
+			done.countDown();
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void deadlineStopsAStalledStreamedBody() throws Exception {
+		Reader reader = new Reader();
+		new HttpClientTransport().send(streamedCall(Deadline.after(500), new ApiRequest()), reader);
+
+		assertTrue(reader.started.await(5, TimeUnit.SECONDS));
+		assertTrue(reader.done.await(5, TimeUnit.SECONDS));
+		assertTrue(reader.failure.get() instanceof IOException);
+	}
+
+	@Test(timeout = 20000)
+	public void streamsAreCountedPerAuthorityOfTheUrl() throws Exception {
+		Reader reader = new Reader();
+		HttpClientTransport transport = new HttpClientTransport();
+		transport.setMaxConcurrentStreams(1);
+		transport.send(streamedCall(null, new ApiRequest()), reader);
+		Reader queued = new Reader();
+		transport.send(streamedCall(null, new ApiRequest()), queued);
+		assertTrue(reader.started.await(5, TimeUnit.SECONDS));
+
+		String authority = "127.0.0.1:" + server.getAddress().getPort();
+		assertEquals(1, transport.getActiveStreams(authority));
+		assertEquals(1, transport.getQueuedRequests(authority));
+		assertEquals(0, transport.getActiveStreams("127.0.0.1"));
+	}
+
+	@Test(timeout = 20000)
+	public void cancelStopsAStalledStreamedBody() throws Exception {
+		Reader reader = new Reader();
+		ApiRequest request = new ApiRequest();
+		HttpClientTransport transport = new HttpClientTransport();
+		transport.setMaxConcurrentStreams(1);
+		transport.send(streamedCall(null, request), reader);
+		assertTrue(reader.started.await(5, TimeUnit.SECONDS));
+
+		request.cancel();
+
+		assertTrue(reader.done.await(5, TimeUnit.SECONDS));
+		assertTrue(reader.failure.get() instanceof IOException);
+		// The stream is freed for the next call
+		assertEquals(0, transport.getActiveStreams("127.0.0.1:" + server.getAddress().getPort()));
+	}
+
+}
@@ -0,0 +1,159 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonPullParserTest {
+
+	private static final String[] DOCUMENTS = {
+		"{}",
+		"[]",
+		"{\"code\":\"200\",\"status\":\"OK\"}",
+		" { \"a\" : [ 1 , -2 , 3.25 , -0.5e2 , 1E3 , 4294967296 ] , \"b\" : null , \"c\" : true , \"d\" : false } ",
+		"{\"escapes\":\"quote \\\" backslash \\\\ slash \\/ \\b\\f\\n\\r\\t end\"}",
+		"{\"unicode\":\"caf\\u00e9 \\u20AC \\ud83d\\ude00\",\"raw\":\"café € \uD83D\uDE00\"}",
+		"{\"users\":[{\"name\":\"bob\",\"channels\":[\"A\",\"B\"],\"admin\":true},{\"name\":\"amy\",\"channels\":[]}],\"total\":2}",
+		"[[[[{\"deep\":[{}, [], [null]]}]]]]",
+		"{\"\":\"\",\"empty\":[],\"nested\":{\"x\":{\"y\":{\"z\":\"1\"}}}}",
+	};
+
+	private static Object parse(String json) throws Exception {
+		char[] chars = json.toCharArray();
+		JsonPullParser parser = new JsonPullParser(chars, 0, chars.length);
+		Object value = parser.nextValue();
+		assertEquals(JsonPullParser.Token.END_DOCUMENT, parser.peek());
+
+		return value;
+	}
+
+	private static Object parseWithOrgJson(String json) throws JSONException {
+		return json.trim().startsWith("[") ? new JSONArray(json) : new JSONObject(json);
+	}
+
+	// Compares decoded values structurally, as the key order of a JSONObject is unspecified.
+	private static void assertJsonEquals(String path, Object expected, Object actual) throws JSONException {
+		if (expected instanceof JSONObject) {
+			assertTrue(path, actual instanceof JSONObject);
+			JSONObject expectedObject = (JSONObject) expected;
+			JSONObject actualObject = (JSONObject) actual;
+			assertEquals(path, expectedObject.length(), actualObject.length());
+			Iterator<?> keys = expectedObject.keys();
+			while (keys.hasNext()) {
+				String key = (String) keys.next();
+				assertTrue(path + "." + key, actualObject.has(key));
+				assertJsonEquals(path + "." + key, expectedObject.get(key), actualObject.get(key));
+			}
+		} else if (expected instanceof JSONArray) {
+			assertTrue(path, actual instanceof JSONArray);
+			JSONArray expectedArray = (JSONArray) expected;
+			JSONArray actualArray = (JSONArray) actual;
+			assertEquals(path, expectedArray.length(), actualArray.length());
+			for (int i = 0; i < expectedArray.length(); i++) {
+				assertJsonEquals(path + "[" + i + "]", expectedArray.get(i), actualArray.get(i));
+			}
+		} else if (expected instanceof Number) {
+			assertTrue(path, actual instanceof Number);
+			assertEquals(path, ((Number) expected).doubleValue(), ((Number) actual).doubleValue(), 0);
+		} else {
+			assertEquals(path, expected, actual);
+		}
+	}
+
+	@Test
+	public void nextValueMatchesOrgJson() throws Exception {
+		for (String json : DOCUMENTS) {
+			assertJsonEquals(json, parseWithOrgJson(json), parse(json));
+		}
+	}
+
+	@Test
+	public void readerAcrossBufferBoundariesMatchesOrgJson() throws Exception {
+		StringBuilder json = new StringBuilder("{\"users\":[");
+		for (int i = 0; i < 500; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"name\":\"user\\u00e9").append(i).append("\",\"job\":\"line\\nbreak \\\"quoted\\\"\",\"count\":").append(i * 1000003L).append('}');
+		}
+		json.append("],\"code\":\"200\"}");
+
+		JsonPullParser parser = new JsonPullParser(new StringReader(json.toString()));
+
+		assertJsonEquals("", new JSONObject(json.toString()), parser.nextValue());
+		assertEquals(JsonPullParser.Token.END_DOCUMENT, parser.peek());
+	}
+
+	@Test
+	public void skippedValueEndsAtItsPosition() throws Exception {
+		String json = "{\"skip\":{\"a\":[1,{\"b\":\"}]\"}]},\"keep\":\"value\"}";
+		char[] chars = json.toCharArray();
+		JsonPullParser parser = new JsonPullParser(chars, 0, chars.length);
+
+		parser.beginObject();
+		assertTrue(parser.nextNameEquals("skip"));
+		int valueStart = parser.getTokenStart();
+		parser.skipValue();
+		assertEquals("{\"a\":[1,{\"b\":\"}]\"}]}", json.substring(valueStart, parser.getPosition()));
+
+		assertFalse(parser.nextNameEquals("other"));
+		assertEquals("value", parser.nextString());
+		assertFalse(parser.hasNext());
+		parser.endObject();
+	}
+
+	@Test
+	public void parserOverPartOfArrayStopsAtItsEnd() throws Exception {
+		char[] chars = "xx[1,2]yy".toCharArray();
+		JsonPullParser parser = new JsonPullParser(chars, 2, 7);
+
+		assertJsonEquals("", new JSONArray("[1,2]"), parser.nextValue());
+		assertEquals(JsonPullParser.Token.END_DOCUMENT, parser.peek());
+	}
+
+	@Test
+	public void nameComparisonHandlesEscapes() throws Exception {
+		char[] chars = "{\"n\\u0061me\":1}".toCharArray();
+		JsonPullParser parser = new JsonPullParser(chars, 0, chars.length);
+
+		parser.beginObject();
+		assertTrue(parser.nextNameEquals("name"));
+	}
+
+	@Test
+	public void malformedDocumentsAreRejected() throws Exception {
+		String[] malformed = {
+			"",
+			"{",
+			"{\"a\" 1}",
+			"{\"a\":}",
+			"[1 2]",
+			"\"unterminated",
+			"{\"a\":\"bad escape \\x\"}",
+			"{\"a\":\"short unicode \\u12\"}",
+			"]",
+		};
+		for (String json : malformed) {
+			try {
+				parse(json);
+				fail("accepted " + json);
+			} catch (JSONException e) {
+				// Expected
+			}
+		}
+	}
+
+}
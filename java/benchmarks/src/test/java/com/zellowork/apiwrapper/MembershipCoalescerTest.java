@@ -0,0 +1,184 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MembershipCoalescerTest {
+
+	/// Records the merged calls instead of sending them.
+	private static class RecordingSender implements MembershipCoalescer.Sender {
+
+		final List<String> calls = new ArrayList<String>();
+		final List<ResultCompletionHandler> handlers = new ArrayList<ResultCompletionHandler>();
+		final CountDownLatch sent;
+
+		RecordingSender(int expectedCalls) {
+			sent = new CountDownLatch(expectedCalls);
+		}
+
+		@Override
+		public synchronized void send(boolean add, ArrayList<String> channelNames, ArrayList<String> users, ResultCompletionHandler completionHandler) {
+			calls.add((add ? "add " : "remove ") + channelNames + " " + users);
+			handlers.add(completionHandler);
+			sent.countDown();
+		}
+	}
+
+	private static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			task.run();
+		}
+	};
+
+	private static final ResultCompletionHandler IGNORED = new ResultCompletionHandler() {
+		@Override
+		public void onResult(boolean success, JSONObject response, Exception exception) {
+		}
+	};
+
+	private static ArrayList<String> list(String... values) {
+		return new ArrayList<String>(Arrays.asList(values));
+	}
+
+	@Test
+	public void callsToOneChannelAreMerged() {
+		RecordingSender sender = new RecordingSender(1);
+		MembershipCoalescer coalescer = new MembershipCoalescer(sender, DIRECT, 60000, 100);
+
+		coalescer.enqueue(true, "A", list("u1"), IGNORED);
+		coalescer.enqueue(true, "A", list("u2", "u1"), IGNORED);
+		coalescer.flush();
+
+		assertEquals(list("add [A] [u1, u2]"), sender.calls);
+	}
+
+	@Test
+	public void channelsWithTheSameUsersShareOneCall() {
+		RecordingSender sender = new RecordingSender(3);
+		MembershipCoalescer coalescer = new MembershipCoalescer(sender, DIRECT, 60000, 100);
+
+		coalescer.enqueue(true, "A", list("u1", "u2"), IGNORED);
+		coalescer.enqueue(true, "B", list("u1", "u2"), IGNORED);
+		coalescer.enqueue(true, "C", list("u3"), IGNORED);
+		coalescer.enqueue(false, "A", list("u9"), IGNORED);
+		coalescer.flush();
+
+		assertEquals(list("add [A, B] [u1, u2]", "add [C] [u3]", "remove [A] [u9]"), sender.calls);
+	}
+
+	@Test
+	public void everyHandlerReceivesTheResultOfItsCall() throws Exception {
+		RecordingSender sender = new RecordingSender(2);
+		MembershipCoalescer coalescer = new MembershipCoalescer(sender, DIRECT, 60000, 100);
+		final List<String> results = new ArrayList<String>();
+
+		for (final String channel : list("A", "B", "C")) {
+			coalescer.enqueue(true, channel, list(channel.equals("C") ? "u2" : "u1"), new ResultCompletionHandler() {
+				@Override
+				public void onResult(boolean success, JSONObject response, Exception exception) {
+					results.add(channel + "=" + success);
+				}
+			});
+		}
+		coalescer.flush();
+		sender.handlers.get(0).onResult(true, new JSONObject(), null);
+		sender.handlers.get(1).onResult(false, null, new Exception());
+
+		assertEquals(list("A=true", "B=true", "C=false"), results);
+	}
+
+	@Test
+	public void fullChannelIsSentBeforeTheWindowEnds() {
+		RecordingSender sender = new RecordingSender(1);
+		MembershipCoalescer coalescer = new MembershipCoalescer(sender, DIRECT, 60000, 2);
+
+		coalescer.enqueue(true, "A", list("u1"), IGNORED);
+		assertEquals(0, sender.calls.size());
+		coalescer.enqueue(true, "A", list("u2"), IGNORED);
+
+		assertEquals(list("add [A] [u1, u2]"), sender.calls);
+	}
+
+	@Test
+	public void reversingABufferedCallSendsItFirst() {
+		RecordingSender sender = new RecordingSender(3);
+		MembershipCoalescer coalescer = new MembershipCoalescer(sender, DIRECT, 60000, 100);
+
+		coalescer.enqueue(true, "A", list("u1"), IGNORED);
+		coalescer.enqueue(false, "A", list("u1"), IGNORED);
+		assertEquals(list("add [A] [u1]"), sender.calls);
+		coalescer.enqueue(true, "A", list("u1"), IGNORED);
+		coalescer.flush();
+
+		assertEquals(list("add [A] [u1]", "remove [A] [u1]", "add [A] [u1]"), sender.calls);
+	}
+
+	@Test
+	public void handlerExceptionIsRethrownAfterTheOtherHandlers() {
+		RecordingSender sender = new RecordingSender(1);
+		MembershipCoalescer coalescer = new MembershipCoalescer(sender, DIRECT, 60000, 100);
+		final IllegalStateException error = new IllegalStateException();
+		final AtomicInteger completed = new AtomicInteger();
+
+		coalescer.enqueue(true, "A", list("u1"), new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				throw error;
+			}
+		});
+		coalescer.enqueue(true, "A", list("u2"), new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				completed.incrementAndGet();
+			}
+		});
+		coalescer.flush();
+
+		try {
+			sender.handlers.get(0).onResult(true, new JSONObject(), null);
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e == error);
+		}
+		assertEquals(1, completed.get());
+	}
+
+	@Test
+	public void windowIsFlushedOnTheExecutor() throws Exception {
+		RecordingSender sender = new RecordingSender(1);
+		final AtomicInteger handedOff = new AtomicInteger();
+		Executor executor = new Executor() {
+			@Override
+			public void execute(final Runnable task) {
+				handedOff.incrementAndGet();
+				new Thread(task).start();
+			}
+		};
+		MembershipCoalescer coalescer = new MembershipCoalescer(sender, executor, 20, 100);
+
+		coalescer.enqueue(true, "A", list("u1"), IGNORED);
+		coalescer.enqueue(true, "A", list("u2"), IGNORED);
+
+		assertTrue(sender.sent.await(5, TimeUnit.SECONDS));
+		assertEquals(list("add [A] [u1, u2]"), sender.calls);
+		assertEquals(1, handedOff.get());
+	}
+
+}
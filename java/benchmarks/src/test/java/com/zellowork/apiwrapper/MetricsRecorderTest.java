@@ -0,0 +1,113 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRecorderTest {
+
+	private static void complete(MetricsRecorder recorder, long latencyMicros) {
+		recorder.onCallStarted("user/get");
+		recorder.onCallCompleted("user/get", true, "200", null, TimeUnit.MICROSECONDS.toNanos(latencyMicros), 0, 0);
+	}
+
+	@Test
+	public void everyValueFallsWithinItsBucket() {
+		long previousBound = -1;
+		for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+			long bound = LatencyHistogram.upperBoundOf(bucket);
+			assertTrue(bound > previousBound);
+			assertEquals(bucket, LatencyHistogram.bucketOf(bound));
+			assertEquals(bucket, LatencyHistogram.bucketOf(previousBound + 1));
+			previousBound = bound;
+		}
+		assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void bucketsAreWithinASixteenth() {
+		for (long value = 32; value < 1L << 36; value = value * 3 / 2) {
+			long bound = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value));
+			assertTrue(bound >= value);
+			assertTrue(bound - value <= value / 16);
+		}
+	}
+
+	@Test
+	public void percentilesFollowTheRecordedLatencies() {
+		MetricsRecorder recorder = new MetricsRecorder();
+		for (int i = 1; i <= 100; i++) {
+			complete(recorder, i * 1000);
+		}
+
+		MetricsSnapshot.Endpoint endpoint = recorder.snapshot().getEndpoint("user/get");
+		assertEquals(100, endpoint.getCalls());
+		assertEquals(0, endpoint.getInFlight());
+		assertEquals(50, endpoint.getLatencyPercentileMillis(50), 50 / 16.0);
+		assertEquals(99, endpoint.getLatencyPercentileMillis(99), 99 / 16.0);
+		assertEquals(100, endpoint.getLatencyPercentileMillis(100), 0);
+		assertEquals(100, endpoint.getMaxLatencyMillis(), 0);
+		assertEquals(50.5, endpoint.getMeanLatencyMillis(), 0.001);
+	}
+
+	@Test
+	public void bucketCountsAddUpToTheCalls() {
+		MetricsRecorder recorder = new MetricsRecorder();
+		complete(recorder, 5);
+		complete(recorder, 5);
+		complete(recorder, 1000);
+
+		MetricsSnapshot.Endpoint endpoint = recorder.snapshot().getEndpoint("user/get");
+		assertArrayEquals(new long[] { 2, 1 }, endpoint.getLatencyBucketCounts());
+		long[] bounds = endpoint.getLatencyBucketBoundsMicros();
+		assertEquals(5, bounds[0]);
+		assertTrue(bounds[1] >= 1000 && bounds[1] < 1000 + 1000 / 16);
+	}
+
+	@Test
+	public void failuresAndCodesAreCounted() {
+		MetricsRecorder recorder = new MetricsRecorder();
+		recorder.onCallStarted("user/save");
+		recorder.onRetry("user/save", 1);
+		recorder.onCallCompleted("user/save", false, null, new IOException(), 0, 10, 0);
+		recorder.onCallStarted("user/save");
+		recorder.onCallCompleted("user/save", false, "400", null, 0, 10, 20);
+		recorder.onCallStarted("user/save");
+
+		MetricsSnapshot.Endpoint endpoint = recorder.snapshot().getEndpoint("user/save");
+		assertEquals(2, endpoint.getCalls());
+		assertEquals(2, endpoint.getFailures());
+		assertEquals(1, endpoint.getClientErrors());
+		assertEquals(1, endpoint.getRetries());
+		assertEquals(1, endpoint.getInFlight());
+		assertEquals(Long.valueOf(1), endpoint.getCodes().get("400"));
+		assertEquals(20, endpoint.getBytesSent());
+		assertEquals(20, endpoint.getBytesReceived());
+	}
+
+	@Test
+	public void callsThroughTheApiAreRecorded() throws Exception {
+		FakeTransport transport = new FakeTransport();
+		ZelloAPI api = transport.newApi();
+		MetricsRecorder recorder = new MetricsRecorder();
+		api.setMetrics(recorder);
+
+		api.getUsers(null, null, null, null, null).get();
+		api.getUsers(null, null, null, null, null).get();
+
+		MetricsSnapshot.Endpoint endpoint = recorder.snapshot().getEndpoint("user/get");
+		assertEquals(2, endpoint.getCalls());
+		assertEquals(Long.valueOf(2), endpoint.getCodes().get("200"));
+		assertTrue(endpoint.getBytesReceived() > 0);
+	}
+
+}
@@ -0,0 +1,205 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PagedIteratorTest {
+
+	/// Serves a listing of "u0" to "u<total - 1>", returning at most cap entries per page.
+	private static class Listing implements PagedIterator.PageLoader {
+
+		final int total;
+		final int cap;
+		/// Start of a page to fail once, or -1.
+		int failAt = -1;
+		/// Pages from this start on are left pending, or -1.
+		int holdFrom = -1;
+		final List<Integer> starts = new ArrayList<Integer>();
+		final List<Integer> maxes = new ArrayList<Integer>();
+		final List<ApiRequest> held = new ArrayList<ApiRequest>();
+
+		Listing(int total, int cap) {
+			this.total = total;
+			this.cap = cap;
+		}
+
+		@Override
+		public synchronized ApiRequest loadPage(int start, int max, ResultCompletionHandler completionHandler) {
+			starts.add(start);
+			maxes.add(max);
+			ApiRequest request = new ApiRequest();
+			ResultCompletionHandler handler = request.wrap(completionHandler);
+			if (holdFrom >= 0 && start >= holdFrom) {
+				held.add(request);
+				return request;
+			}
+
+			try {
+				if (start == failAt) {
+					failAt = -1;
+					handler.onResult(false, new JSONObject().put("code", "500"), null);
+					return request;
+				}
+
+				JSONArray users = new JSONArray();
+				for (int i = start; i < Math.min(total, start + Math.min(max, cap)); i++) {
+					users.put(new JSONObject().put("name", "u" + i));
+				}
+				handler.onResult(true, new JSONObject().put("users", users), null);
+			} catch (JSONException e) {
+				throw new IllegalStateException(e);
+			}
+
+			return request;
+		}
+	}
+
+	private static void assertListing(int total, List<String> names) {
+		assertEquals(total, names.size());
+		for (int i = 0; i < total; i++) {
+			assertEquals("u" + i, names.get(i));
+		}
+	}
+
+	private static List<String> scan(PagedIterator iterator) throws JSONException {
+		List<String> names = new ArrayList<String>();
+		while (iterator.hasNext()) {
+			names.add(iterator.next().getString("name"));
+		}
+
+		return names;
+	}
+
+	@Test
+	public void wholeListingIsReturnedInOrder() throws Exception {
+		Listing listing = new Listing(45, 100);
+
+		assertListing(45, scan(new PagedIterator(listing, "users", 10, 3, null)));
+		// Pages follow each other
+		for (int i = 0; i < 5; i++) {
+			assertEquals(Integer.valueOf(i * 10), listing.starts.get(i));
+		}
+	}
+
+	@Test
+	public void serverCapOnPageSizeIsFollowed() throws Exception {
+		Listing listing = new Listing(95, 7);
+
+		assertListing(95, scan(new PagedIterator(listing, "users", 20, 3, null)));
+		// Pages after the first short one are requested with the size the server returned
+		for (int i = 3; i < listing.maxes.size(); i++) {
+			assertTrue(listing.maxes.get(i) <= 7);
+		}
+	}
+
+	@Test
+	public void failedPageIsRequestedAgain() throws Exception {
+		Listing listing = new Listing(50, 100);
+		listing.failAt = 20;
+		PagedIterator iterator = new PagedIterator(listing, "users", 10, 3, null);
+
+		List<String> names = new ArrayList<String>();
+		int errors = 0;
+		while (true) {
+			try {
+				if (!iterator.hasNext()) {
+					break;
+				}
+				names.add(iterator.next().getString("name"));
+			} catch (ZelloAPIException e) {
+				errors++;
+			}
+		}
+
+		assertEquals(1, errors);
+		assertListing(50, names);
+	}
+
+	@Test
+	public void emptyListing() throws Exception {
+		PagedIterator iterator = new PagedIterator(new Listing(0, 100), "users", 10, 2, null);
+
+		assertFalse(iterator.hasNext());
+		try {
+			iterator.next();
+			fail();
+		} catch (NoSuchElementException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void closeCancelsPagesInFlight() throws Exception {
+		Listing listing = new Listing(100, 100);
+		listing.holdFrom = 10;
+		PagedIterator iterator = new PagedIterator(listing, "users", 10, 3, null);
+
+		assertTrue(iterator.hasNext());
+		assertEquals(2, listing.held.size());
+
+		iterator.close();
+
+		assertFalse(iterator.hasNext());
+		for (ApiRequest request : listing.held) {
+			assertTrue(request.isCancelled());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void closeFromAnotherThreadEndsAWaitingScan() throws Exception {
+		Listing listing = new Listing(100, 100);
+		listing.holdFrom = 10;
+		final PagedIterator iterator = new PagedIterator(listing, "users", 10, 3, null);
+		final List<String> names = new ArrayList<String>();
+		final CountDownLatch done = new CountDownLatch(1);
+
+		Thread scanner = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					names.addAll(scan(iterator));
+				} catch (JSONException e) {
+					throw new IllegalStateException(e);
+				}
+				done.countDown();
+			}
+		});
+		scanner.start();
+		// The scanner is blocked in hasNext() waiting for the second page
+		while (scanner.getState() != Thread.State.WAITING) {
+			assertTrue(scanner.isAlive());
+			Thread.sleep(1);
+		}
+
+		iterator.close();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertListing(10, names);
+		for (ApiRequest request : listing.held) {
+			assertTrue(request.isCancelled());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void pageSizeMustBePositive() {
+		new PagedIterator(new Listing(0, 100), "users", 0, 1, null);
+	}
+
+}
@@ -0,0 +1,55 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+	@Test
+	public void burstIsSentRightAway() {
+		RateLimiter limiter = new RateLimiter(10, 3);
+
+		assertEquals(0, limiter.reserve());
+		assertEquals(0, limiter.reserve());
+		assertEquals(0, limiter.reserve());
+	}
+
+	@Test
+	public void requestsBeyondTheBurstAreSpacedByTheRate() {
+		RateLimiter limiter = new RateLimiter(10, 1);
+		limiter.reserve();
+
+		long first = limiter.reserve();
+		long second = limiter.reserve();
+
+		assertTrue(first > TimeUnit.MILLISECONDS.toNanos(50) && first <= TimeUnit.MILLISECONDS.toNanos(100));
+		assertTrue(second > TimeUnit.MILLISECONDS.toNanos(150) && second <= TimeUnit.MILLISECONDS.toNanos(200));
+	}
+
+	@Test
+	public void bucketRefillsUpToTheBurst() throws Exception {
+		RateLimiter limiter = new RateLimiter(100, 2);
+		limiter.reserve();
+		limiter.reserve();
+
+		Thread.sleep(100);
+
+		assertEquals(0, limiter.reserve());
+		assertEquals(0, limiter.reserve());
+		assertTrue(limiter.reserve() > 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rateMustBePositive() {
+		new RateLimiter(0, 1);
+	}
+
+}
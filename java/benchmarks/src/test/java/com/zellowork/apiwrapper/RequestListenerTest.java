@@ -0,0 +1,94 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RequestListenerTest {
+
+	/// Records the events in the order they are delivered.
+	private static class Recorder implements RequestListener {
+
+		final List<Event> events = Collections.synchronizedList(new ArrayList<Event>());
+		final List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+
+		@Override
+		public void onEvent(ApiCall call, Event event, long nanoTime) {
+			events.add(event);
+			times.add(nanoTime);
+		}
+
+		int count(Event event) {
+			return Collections.frequency(events, event);
+		}
+	}
+
+	@Test
+	public void phasesOfACallAreReportedInOrder() throws Exception {
+		FakeTransport transport = new FakeTransport();
+		ZelloAPI api = transport.newApi();
+		Recorder recorder = new Recorder();
+		api.setRequestListener(recorder);
+
+		api.getUsers(null, null, null, null, null).get();
+
+		assertEquals(RequestListener.Event.CALL_START, recorder.events.get(0));
+		assertEquals(RequestListener.Event.ATTEMPT_START, recorder.events.get(1));
+		assertEquals(RequestListener.Event.CALL_END, recorder.events.get(recorder.events.size() - 1));
+		for (int i = 1; i < recorder.events.size(); i++) {
+			assertTrue(recorder.events.get(i - 1).ordinal() <= recorder.events.get(i).ordinal());
+			assertTrue(recorder.times.get(i - 1) <= recorder.times.get(i));
+		}
+	}
+
+	@Test
+	public void everyAttemptIsReported() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		FakeTransport transport = new FakeTransport(new FakeTransport.Server() {
+			@Override
+			public String respond(ApiCall call, String body) throws Exception {
+				if (attempts.incrementAndGet() == 1) {
+					throw new IOException("reset");
+				}
+
+				return FakeTransport.OK;
+			}
+		});
+		ZelloAPI api = transport.newApi();
+		api.setRetryPolicy(new RetryPolicy().setBackoff(0, 0));
+		Recorder recorder = new Recorder();
+		api.setRequestListener(recorder);
+
+		api.getUsers(null, null, null, null, null).get();
+
+		assertEquals(1, recorder.count(RequestListener.Event.CALL_START));
+		assertEquals(2, recorder.count(RequestListener.Event.ATTEMPT_START));
+		assertEquals(1, recorder.count(RequestListener.Event.CALL_END));
+	}
+
+	@Test
+	public void cachedReadsAreNotReported() throws Exception {
+		FakeTransport transport = new FakeTransport();
+		ZelloAPI api = transport.newApi();
+		api.setResponseCache(new ResponseCache());
+		api.getUsers(null, null, null, null, null).get();
+		Recorder recorder = new Recorder();
+		api.setRequestListener(recorder);
+
+		api.getUsers(null, null, null, null, null).get();
+
+		assertTrue(recorder.events.isEmpty());
+	}
+
+}
@@ -0,0 +1,97 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCacheTest {
+
+	private FakeTransport transport;
+	private ZelloAPI api;
+	private ResponseCache cache;
+
+	@Before
+	public void setUp() {
+		transport = new FakeTransport(new FakeTransport.Server() {
+			@Override
+			public String respond(ApiCall call, String body) {
+				if (call.getCommand().equals("user/gettoken")) {
+					return "{\"code\":\"200\",\"token\":\"t\",\"sid\":\"s1\"}";
+				}
+
+				return "{\"code\":\"200\",\"users\":[]}";
+			}
+		});
+		api = transport.newApi();
+		cache = new ResponseCache();
+		api.setResponseCache(cache);
+	}
+
+	private void getUsers() throws Exception {
+		assertTrue(api.getUsers(null, null, null, null, null).get().isSuccess());
+	}
+
+	@Test
+	public void repeatedReadIsServedFromTheCache() throws Exception {
+		getUsers();
+		getUsers();
+
+		assertEquals(1, transport.count("user/get"));
+		assertEquals(1, cache.getStats().hits);
+	}
+
+	@Test
+	public void modificationInvalidatesTheAffectedListings() throws Exception {
+		getUsers();
+		Map<String, String> user = new HashMap<String, String>();
+		user.put("name", "alice");
+		api.saveUser(user).get();
+		getUsers();
+
+		assertEquals(2, transport.count("user/get"));
+	}
+
+	@Test
+	public void responsesAreNotSharedBetweenSessions() throws Exception {
+		api.sessionId = "a";
+		getUsers();
+		api.sessionId = "b";
+		getUsers();
+		api.sessionId = "a";
+		getUsers();
+
+		assertEquals(2, transport.count("user/get"));
+	}
+
+	@Test
+	public void loginAndLogoutClearTheCache() throws Exception {
+		assertTrue(api.authenticate("admin", "secret").get().isSuccess());
+		getUsers();
+		assertTrue(api.authenticate("admin", "secret").get().isSuccess());
+		getUsers();
+		assertEquals(2, transport.count("user/get"));
+
+		api.logout().get();
+
+		assertEquals(0, cache.getStats().size);
+	}
+
+	@Test
+	public void ttlOfZeroDisablesCaching() throws Exception {
+		cache.setTtl("user/get", 0);
+		getUsers();
+		getUsers();
+
+		assertEquals(2, transport.count("user/get"));
+	}
+
+}
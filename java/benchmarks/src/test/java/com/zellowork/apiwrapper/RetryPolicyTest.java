@@ -0,0 +1,132 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+	@Test
+	public void networkErrorsAndOverloadStatusesAreRetried() {
+		RetryPolicy policy = new RetryPolicy();
+
+		assertTrue(policy.shouldRetry("user/get", 1, null, new SocketTimeoutException()));
+		for (int status : new int[] { 429, 502, 503, 504 }) {
+			assertTrue(policy.shouldRetry("user/get", 1, null, new HttpStatusException(status, "url")));
+		}
+	}
+
+	@Test
+	public void otherStatusesAndClientErrorsAreNotRetried() {
+		RetryPolicy policy = new RetryPolicy();
+
+		for (int status : new int[] { 400, 401, 404, 500, 501 }) {
+			assertFalse(policy.shouldRetry("user/get", 1, null, new HttpStatusException(status, "url")));
+		}
+		assertFalse(policy.shouldRetry("user/get", 1, null, new IllegalStateException()));
+		assertFalse(policy.shouldRetry("user/get", 1, null, null));
+	}
+
+	@Test
+	public void onlyConfiguredEndpointsAndCodesAreRetried() throws Exception {
+		RetryPolicy policy = new RetryPolicy();
+		JSONObject busy = new JSONObject().put("code", "503");
+
+		assertFalse(policy.shouldRetry("user/delete", 1, null, new IOException()));
+		assertFalse(policy.shouldRetry("user/get", 1, busy, null));
+
+		policy.setRetryableCodes("503");
+		assertTrue(policy.shouldRetry("user/get", 1, busy, null));
+	}
+
+	@Test
+	public void attemptsAreLimited() {
+		RetryPolicy policy = new RetryPolicy().setMaxAttempts(2);
+
+		assertTrue(policy.shouldRetry("user/get", 1, null, new IOException()));
+		assertFalse(policy.shouldRetry("user/get", 2, null, new IOException()));
+	}
+
+	@Test
+	public void budgetLimitsRetriesAndIsRefilledByCalls() {
+		RetryPolicy policy = new RetryPolicy().setBudget(0.5, 2);
+
+		assertTrue(policy.shouldRetry("user/get", 1, null, new IOException()));
+		assertTrue(policy.shouldRetry("user/get", 1, null, new IOException()));
+		assertFalse(policy.shouldRetry("user/get", 1, null, new IOException()));
+
+		policy.onCall();
+		assertFalse(policy.shouldRetry("user/get", 1, null, new IOException()));
+		policy.onCall();
+		assertTrue(policy.shouldRetry("user/get", 1, null, new IOException()));
+	}
+
+	@Test
+	public void budgetDoesNotGrowBeyondTheReserve() {
+		RetryPolicy policy = new RetryPolicy().setBudget(1, 1);
+		for (int i = 0; i < 10; i++) {
+			policy.onCall();
+		}
+
+		assertTrue(policy.shouldRetry("user/get", 1, null, new IOException()));
+		assertFalse(policy.shouldRetry("user/get", 1, null, new IOException()));
+	}
+
+	@Test
+	public void delayIsBoundedByTheBackoff() {
+		RetryPolicy policy = new RetryPolicy().setBackoff(100, 300);
+
+		for (int attempt = 1; attempt < 40; attempt++) {
+			long delay = policy.getDelayMillis(attempt);
+			assertTrue(delay >= 0);
+			assertTrue(delay <= (attempt == 1 ? 100 : attempt == 2 ? 200 : 300));
+		}
+	}
+
+	@Test
+	public void failedReadIsSentAgain() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		FakeTransport transport = new FakeTransport(new FakeTransport.Server() {
+			@Override
+			public String respond(ApiCall call, String body) throws Exception {
+				if (attempts.incrementAndGet() < 3) {
+					throw new HttpStatusException(503, call.getUrl());
+				}
+
+				return FakeTransport.OK;
+			}
+		});
+		ZelloAPI api = transport.newApi();
+		api.setRetryPolicy(new RetryPolicy().setBackoff(0, 0));
+
+		assertTrue(api.getUsers(null, null, null, null, null).get().isSuccess());
+		assertEquals(3, transport.count("user/get"));
+	}
+
+	@Test
+	public void serverErrorIsNotSentAgain() throws Exception {
+		FakeTransport transport = new FakeTransport(new FakeTransport.Server() {
+			@Override
+			public String respond(ApiCall call, String body) throws Exception {
+				throw new HttpStatusException(500, call.getUrl());
+			}
+		});
+		ZelloAPI api = transport.newApi();
+		api.setRetryPolicy(new RetryPolicy().setBackoff(0, 0));
+
+		assertFalse(api.getUsers(null, null, null, null, null).get().isSuccess());
+		assertEquals(1, transport.count("user/get"));
+	}
+
+}
@@ -0,0 +1,247 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionManagerTest {
+
+	/// Session whose logins complete only when the test calls completeLogin().
+	private static class FakeSession implements SessionManager.Session {
+
+		volatile String sessionId = "stale";
+		final AtomicInteger logins = new AtomicInteger();
+		/// "username:password" of every login started.
+		final List<String> credentials = new ArrayList<String>();
+		final List<ResultCompletionHandler> pending = new ArrayList<ResultCompletionHandler>();
+
+		@Override
+		public String getSessionId() {
+			return sessionId;
+		}
+
+		@Override
+		public void setSessionId(String sessionId) {
+			this.sessionId = sessionId;
+		}
+
+		@Override
+		public void login(String username, String password, Deadline deadline, ResultCompletionHandler completionHandler) {
+			logins.incrementAndGet();
+			synchronized (pending) {
+				credentials.add(username + ":" + password);
+				pending.add(completionHandler);
+			}
+		}
+
+		// Completes the login in progress, publishing the new Session ID only if it succeeded, as ZelloAPI.login() does.
+		void completeLogin(boolean success, String newSessionId) {
+			ResultCompletionHandler handler;
+			synchronized (pending) {
+				handler = pending.remove(0);
+			}
+			if (success) {
+				sessionId = newSessionId;
+			}
+			handler.onResult(success, null, null);
+		}
+	}
+
+	private static class Result implements ResultCompletionHandler {
+
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile boolean success;
+
+		@Override
+		public void onResult(boolean success, JSONObject response, Exception exception) {
+			this.success = success;
+			done.countDown();
+		}
+
+		boolean await() throws InterruptedException {
+			assertTrue("not completed", done.await(5, TimeUnit.SECONDS));
+
+			return success;
+		}
+
+		boolean isDone() {
+			return done.getCount() == 0;
+		}
+	}
+
+	private FakeSession session;
+	private SessionManager manager;
+
+	@Before
+	public void setUp() throws Exception {
+		session = new FakeSession();
+		manager = new SessionManager(session);
+		manager.setReauthenticate(true);
+
+		Result first = new Result();
+		manager.authenticate("admin", "secret", null, first);
+		session.completeLogin(true, "stale");
+		assertTrue(first.await());
+		session.logins.set(0);
+	}
+
+	@Test
+	public void concurrentExpiredCallsShareOneLogin() throws Exception {
+		final int calls = 16;
+		final List<Result> results = new ArrayList<Result>();
+		final CountDownLatch started = new CountDownLatch(calls);
+		for (int i = 0; i < calls; i++) {
+			final Result result = new Result();
+			results.add(result);
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					manager.reauthenticate("stale", null, result);
+					started.countDown();
+				}
+			}).start();
+		}
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		assertEquals(1, session.logins.get());
+		for (Result result : results) {
+			assertFalse(result.isDone());
+		}
+		// Calls must not see a new Session ID before the login has succeeded
+		assertEquals("stale", session.getSessionId());
+
+		session.completeLogin(true, "fresh");
+		for (Result result : results) {
+			assertTrue(result.await());
+		}
+		assertEquals("fresh", session.getSessionId());
+	}
+
+	@Test
+	public void callJoinsLoginInProgressEvenIfItsSessionIdLooksCurrent() throws Exception {
+		Result first = new Result();
+		manager.reauthenticate("stale", null, first);
+		Result second = new Result();
+		manager.reauthenticate("stale", null, second);
+
+		assertEquals(1, session.logins.get());
+		assertFalse(second.isDone());
+
+		session.completeLogin(true, "fresh");
+		assertTrue(first.await());
+		assertTrue(second.await());
+	}
+
+	@Test
+	public void callSentBeforeRenewalIsResentWithoutLoggingInAgain() throws Exception {
+		session.setSessionId("fresh");
+
+		Result result = new Result();
+		manager.reauthenticate("stale", null, result);
+
+		assertTrue(result.await());
+		assertEquals(0, session.logins.get());
+	}
+
+	@Test
+	public void failedLoginFailsEveryWaitingCallAndKeepsTheSessionId() throws Exception {
+		Result first = new Result();
+		manager.reauthenticate("stale", null, first);
+		Result second = new Result();
+		manager.reauthenticate("stale", null, second);
+
+		session.completeLogin(false, "fresh");
+
+		assertFalse(first.await());
+		assertFalse(second.await());
+		assertEquals("stale", session.getSessionId());
+	}
+
+	@Test
+	public void loginWithTheSameCredentialsIsJoined() throws Exception {
+		Result first = new Result();
+		manager.authenticate("admin", "secret", null, first);
+		Result second = new Result();
+		manager.authenticate("admin", "secret", null, second);
+
+		assertEquals(1, session.logins.get());
+		session.completeLogin(true, "fresh");
+		assertTrue(first.await());
+		assertTrue(second.await());
+	}
+
+	@Test
+	public void loginWithOtherCredentialsWaitsForTheLoginInProgress() throws Exception {
+		Result admin = new Result();
+		manager.authenticate("admin", "secret", null, admin);
+		Result other = new Result();
+		manager.authenticate("other", "password", null, other);
+		Result otherAgain = new Result();
+		manager.authenticate("other", "password", null, otherAgain);
+
+		assertEquals(1, session.logins.get());
+		session.completeLogin(true, "admin-session");
+		assertTrue(admin.await());
+		assertFalse(other.isDone());
+
+		assertEquals(2, session.logins.get());
+		session.completeLogin(false, "other-session");
+		assertFalse(other.await());
+		assertFalse(otherAgain.await());
+		assertEquals("admin-session", session.getSessionId());
+	}
+
+	@Test
+	public void failedLoginKeepsTheCredentialsOfTheLastSuccessfulOne() throws Exception {
+		Result wrong = new Result();
+		manager.authenticate("admin", "wrong", null, wrong);
+		session.completeLogin(false, "fresh");
+		assertFalse(wrong.await());
+
+		Result result = new Result();
+		manager.reauthenticate("stale", null, result);
+		session.completeLogin(true, "fresh");
+
+		assertTrue(result.await());
+		assertEquals("admin:secret", session.credentials.get(session.credentials.size() - 1));
+	}
+
+	@Test
+	public void noReauthenticationWithoutCredentials() throws Exception {
+		manager.onLogout();
+
+		Result result = new Result();
+		manager.reauthenticate("stale", null, result);
+
+		assertFalse(result.await());
+		assertEquals(0, session.logins.get());
+	}
+
+	@Test
+	public void onlySessionExpiredCodesTriggerReauthentication() throws Exception {
+		assertTrue(manager.shouldReauthenticate(new JSONObject().put("code", "301")));
+		assertFalse(manager.shouldReauthenticate(new JSONObject().put("code", "500")));
+		assertFalse(manager.shouldReauthenticate(null));
+
+		manager.setSessionExpiredCodes("401");
+		assertTrue(manager.shouldReauthenticate(new JSONObject().put("code", "401")));
+
+		manager.setReauthenticate(false);
+		assertFalse(manager.shouldReauthenticate(new JSONObject().put("code", "401")));
+	}
+
+}
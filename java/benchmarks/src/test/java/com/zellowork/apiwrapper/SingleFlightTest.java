@@ -0,0 +1,124 @@
+//
+//  Copyright © 2016 Zello. All rights reserved.
+//
+
+package com.zellowork.apiwrapper;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+	private static class Recorder implements ResultCompletionHandler {
+
+		final List<JSONObject> responses = new ArrayList<JSONObject>();
+
+		@Override
+		public synchronized void onResult(boolean success, JSONObject response, Exception exception) {
+			responses.add(response);
+		}
+	}
+
+	@Test
+	public void callersOfTheSameKeyShareOneRequest() throws Exception {
+		SingleFlight flights = new SingleFlight();
+		Recorder first = new Recorder();
+		Recorder second = new Recorder();
+
+		ResultCompletionHandler request = flights.join("user/get", first);
+		assertNotNull(request);
+		assertNull(flights.join("user/get", second));
+
+		JSONObject response = new JSONObject().put("code", "200");
+		request.onResult(true, response, null);
+
+		assertSame(response, first.responses.get(0));
+		assertSame(response, second.responses.get(0));
+	}
+
+	@Test
+	public void differentKeysDoNotShare() {
+		SingleFlight flights = new SingleFlight();
+
+		assertNotNull(flights.join("user/get", new Recorder()));
+		assertNotNull(flights.join("channel/get", new Recorder()));
+	}
+
+	@Test
+	public void completedRequestIsNotJoined() throws Exception {
+		SingleFlight flights = new SingleFlight();
+		Recorder first = new Recorder();
+		flights.join("user/get", first).onResult(true, new JSONObject(), null);
+
+		Recorder second = new Recorder();
+		assertNotNull(flights.join("user/get", second));
+		assertEquals(1, first.responses.size());
+		assertEquals(0, second.responses.size());
+	}
+
+	@Test
+	public void failingHandlerDoesNotStopTheOthers() throws Exception {
+		SingleFlight flights = new SingleFlight();
+		ResultCompletionHandler request = flights.join("user/get", new ResultCompletionHandler() {
+			@Override
+			public void onResult(boolean success, JSONObject response, Exception exception) {
+				throw new IllegalStateException("handler bug");
+			}
+		});
+		Recorder second = new Recorder();
+		flights.join("user/get", second);
+
+		request.onResult(true, new JSONObject(), null);
+
+		assertEquals(1, second.responses.size());
+	}
+
+	@Test
+	public void concurrentCallersAreAllCompleted() throws Exception {
+		final SingleFlight flights = new SingleFlight();
+		final int threads = 32;
+		final AtomicInteger requests = new AtomicInteger();
+		final AtomicInteger completed = new AtomicInteger();
+		final List<ResultCompletionHandler> performed = new ArrayList<ResultCompletionHandler>();
+		final CountDownLatch joined = new CountDownLatch(threads);
+
+		for (int i = 0; i < threads; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					ResultCompletionHandler request = flights.join("user/get", new ResultCompletionHandler() {
+						@Override
+						public void onResult(boolean success, JSONObject response, Exception exception) {
+							completed.incrementAndGet();
+						}
+					});
+					if (request != null) {
+						requests.incrementAndGet();
+						synchronized (performed) {
+							performed.add(request);
+						}
+					}
+					joined.countDown();
+				}
+			}).start();
+		}
+		assertTrue(joined.await(5, TimeUnit.SECONDS));
+
+		assertEquals(1, requests.get());
+		performed.get(0).onResult(true, new JSONObject(), null);
+		assertEquals(threads, completed.get());
+	}
+
+}